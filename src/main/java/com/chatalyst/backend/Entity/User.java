@@ -12,7 +12,9 @@ import java.util.HashSet;
 import java.util.Set;
 
 @Entity
-@Table(name = "users")
+@Table(name = "users", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_users_telegram_chat_id", columnNames = "telegram_chat_id") // Один покупатель на чат
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -86,5 +88,9 @@ private LocalDateTime subscriptionEnd; // Дата окончания тариф
 @Column(nullable = false)
 private Boolean active = true;
 
+    // Чат Telegram покупателя (для пользователей, созданных ботом); см. TelegramClientUserService
+    @Column(name = "telegram_chat_id")
+    private Long telegramChatId;
+
 
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+package com.chatalyst.backend.Repository;
+
+import com.chatalyst.backend.model.BotDailyStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface BotDailyStatsRepository extends JpaRepository<BotDailyStats, Long> {
+
+    // Дневные счётчики бота за период (границы включительно)
+    List<BotDailyStats> findByBotIdentifierAndStatsDateBetween(String botIdentifier, LocalDate from, LocalDate to);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM BotDailyStats s WHERE s.botIdentifier = :botIdentifier")
+    int deleteByBotIdentifier(@Param("botIdentifier") String botIdentifier);
+}
@@ -3,7 +3,11 @@ package com.chatalyst.backend.Repository;
 import com.chatalyst.backend.model.Bot;
 import com.chatalyst.backend.Entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -22,4 +26,10 @@ public interface BotRepository extends JpaRepository<Bot, Long> {
     // Новый метод: Найти бота по его Telegram API ID
     Optional<Bot> findByTelegramBotApiId(Long telegramBotApiId);
     long countByOwner(User owner);
+
+    // Отметить изменение каталога бота (см. Bot.catalogVersion); в транзакции изменения товаров, если она есть
+    @Modifying
+    @Transactional
+    @Query("UPDATE Bot b SET b.catalogVersion = b.catalogVersion + 1 WHERE b.id = :botId")
+    int incrementCatalogVersion(@Param("botId") Long botId);
 }
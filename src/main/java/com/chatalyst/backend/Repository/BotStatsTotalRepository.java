@@ -0,0 +1,18 @@
+package com.chatalyst.backend.Repository;
+
+import com.chatalyst.backend.model.BotStatsTotal;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface BotStatsTotalRepository extends JpaRepository<BotStatsTotal, String> {
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM BotStatsTotal s WHERE s.botIdentifier = :botIdentifier")
+    int deleteByBotIdentifier(@Param("botIdentifier") String botIdentifier);
+}
@@ -9,17 +9,36 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional; // Добавлено
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long> {
     /**
-     * Retrieves the top 25 chat messages for a specific chat and bot, ordered by ID in descending order.
-     * This is useful for fetching the most recent messages.
+     * Retrieves the top 30 chat messages for a specific chat and bot created after the given time, newest first.
+     * Messages are ordered by creation time, then by ID: ID blocks are allocated per instance,
+     * so IDs alone do not follow the conversation order (reverse for chronological order).
+     * The lower time bound lets PostgreSQL skip monthly partitions of chat_message older than it.
      * @param chatId The ID of the chat.
      * @param botIdentifier The identifier of the bot.
-     * @return A list of the top 25 ChatMessage objects.
+     * @param createdAfter Lower bound (exclusive) of the message creation time.
+     * @return A list of the top 30 ChatMessage objects.
      */
-    List<ChatMessage> findTop30ByChatIdAndBotIdentifierOrderByIdDesc(Long chatId, String botIdentifier);
+    List<ChatMessage> findTop30ByChatIdAndBotIdentifierAndCreatedAtAfterOrderByCreatedAtDescIdDesc(
+            Long chatId, String botIdentifier, LocalDateTime createdAfter);
+
+    /**
+     * Retrieves the IDs of a chat's messages at or after the given position in (created_at, id) order.
+     * Served by the (bot_identifier, chat_id, created_at DESC, id DESC) index without reading the rows.
+     * @param chatId The ID of the chat.
+     * @param botIdentifier The identifier of the bot.
+     * @param createdAt Creation time of the first message to include.
+     * @param id ID of the first message to include among messages created at createdAt.
+     * @return IDs of the matching messages in no particular order.
+     */
+    @Query("SELECT m.id FROM ChatMessage m WHERE m.chatId = :chatId AND m.botIdentifier = :botIdentifier"
+            + " AND (m.createdAt > :createdAt OR (m.createdAt = :createdAt AND m.id >= :id))")
+    List<Long> findIdsFrom(@Param("chatId") Long chatId, @Param("botIdentifier") String botIdentifier,
+                           @Param("createdAt") LocalDateTime createdAt, @Param("id") Long id);
 
     /**
      * Counts the total number of messages for a specific bot.
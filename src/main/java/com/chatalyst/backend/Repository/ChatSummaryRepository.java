@@ -0,0 +1,23 @@
+package com.chatalyst.backend.Repository;
+
+import com.chatalyst.backend.model.ChatSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+@Repository
+public interface ChatSummaryRepository extends JpaRepository<ChatSummary, Long> {
+
+    // Найти содержание диалога конкретного чата и бота
+    Optional<ChatSummary> findByChatIdAndBotIdentifier(Long chatId, String botIdentifier);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ChatSummary s WHERE s.botIdentifier = :botIdentifier")
+    int deleteByBotIdentifier(@Param("botIdentifier") String botIdentifier);
+}
@@ -16,6 +16,9 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     // Найти все товары, привязанные к определенному боту
     List<Product> findByBot(Bot bot);
 
+    // Найти все товары бота по его ID (для снимка каталога)
+    List<Product> findByBotId(Long botId);
+
     // Найти товар по имени и боту
     Optional<Product> findByNameAndBot(String name, Bot bot);
 
@@ -0,0 +1,53 @@
+package com.chatalyst.backend.Repository;
+
+import com.chatalyst.backend.model.TokenUsageHourly;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface TokenUsageHourlyRepository extends JpaRepository<TokenUsageHourly, Long> {
+
+    /**
+     * Итоги по чатам бота за [from, to), чаты с наибольшим расходом токенов первыми.
+     */
+    @Query("""
+        SELECT h.chatId AS chatId, SUM(h.requests) AS requests, SUM(h.promptTokens) AS promptTokens,
+               SUM(h.completionTokens) AS completionTokens, SUM(h.usdCost) AS usdCost, SUM(h.kztCost) AS kztCost
+        FROM TokenUsageHourly h
+        WHERE h.botIdentifier = :botIdentifier AND h.bucketStart >= :from AND h.bucketStart < :to
+        GROUP BY h.chatId
+        ORDER BY SUM(h.totalTokens) DESC
+    """)
+    List<ChatTotals> sumByChat(@Param("botIdentifier") String botIdentifier,
+                               @Param("from") LocalDateTime from,
+                               @Param("to") LocalDateTime to,
+                               Pageable pageable);
+
+    /**
+     * Почасовые итоги одного чата бота за [from, to).
+     */
+    List<TokenUsageHourly> findByBotIdentifierAndChatIdAndBucketStartGreaterThanEqualAndBucketStartLessThan(
+            String botIdentifier, Long chatId, LocalDateTime from, LocalDateTime to);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM TokenUsageHourly h WHERE h.botIdentifier = :botIdentifier")
+    int deleteByBotIdentifier(@Param("botIdentifier") String botIdentifier);
+
+    interface ChatTotals {
+        Long getChatId();
+        Long getRequests();
+        Long getPromptTokens();
+        Long getCompletionTokens();
+        Double getUsdCost();
+        Double getKztCost();
+    }
+}
@@ -0,0 +1,23 @@
+package com.chatalyst.backend.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Clock;
+import java.time.ZoneId;
+
+/**
+ * Часы истории диалогов: created_at сообщений, помесячные секции chat_message и срок хранения
+ * считаются в одном часовом поясе chat.log.time-zone — в нём же миграция V1 (плейсхолдер Flyway
+ * chat-log-time-zone) определяет границу текущего месяца. Иначе при разных поясах JVM и БД сообщения
+ * на стыке месяцев попадали бы не в ту секцию или не записывались вовсе.
+ */
+@Configuration
+public class ChatLogClockConfig {
+
+    @Bean
+    public Clock chatLogClock(@Value("${chat.log.time-zone:UTC}") ZoneId zone) {
+        return Clock.system(zone);
+    }
+}
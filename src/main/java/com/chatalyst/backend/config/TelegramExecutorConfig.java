@@ -0,0 +1,67 @@
+package com.chatalyst.backend.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.task.SimpleAsyncTaskExecutorBuilder;
+import org.springframework.boot.task.ThreadPoolTaskExecutorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Пул потоков для обработки обновлений Telegram.
+ * По умолчанию — фиксированный пул платформенных потоков.
+ * С spring.threads.virtual.enabled=true на Java 21 (профиль "virtual") каждое обновление
+ * выполняется в своём виртуальном потоке: блокирующие JPA-запросы и .block() на WebClient
+ * в этом случае не занимают потоки ОС, а параллелизм ограничивает только размер очереди.
+ * <p>
+ * Автоконфигурация Spring Boot не создаёт applicationTaskExecutor, если в контексте уже есть
+ * любой Executor, поэтому он объявлен здесь так же, как в TaskExecutionAutoConfiguration
+ * (настройки spring.task.execution.*), — @Async и прочие пользователи пула по умолчанию
+ * не переходят на пул обновлений Telegram.
+ */
+@Configuration
+public class TelegramExecutorConfig {
+
+    @Bean(name = "telegramUpdateExecutor")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ThreadPoolExecutor telegramUpdateExecutor(@Value("${telegram.updates.workers:32}") int workerCount) {
+        return new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), namedThreadFactory("tg-update-"));
+    }
+
+    @Bean(name = "telegramUpdateExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public Executor virtualTelegramUpdateExecutor() {
+        return new VirtualThreadTaskExecutor("tg-update-");
+    }
+
+    @Lazy
+    @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ThreadPoolTaskExecutor applicationTaskExecutor(ThreadPoolTaskExecutorBuilder builder) {
+        return builder.build();
+    }
+
+    @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public SimpleAsyncTaskExecutor applicationTaskExecutorVirtualThreads(SimpleAsyncTaskExecutorBuilder builder) {
+        return builder.virtualThreads(true).build();
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> new Thread(runnable, prefix + counter.incrementAndGet());
+    }
+}
@@ -17,12 +17,14 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
 import java.util.List;
 
 @RestController
@@ -177,7 +179,7 @@ public class BotController {
 
     @GetMapping("/stats/{botId}")
     @PreAuthorize("hasAnyRole('USER', 'STANDARD', 'PREMIUM', 'ADMIN')")
-    @Operation(summary = "Получить статистику по боту", description = "Возвращает общее количество сообщений и диалогов для указанного бота. Доступно только владельцу бота.")
+    @Operation(summary = "Получить статистику по боту", description = "Возвращает количество сообщений и диалогов для указанного бота за всё время или за период from–to (yyyy-MM-dd, включительно). Число диалогов приближённое (погрешность около 2%). Доступно только владельцу бота.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Статистика успешно получена",
                     content = @Content(schema = @Schema(implementation = BotStats.class))),
@@ -187,9 +189,11 @@ public class BotController {
                     content = @Content(schema = @Schema(implementation = MessageResponse.class)))
     })
     public ResponseEntity<?> getBotStatistics(@PathVariable Long botId,
+                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
                                                @AuthenticationPrincipal UserPrincipal userPrincipal) {
         try {
-            BotStats stats = botService.getBotStatistics(botId, userPrincipal.getId());
+            BotStats stats = botService.getBotStatistics(botId, userPrincipal.getId(), from, to);
             return ResponseEntity.ok(stats);
         } catch (RuntimeException e) {
             log.error("Ошибка при получении статистики для бота {}: {}", botId, e.getMessage());
@@ -1,10 +1,11 @@
 // src/main/java/com/chatalyst/backend/controller/TelegramWebhookController.java
 package com.chatalyst.backend.controller;
 
-import com.chatalyst.backend.security.services.TelegramService;
+import com.chatalyst.backend.security.services.TelegramUpdateDispatcher;
 import com.fasterxml.jackson.databind.JsonNode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -15,21 +16,26 @@ import org.springframework.web.bind.annotation.*;
 @CrossOrigin(origins = "*", maxAge = 3600)
 public class TelegramWebhookController {
 
-    private final TelegramService telegramService;
+    private final TelegramUpdateDispatcher updateDispatcher;
 
     /**
      * Эндпоинт для обработки входящих вебхуков от Telegram.
      * Telegram будет отправлять обновления на URL вида:
      * https://ВАШ_NGROK_URL/api/telegram/webhook/ИДЕНТИФИКАТОР_БОТА
+     * Обновление только ставится в очередь, обработка идёт в фоне.
      * @param botIdentifier Идентификатор бота (username) из URL.
      * @param updateJson JSON-объект входящего обновления от Telegram.
-     * @return ResponseEntity с пустым ответом (Telegram ожидает 200 OK).
+     * @return ResponseEntity с пустым ответом (Telegram ожидает 200 OK),
+     *         либо 503, если очередь переполнена и Telegram должен повторить доставку.
      */
     @PostMapping("/webhook/{botIdentifier}") // ИЗМЕНЕНО: теперь принимает botIdentifier из пути
     public ResponseEntity<?> handleTelegramWebhook(@PathVariable String botIdentifier, @RequestBody JsonNode updateJson) {
-        log.info("Received webhook for bot {}: {}", botIdentifier, updateJson.toString());
+        log.debug("Received webhook for bot {}: {}", botIdentifier, updateJson);
         try {
-            telegramService.processUpdate(botIdentifier, updateJson); // Передаем botIdentifier в сервис
+            TelegramUpdateDispatcher.Admission admission = updateDispatcher.submit(botIdentifier, updateJson);
+            if (admission == TelegramUpdateDispatcher.Admission.REJECTED) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+            }
             return ResponseEntity.ok().build(); // Telegram ожидает 200 OK
         } catch (Exception e) {
             log.error("Error processing Telegram webhook for bot {}: {}", botIdentifier, e.getMessage(), e);
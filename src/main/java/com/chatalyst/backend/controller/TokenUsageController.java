@@ -1,14 +1,19 @@
 package com.chatalyst.backend.controller;
 
+import com.chatalyst.backend.dto.MessageResponse;
 import com.chatalyst.backend.dto.TokenUsageStatsDTO;
 import com.chatalyst.backend.security.services.TokenUsageService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.time.LocalDate;
+
 @RestController
 @RequestMapping("/api/token-usage")
 @RequiredArgsConstructor
@@ -16,9 +21,22 @@ public class TokenUsageController {
 
     private final TokenUsageService tokenUsageService;
 
+    /**
+     * Статистика бота за период: from/to — даты (yyyy-MM-dd, включительно), chatId — один чат,
+     * byChat=true — разбивка по чатам (не больше limit чатов).
+     */
     @GetMapping("/stats/{botIdentifier}")
-    public ResponseEntity<TokenUsageStatsDTO> getBotStats(@PathVariable String botIdentifier) {
-        TokenUsageStatsDTO stats = tokenUsageService.getBotTokenUsageStats(botIdentifier);
-        return ResponseEntity.ok(stats);
+    public ResponseEntity<?> getBotStats(@PathVariable String botIdentifier,
+                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                         @RequestParam(required = false) Long chatId,
+                                         @RequestParam(defaultValue = "false") boolean byChat,
+                                         @RequestParam(defaultValue = "50") int limit) {
+        try {
+            TokenUsageStatsDTO stats = tokenUsageService.getBotTokenUsageStats(botIdentifier, from, to, chatId, byChat, limit);
+            return ResponseEntity.ok(stats);
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(new MessageResponse("Ошибка: " + e.getMessage()));
+        }
     }
 }
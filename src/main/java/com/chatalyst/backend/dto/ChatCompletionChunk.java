@@ -0,0 +1,31 @@
+package com.chatalyst.backend.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * Один фрагмент потокового ответа OpenAI /chat/completions (stream: true).
+ * Последний фрагмент при stream_options.include_usage содержит только usage и пустой choices.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ChatCompletionChunk(List<Choice> choices, ChatCompletionResponse.Usage usage) {
+
+    /**
+     * @return Новый кусок текста ответа или null, если фрагмент его не содержит.
+     */
+    public String content() {
+        if (choices == null || choices.isEmpty() || choices.get(0).delta() == null) {
+            return null;
+        }
+        return choices.get(0).delta().content();
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Choice(Delta delta) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Delta(String content) {
+    }
+}
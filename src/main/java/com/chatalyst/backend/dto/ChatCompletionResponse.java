@@ -0,0 +1,40 @@
+package com.chatalyst.backend.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Ответ OpenAI /chat/completions — только поля, которые использует приложение.
+ * Остальные поля ответа пропускаются при разборе.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ChatCompletionResponse(List<Choice> choices, Usage usage) {
+
+    /**
+     * @return Текст первого варианта ответа.
+     * @throws IllegalStateException если OpenAI не вернул ни одного варианта.
+     */
+    public String content() {
+        if (choices == null || choices.isEmpty() || choices.get(0).message() == null) {
+            throw new IllegalStateException("OpenAI response has no choices");
+        }
+        String content = choices.get(0).message().content();
+        return content != null ? content : "";
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Choice(Message message) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Message(String role, String content) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Usage(@JsonProperty("prompt_tokens") int promptTokens,
+                        @JsonProperty("completion_tokens") int completionTokens,
+                        @JsonProperty("total_tokens") int totalTokens) {
+    }
+}
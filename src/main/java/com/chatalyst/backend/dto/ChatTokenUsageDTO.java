@@ -0,0 +1,17 @@
+package com.chatalyst.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChatTokenUsageDTO {
+    private Long chatId;
+    private Long requests;
+    private Long promptTokens;
+    private Long completionTokens;
+    private Double usdCost;
+    private Double kztCost;
+}
@@ -1,12 +1,17 @@
 package com.chatalyst.backend.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.LocalDate;
+import java.util.List;
+
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class TokenUsageStatsDTO {
     private String botIdentifier;
     private Long totalRequests;
@@ -14,4 +19,11 @@ public class TokenUsageStatsDTO {
     private Long totalCompletionTokens;
     private Double totalUsdCost;
     private Double totalKztCost;
-}
\ No newline at end of file
+    // Период статистики (включительно); from == null — с начала истории
+    private LocalDate from;
+    private LocalDate to;
+    // Чат, если статистика по одному чату
+    private Long chatId;
+    // Разбивка по чатам (по запросу), чаты с наибольшим расходом первыми
+    private List<ChatTokenUsageDTO> chats;
+}
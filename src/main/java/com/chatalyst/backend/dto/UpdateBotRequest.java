@@ -14,4 +14,11 @@ public class UpdateBotRequest {
     private String shopName;
 
     private String paymentQrCodeUrl;
+
+    // Кэш ответов ИИ на повторяющиеся вопросы; null — не менять
+    private Boolean responseCacheEnabled;
+
+    // Модель ИИ из llm.allowed-models ("gpt-4o-mini"); пустая строка — модель по умолчанию, null — не менять
+    @Size(max = 100, message = "Название модели не должно превышать 100 символов")
+    private String llmModel;
 }
\ No newline at end of file
@@ -47,6 +47,21 @@ public class Bot {
     @Column(length = 1000)
     private String description;
 
+    // Переиспользовать ответы ИИ на повторяющиеся вопросы (ResponseCacheService)
+    @Column(name = "response_cache_enabled", nullable = false, columnDefinition = "boolean default true")
+    private boolean responseCacheEnabled = true;
+
+    // Модель ИИ магазина ("gpt-4o-mini", "stub:fast"); null — openai.model, см. ChatCompletionRouter
+    @Column(name = "llm_model", length = 100)
+    private String llmModel;
+
+    // Версия каталога товаров: растёт при каждом изменении (ProductService), по ней экземпляры
+    // сверяют свои снимки каталога. Пишется только BotRepository.incrementCatalogVersion,
+    // чтобы сохранение настроек бота не затёрло её старым значением.
+    @Column(name = "catalog_version", nullable = false, insertable = false, updatable = false,
+            columnDefinition = "bigint not null default 0")
+    private long catalogVersion;
+
     public Bot(String name, String botIdentifier, String platform, String accessToken,
                Long telegramBotApiId, String shopName, User owner, String description) {
         this.name = name;
@@ -0,0 +1,39 @@
+package com.chatalyst.backend.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDate;
+
+/**
+ * Счётчики бота за день: число сообщений и эскиз HyperLogLog различных чатов
+ * (эскизы дней объединяются, чтобы посчитать диалоги за произвольный период).
+ * Обновляется BotStatsService вместе с записью сообщений.
+ */
+@Entity
+@Table(name = "bot_daily_stats", uniqueConstraints = {
+    @UniqueConstraint(columnNames = {"bot_identifier", "stats_date"}) // Ключ upsert
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BotDailyStats {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String botIdentifier;
+
+    // День по времени сервера.
+    @Column(nullable = false)
+    private LocalDate statsDate;
+
+    private long messages;
+
+    // HyperLogLog.toBytes() по id чатов за день.
+    @Column(columnDefinition = "bytea")
+    private byte[] chatsSketch;
+}
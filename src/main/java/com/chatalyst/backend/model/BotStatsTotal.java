@@ -0,0 +1,26 @@
+package com.chatalyst.backend.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Счётчики бота за всё время — одна строка на бота, поэтому общая статистика читается за O(1).
+ * Обновляется BotStatsService вместе с записью сообщений.
+ */
+@Entity
+@Table(name = "bot_stats_total")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BotStatsTotal {
+
+    @Id
+    private String botIdentifier;
+
+    private long messages;
+
+    // HyperLogLog.toBytes() по id всех чатов бота.
+    @Column(columnDefinition = "bytea")
+    private byte[] chatsSketch;
+}
@@ -4,6 +4,8 @@ package com.chatalyst.backend.model;
 import jakarta.persistence.*;
 import lombok.*;
 
+import java.time.LocalDateTime;
+
 /**
  * Модель для хранения сообщений чата в базе данных.
  */
@@ -14,8 +16,10 @@ import lombok.*;
 @Builder
 public class ChatMessage {
 
+    // Id выдаются блоками из последовательности (ChatLogWriter пишет сообщения пакетами с готовыми id)
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chat_message_seq")
+    @SequenceGenerator(name = "chat_message_seq", sequenceName = "chat_message_seq", allocationSize = 50)
     private Long id;
 
     // Роль отправителя: "user" или "assistant"
@@ -30,4 +34,8 @@ public class ChatMessage {
 
     // Идентификатор бота, которому принадлежит сообщение.
     private String botIdentifier;
+
+    // Время сообщения; по нему таблица разбита на помесячные секции (проставляет ChatLogWriter).
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
 }
\ No newline at end of file
@@ -0,0 +1,43 @@
+package com.chatalyst.backend.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Сжатое содержание старой части диалога (одна запись на чат и бота).
+ * Подставляется в промпт вместо реплик, которые в него уже вошли.
+ */
+@Entity
+@Table(name = "chat_summaries", uniqueConstraints = {
+    @UniqueConstraint(columnNames = {"chat_id", "bot_identifier"}) // Одно содержание на диалог
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ChatSummary {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Идентификатор чата Telegram.
+    private Long chatId;
+
+    // Идентификатор бота, которому принадлежит диалог.
+    private String botIdentifier;
+
+    // Текст содержания.
+    @Column(columnDefinition = "TEXT")
+    private String summary;
+
+    // ID последнего сообщения chat_message, вошедшего в содержание.
+    private Long lastMessageId;
+
+    // created_at того же сообщения: граница содержания сравнивается по (created_at, id) — порядку диалога.
+    private LocalDateTime lastMessageCreatedAt;
+
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,39 @@
+package com.chatalyst.backend.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDate;
+
+/**
+ * Дневной итог расхода токенов по боту (по всем чатам).
+ * Поддерживается TokenUsageWriter; из него считается общая статистика бота за период.
+ */
+@Entity
+@Table(name = "token_usage_daily", uniqueConstraints = {
+    @UniqueConstraint(columnNames = {"bot_identifier", "usage_date"}) // Ключ upsert
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class TokenUsageDaily {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String botIdentifier;
+
+    // День по времени сервера.
+    @Column(nullable = false)
+    private LocalDate usageDate;
+
+    private long requests;
+    private long promptTokens;
+    private long completionTokens;
+    private long totalTokens;
+    private double usdCost;
+    private double kztCost;
+}
@@ -0,0 +1,44 @@
+package com.chatalyst.backend.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Почасовой итог расхода токенов по чату бота.
+ * Поддерживается TokenUsageWriter (upsert вместе с записью сырых строк openaitoken_usage);
+ * используется для отбора по времени с точностью до часа и разбивки по чатам.
+ */
+@Entity
+@Table(name = "token_usage_hourly", uniqueConstraints = {
+    @UniqueConstraint(columnNames = {"bot_identifier", "chat_id", "bucket_start"}) // Ключ upsert
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class TokenUsageHourly {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String botIdentifier;
+
+    // Идентификатор чата Telegram (0 — старые записи без чата).
+    @Column(nullable = false)
+    private Long chatId;
+
+    // Начало часа (время сервера).
+    @Column(nullable = false)
+    private LocalDateTime bucketStart;
+
+    private long requests;
+    private long promptTokens;
+    private long completionTokens;
+    private long totalTokens;
+    private double usdCost;
+    private double kztCost;
+}
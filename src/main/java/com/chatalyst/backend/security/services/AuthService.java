@@ -7,7 +7,12 @@ import com.chatalyst.backend.Repository.RoleRepository;
 import com.chatalyst.backend.Repository.UserRepository;
 import com.chatalyst.backend.Repository.BotRepository;
 import com.chatalyst.backend.Repository.ChatMessageRepository;
+import com.chatalyst.backend.Repository.ChatSummaryRepository;
 import com.chatalyst.backend.Repository.OpenAITokenUsageRepository;
+import com.chatalyst.backend.Repository.TokenUsageDailyRepository;
+import com.chatalyst.backend.Repository.BotDailyStatsRepository;
+import com.chatalyst.backend.Repository.BotStatsTotalRepository;
+import com.chatalyst.backend.Repository.TokenUsageHourlyRepository;
 import com.chatalyst.backend.Repository.ProductRepository;
 import com.chatalyst.backend.Repository.NotificationRepository;
 import com.chatalyst.backend.Repository.PasswordResetTokenRepository;
@@ -58,7 +63,12 @@ public class AuthService {
     // Репозитории для удаления связанных данных
     private final BotRepository botRepository;
     private final ChatMessageRepository chatMessageRepository;
+    private final ChatSummaryRepository chatSummaryRepository;
     private final OpenAITokenUsageRepository openAITokenUsageRepository;
+    private final TokenUsageHourlyRepository tokenUsageHourlyRepository;
+    private final TokenUsageDailyRepository tokenUsageDailyRepository;
+    private final BotDailyStatsRepository botDailyStatsRepository;
+    private final BotStatsTotalRepository botStatsTotalRepository;
     private final ProductRepository productRepository;
     private final NotificationRepository notificationRepository;
     private final SupportMessageReplyRepository supportMessageReplyRepository;
@@ -250,11 +260,16 @@ public class AuthService {
                 // Используем новый метод для эффективного удаления по botIdentifier
                 int deletedMessages = chatMessageRepository.deleteByBotIdentifier(botIdentifier);
                 log.debug("Deleted {} chat messages for bot: {}", deletedMessages, botIdentifier);
+                chatSummaryRepository.deleteByBotIdentifier(botIdentifier);
+                botDailyStatsRepository.deleteByBotIdentifier(botIdentifier);
+                botStatsTotalRepository.deleteByBotIdentifier(botIdentifier);
 
                 // 2. Удаляем статистику использования токенов для этого бота
                 List<OpenAITokenUsage> tokenUsages = openAITokenUsageRepository.findByBotIdentifier(botIdentifier);
                 openAITokenUsageRepository.deleteAll(tokenUsages);
                 log.debug("Deleted {} token usage records for bot: {}", tokenUsages.size(), botIdentifier);
+                tokenUsageHourlyRepository.deleteByBotIdentifier(botIdentifier);
+                tokenUsageDailyRepository.deleteByBotIdentifier(botIdentifier);
 
                 // 3. Удаляем продукты для этого бота
                 List<Product> products = productRepository.findByBot(bot);
@@ -2,7 +2,6 @@ package com.chatalyst.backend.security.services;
 
 import com.chatalyst.backend.Entity.User;
 import com.chatalyst.backend.Repository.BotRepository;
-import com.chatalyst.backend.Repository.ChatMessageRepository;
 import com.chatalyst.backend.Repository.UserRepository;
 import com.chatalyst.backend.dto.UpdateBotRequest;
 import com.chatalyst.backend.dto.BotStats;
@@ -22,6 +21,7 @@ import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Mono;
 
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
 import org.springframework.web.multipart.MultipartFile;
@@ -38,9 +38,10 @@ public class BotService {
     private final ObjectMapper objectMapper;
     @Qualifier("telegramWebClient")
     private final WebClient telegramWebClient;
-    private final ChatMessageRepository chatMessageRepository;
+    private final BotStatsService botStatsService;
     private final ProductService productService;
     private final PsObjectStorageService psObjectStorageService;
+    private final LlmModelPolicy llmModelPolicy;
 
     @Value("${telegram.webhook.base-url}")
     private String telegramWebhookBaseUrl;
@@ -206,6 +207,13 @@ public class BotService {
             throw new RuntimeException("У вас нет прав для обновления этого бота.");
         }
 
+        // Модель оплачивается ключом платформы — принимаются только разрешённые (llm.allowed-models)
+        String llmModel = updateBotRequest.getLlmModel() == null ? null : updateBotRequest.getLlmModel().trim();
+        if (llmModel != null && !llmModel.isEmpty() && !llmModelPolicy.isAllowed(llmModel)) {
+            throw new RuntimeException("Модель " + llmModel + " недоступна. Доступные модели: "
+                    + String.join(", ", llmModelPolicy.allowedModels()));
+        }
+
         // 3. Обновляем поля, если они переданы в запросе
         if (updateBotRequest.getName() != null && !updateBotRequest.getName().isBlank()) {
             existingBot.setName(updateBotRequest.getName());
@@ -222,6 +230,15 @@ public class BotService {
             existingBot.setPaymentQrCodeUrl(updateBotRequest.getPaymentQrCodeUrl());
         }
 
+        if (updateBotRequest.getResponseCacheEnabled() != null) {
+            existingBot.setResponseCacheEnabled(updateBotRequest.getResponseCacheEnabled());
+        }
+
+        // Пустая строка возвращает модель по умолчанию
+        if (llmModel != null) {
+            existingBot.setLlmModel(llmModel.isEmpty() ? null : llmModel);
+        }
+
         // 4. Сохраняем обновленный объект в базу данных
         return botRepository.save(existingBot);
     }
@@ -305,7 +322,12 @@ public class BotService {
         }
     }
 
-    public BotStats getBotStatistics(Long botId, Long userId) {
+    /**
+     * Статистика бота по счётчикам BotStatsService (без подсчёта по chat_message).
+     * @param from Первый день периода или null — статистика за всё время.
+     * @param to Последний день периода включительно (null — сегодня).
+     */
+    public BotStats getBotStatistics(Long botId, Long userId, LocalDate from, LocalDate to) {
     // 1. Находим бота по его ID
     Bot bot = botRepository.findById(botId)
             .orElseThrow(() -> new RuntimeException("Бот не найден с ID: " + botId));
@@ -318,12 +340,16 @@ public class BotService {
     // 3. Получаем botIdentifier из найденного бота
     String botIdentifier = bot.getBotIdentifier();
 
-    // 4. Получаем статистику, используя методы репозитория
-    long totalMessages = chatMessageRepository.countByBotIdentifier(botIdentifier);
-    long totalDialogues = chatMessageRepository.countDistinctChatIdsByBotIdentifier(botIdentifier);
-
-    // 5. Возвращаем DTO со статистикой
-    return new BotStats(totalMessages, totalDialogues);
+    // 4. За всё время — одна строка счётчиков, за период — объединение дневных эскизов
+    if (from == null && to == null) {
+        return botStatsService.totals(botIdentifier);
+    }
+    LocalDate end = to != null ? to : LocalDate.now();
+    LocalDate start = from != null ? from : LocalDate.EPOCH;
+    if (start.isAfter(end)) {
+        throw new RuntimeException("Дата начала периода позже даты окончания");
+    }
+    return botStatsService.forPeriod(botIdentifier, start, end);
 }
 
     /**
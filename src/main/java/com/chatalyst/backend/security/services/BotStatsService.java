@@ -0,0 +1,282 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.Repository.BotDailyStatsRepository;
+import com.chatalyst.backend.Repository.BotStatsTotalRepository;
+import com.chatalyst.backend.dto.BotStats;
+import com.chatalyst.backend.model.BotDailyStats;
+import com.chatalyst.backend.model.ChatMessage;
+import com.chatalyst.backend.util.HyperLogLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Счётчики сообщений и диалогов ботов, которые ведутся по мере записи сообщений (ChatLogWriter),
+ * вместо COUNT по всей chat_message на каждый запрос статистики.
+ * Диалоги — это различные чаты; они считаются приближённо эскизом HyperLogLog
+ * (на небольших количествах — практически точно). Хранятся дневные эскизы (bot_daily_stats)
+ * для любого периода и общий эскиз бота (bot_stats_total) для статистики за всё время за O(1).
+ * <p>
+ * Эскиз нельзя сложить в SQL, поэтому он объединяется в памяти. Чтобы два экземпляра не затёрли
+ * эскизы друг друга (в том числе когда строки бота ещё нет и блокировать нечего), запись счётчиков
+ * бота идёт под рекомендательной блокировкой транзакции на этого бота.
+ */
+@Service
+@Slf4j
+public class BotStatsService {
+
+    private static final String UPSERT_DAILY_SQL = """
+            INSERT INTO bot_daily_stats (bot_identifier, stats_date, messages, chats_sketch)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (bot_identifier, stats_date) DO UPDATE SET
+                messages = bot_daily_stats.messages + EXCLUDED.messages,
+                chats_sketch = EXCLUDED.chats_sketch
+            """;
+
+    private static final String UPSERT_TOTAL_SQL = """
+            INSERT INTO bot_stats_total (bot_identifier, messages, chats_sketch)
+            VALUES (?, ?, ?)
+            ON CONFLICT (bot_identifier) DO UPDATE SET
+                messages = bot_stats_total.messages + EXCLUDED.messages,
+                chats_sketch = EXCLUDED.chats_sketch
+            """;
+
+    // Блокировки ботов берутся по порядку имён — без взаимных блокировок между экземплярами
+    private static final String BOT_LOCK_SQL = "SELECT pg_advisory_xact_lock(hashtext('bot_stats'), hashtext(?))";
+
+    private static final String BACKFILL_LOCK_SQL = "SELECT pg_advisory_xact_lock(hashtext('bot_stats_backfill'))";
+
+    private static final String BACKFILL_SHARED_LOCK_SQL =
+            "SELECT pg_advisory_xact_lock_shared(hashtext('bot_stats_backfill'))";
+
+    private static final String STATS_MISSING_SQL = """
+            SELECT NOT EXISTS (SELECT 1 FROM bot_stats_total) AND EXISTS (SELECT 1 FROM chat_message)
+            """;
+
+    // Отсортировано по боту: в памяти одновременно только дни одного бота.
+    // У сообщений chat_message_legacy время неизвестно (метка из миграции V1): дата NULL, только итоги за всё время
+    private static final String BACKFILL_SOURCE_SQL = """
+            SELECT bot_identifier,
+                   CASE WHEN tableoid = to_regclass('chat_message_legacy') THEN NULL ELSE CAST(created_at AS date) END,
+                   chat_id, COUNT(*)
+            FROM chat_message
+            WHERE bot_identifier IS NOT NULL
+            GROUP BY 1, 2, 3
+            ORDER BY 1, 2
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final BotDailyStatsRepository dailyRepository;
+    private final BotStatsTotalRepository totalRepository;
+    private volatile boolean backfilled;
+
+    public BotStatsService(JdbcTemplate jdbcTemplate,
+                           TransactionTemplate transactionTemplate,
+                           BotDailyStatsRepository dailyRepository,
+                           BotStatsTotalRepository totalRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.dailyRepository = dailyRepository;
+        this.totalRepository = totalRepository;
+    }
+
+    /**
+     * Статистика бота за всё время: одна строка bot_stats_total.
+     */
+    public BotStats totals(String botIdentifier) {
+        return totalRepository.findById(botIdentifier)
+                .map(total -> new BotStats(total.getMessages(), HyperLogLog.fromBytes(total.getChatsSketch()).estimate()))
+                .orElseGet(() -> new BotStats(0, 0));
+    }
+
+    /**
+     * Статистика за период (границы включительно): объединение дневных эскизов.
+     */
+    public BotStats forPeriod(String botIdentifier, LocalDate from, LocalDate to) {
+        long messages = 0;
+        HyperLogLog chats = new HyperLogLog();
+        for (BotDailyStats day : dailyRepository.findByBotIdentifierAndStatsDateBetween(botIdentifier, from, to)) {
+            messages += day.getMessages();
+            chats.merge(HyperLogLog.fromBytes(day.getChatsSketch()));
+        }
+        return new BotStats(messages, chats.estimate());
+    }
+
+    /**
+     * Учитывает записанные сообщения. Вызывается ChatLogWriter в транзакции записи пакета:
+     * боты пакета блокируются, эскизы объединяются в памяти с текущими.
+     */
+    void record(List<ChatMessage> messages) {
+        Map<DayKey, Delta> days = new HashMap<>();
+        Map<String, Delta> bots = new HashMap<>();
+        for (ChatMessage message : messages) {
+            if (message.getBotIdentifier() == null || message.getCreatedAt() == null) {
+                continue;
+            }
+            days.computeIfAbsent(new DayKey(message.getBotIdentifier(), message.getCreatedAt().toLocalDate()),
+                    k -> new Delta()).add(message.getChatId(), 1);
+            bots.computeIfAbsent(message.getBotIdentifier(), k -> new Delta()).add(message.getChatId(), 1);
+        }
+        if (!bots.isEmpty()) {
+            // Не параллельно с заполнением счётчиков на другом экземпляре
+            jdbcTemplate.query(BACKFILL_SHARED_LOCK_SQL, rs -> {
+            });
+            upsert(days, bots);
+        }
+    }
+
+    private void upsert(Map<DayKey, Delta> days, Map<String, Delta> bots) {
+        for (String botIdentifier : new TreeSet<>(bots.keySet())) {
+            jdbcTemplate.query(BOT_LOCK_SQL, rs -> {
+            }, botIdentifier);
+        }
+        if (!days.isEmpty()) {
+            upsertDays(days);
+        }
+        upsertTotals(bots);
+    }
+
+    /**
+     * Текущие дневные эскизы, объединённые с приращением; вызывается под блокировкой ботов.
+     */
+    private void upsertDays(Map<DayKey, Delta> days) {
+        StringBuilder dayFilter = new StringBuilder();
+        List<Object> dayArgs = new ArrayList<>();
+        for (DayKey key : days.keySet()) {
+            dayFilter.append(dayFilter.isEmpty() ? "(?, ?)" : ", (?, ?)");
+            dayArgs.add(key.botIdentifier());
+            dayArgs.add(Date.valueOf(key.date()));
+        }
+        jdbcTemplate.query("SELECT bot_identifier, stats_date, chats_sketch FROM bot_daily_stats"
+                        + " WHERE (bot_identifier, stats_date) IN (" + dayFilter + ")",
+                rs -> {
+                    Delta delta = days.get(new DayKey(rs.getString(1), rs.getDate(2).toLocalDate()));
+                    if (delta != null) {
+                        delta.chats.merge(HyperLogLog.fromBytes(rs.getBytes(3)));
+                    }
+                }, dayArgs.toArray());
+
+        List<Map.Entry<DayKey, Delta>> dayEntries = new ArrayList<>(days.entrySet());
+        jdbcTemplate.batchUpdate(UPSERT_DAILY_SQL, dayEntries, dayEntries.size(), (ps, entry) -> {
+            ps.setString(1, entry.getKey().botIdentifier());
+            ps.setDate(2, Date.valueOf(entry.getKey().date()));
+            ps.setLong(3, entry.getValue().messages);
+            ps.setBytes(4, entry.getValue().chats.toBytes());
+        });
+    }
+
+    /**
+     * Текущие итоги ботов, объединённые с приращением; вызывается под блокировкой ботов.
+     */
+    private void upsertTotals(Map<String, Delta> bots) {
+        String botFilter = String.join(", ", Collections.nCopies(bots.size(), "?"));
+        jdbcTemplate.query("SELECT bot_identifier, chats_sketch FROM bot_stats_total"
+                        + " WHERE bot_identifier IN (" + botFilter + ")",
+                rs -> {
+                    Delta delta = bots.get(rs.getString(1));
+                    if (delta != null) {
+                        delta.chats.merge(HyperLogLog.fromBytes(rs.getBytes(2)));
+                    }
+                }, bots.keySet().toArray());
+
+        List<Map.Entry<String, Delta>> botEntries = new ArrayList<>(bots.entrySet());
+        jdbcTemplate.batchUpdate(UPSERT_TOTAL_SQL, botEntries, botEntries.size(), (ps, entry) -> {
+            ps.setString(1, entry.getKey());
+            ps.setLong(2, entry.getValue().messages);
+            ps.setBytes(3, entry.getValue().chats.toBytes());
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillOnStartup() {
+        try {
+            ensureBackfilled();
+        } catch (RuntimeException e) {
+            log.error("Bot stats backfill failed, will retry before next chat log write: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Одноразово заполняет пустые счётчики из уже записанных сообщений (после обновления со старой версии).
+     * ChatLogWriter вызывает это перед каждой записью, поэтому сообщения не посчитаются дважды;
+     * проверка и заполнение идут под исключительной блокировкой, а запись пакетов — под разделяемой,
+     * так что при нескольких экземплярах счётчики заполняет один.
+     */
+    synchronized void ensureBackfilled() {
+        if (backfilled) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.query(BACKFILL_LOCK_SQL, rs -> {
+            });
+            if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(STATS_MISSING_SQL, Boolean.class))) {
+                return;
+            }
+            BackfillBuffer buffer = new BackfillBuffer();
+            jdbcTemplate.query(BACKFILL_SOURCE_SQL, rs -> {
+                String botIdentifier = rs.getString(1);
+                if (!botIdentifier.equals(buffer.botIdentifier)) {
+                    buffer.flush();
+                    buffer.botIdentifier = botIdentifier;
+                }
+                long chatId = rs.getLong(3);
+                Long chat = rs.wasNull() ? null : chatId;
+                long count = rs.getLong(4);
+                Date date = rs.getDate(2);
+                if (date != null) {
+                    buffer.days.computeIfAbsent(new DayKey(botIdentifier, date.toLocalDate()), k -> new Delta())
+                            .add(chat, count);
+                }
+                buffer.total.add(chat, count);
+            });
+            buffer.flush();
+            log.info("Backfilled bot stats for {} bots", buffer.bots);
+        });
+        backfilled = true;
+    }
+
+    private record DayKey(String botIdentifier, LocalDate date) {
+    }
+
+    /**
+     * Приращение счётчиков: сообщения и эскиз чатов.
+     */
+    private static final class Delta {
+        private long messages;
+        private final HyperLogLog chats = new HyperLogLog();
+
+        void add(Long chatId, long count) {
+            messages += count;
+            if (chatId != null) {
+                chats.add(chatId);
+            }
+        }
+    }
+
+    /**
+     * Накопленные при заполнении счётчики одного бота.
+     */
+    private final class BackfillBuffer {
+        private String botIdentifier;
+        private Map<DayKey, Delta> days = new HashMap<>();
+        private Delta total = new Delta();
+        private int bots;
+
+        void flush() {
+            if (botIdentifier != null && total.messages > 0) {
+                upsert(days, Map.of(botIdentifier, total));
+                bots++;
+            }
+            days = new HashMap<>();
+            total = new Delta();
+        }
+    }
+}
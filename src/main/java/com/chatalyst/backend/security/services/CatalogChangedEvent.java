@@ -0,0 +1,9 @@
+package com.chatalyst.backend.security.services;
+
+/**
+ * Событие изменения товаров бота. Публикуется при создании, обновлении и удалении товаров;
+ * после коммита транзакции снимок каталога этого бота пересобирается.
+ * @param botId ID бота, каталог которого изменился.
+ */
+public record CatalogChangedEvent(Long botId) {
+}
@@ -0,0 +1,119 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.util.TextAnalyzer;
+import com.chatalyst.backend.util.TokenEstimator;
+import com.fasterxml.jackson.databind.util.RawValue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выбор каталога для системного промпта.
+ * Небольшой каталог отдаётся целиком (промпт кэшируется по версии снимка). Для больших магазинов
+ * полный каталог — тысячи токенов на каждое сообщение, поэтому в промпт идут оглавление магазина
+ * и top-K товаров, найденных BM25 по текущему сообщению и нескольким последним репликам.
+ */
+@Service
+@Slf4j
+public class CatalogContextService {
+
+    private static final double CURRENT_MESSAGE_WEIGHT = 1.0;
+    private static final double USER_HISTORY_WEIGHT = 0.5;
+    private static final double ASSISTANT_HISTORY_WEIGHT = 0.25;
+
+    private final CatalogPromptCache promptCache;
+    private final boolean enabled;
+    private final int fullCatalogMaxProducts;
+    private final int topK;
+    private final int historyMessages;
+
+    private final Counter fullCatalogCounter;
+    private final Counter retrievedCounter;
+    private final Counter savedTokensCounter;
+    private final DistributionSummary productsInContext;
+    private final Timer retrievalTimer;
+
+    public CatalogContextService(CatalogPromptCache promptCache,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${openai.retrieval.enabled:true}") boolean enabled,
+                                 @Value("${openai.retrieval.full-catalog-max-products:150}") int fullCatalogMaxProducts,
+                                 @Value("${openai.retrieval.top-k:25}") int topK,
+                                 @Value("${openai.retrieval.history-messages:4}") int historyMessages) {
+        this.promptCache = promptCache;
+        this.enabled = enabled;
+        this.fullCatalogMaxProducts = fullCatalogMaxProducts;
+        this.topK = topK;
+        this.historyMessages = historyMessages;
+
+        this.fullCatalogCounter = meterRegistry.counter("openai.catalog_context", "mode", "full");
+        this.retrievedCounter = meterRegistry.counter("openai.catalog_context", "mode", "retrieved");
+        this.savedTokensCounter = Counter.builder("openai.catalog_context.saved_tokens")
+                .description("Оценка токенов промпта, сэкономленных отбором товаров вместо полного каталога")
+                .register(meterRegistry);
+        this.productsInContext = DistributionSummary.builder("openai.catalog_context.products")
+                .description("Товаров в промпте при отборе")
+                .register(meterRegistry);
+        this.retrievalTimer = Timer.builder("openai.catalog_context.retrieval")
+                .description("Время отбора товаров и рендеринга промпта")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param chatHistory История в хронологическом порядке; последний элемент — текущее сообщение пользователя.
+     * @return Системный промпт в виде готового JSON-литерала.
+     */
+    public RawValue systemPrompt(CatalogSnapshot catalog, String shopName, List<String[]> chatHistory) {
+        if (!enabled || catalog.items().size() <= fullCatalogMaxProducts) {
+            fullCatalogCounter.increment();
+            return promptCache.systemPrompt(catalog, shopName);
+        }
+
+        long startNanos = System.nanoTime();
+        List<CatalogSnapshot.Item> relevant = catalog.searchIndex().search(queryTerms(chatHistory), topK);
+
+        StringBuilder context = new StringBuilder(catalog.catalogOverview());
+        if (relevant.isEmpty()) {
+            context.append("\n\nПо запросу клиента подходящих товаров не найдено — предложи разделы магазина и уточни, что он ищет.");
+        } else {
+            context.append("\n\nТОВАРЫ, ПОДХОДЯЩИЕ К ЗАПРОСУ КЛИЕНТА:\n").append(CatalogSnapshot.formatCatalog(relevant));
+        }
+        RawValue prompt = promptCache.renderUncached(shopName, context.toString());
+        retrievalTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+
+        retrievedCounter.increment();
+        productsInContext.record(relevant.size());
+        int saved = catalog.catalogTokens() - TokenEstimator.estimate(context.toString());
+        if (saved > 0) {
+            savedTokensCounter.increment(saved);
+        }
+        log.debug("Catalog context: {} of {} products, ~{} prompt tokens saved",
+                relevant.size(), catalog.items().size(), saved);
+        return prompt;
+    }
+
+    /**
+     * Термы запроса: текущее сообщение с полным весом, последние реплики — с пониженным.
+     */
+    private Map<String, Double> queryTerms(List<String[]> chatHistory) {
+        Map<String, Double> terms = new HashMap<>();
+        int last = chatHistory.size() - 1;
+        for (int i = last; i >= 0 && i >= last - historyMessages; i--) {
+            String[] message = chatHistory.get(i);
+            double weight = i == last ? CURRENT_MESSAGE_WEIGHT
+                    : "assistant".equals(message[0]) ? ASSISTANT_HISTORY_WEIGHT : USER_HISTORY_WEIGHT;
+            for (String term : TextAnalyzer.terms(message[1])) {
+                terms.merge(term, weight, Math::max);
+            }
+        }
+        return terms;
+    }
+}
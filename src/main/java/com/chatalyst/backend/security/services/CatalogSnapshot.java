@@ -0,0 +1,247 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.model.Product;
+import com.chatalyst.backend.util.AhoCorasickMatcher;
+import com.chatalyst.backend.util.Bm25Index;
+import com.chatalyst.backend.util.TokenEstimator;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Неизменяемый снимок каталога одного бота.
+ * Товары копируются из сущностей в record-ы, поэтому снимок можно свободно читать из любых потоков
+ * без обращения к БД и без lazy-загрузки. Индексы по id, каталогу и подкатегории строятся один раз.
+ */
+public final class CatalogSnapshot {
+
+    /**
+     * Товар в снимке каталога.
+     */
+    public record Item(Long id, String name, BigDecimal price, String description,
+                       String catalog, String subcategory, String imageUrl, boolean inStock) {
+
+        static Item of(Product product) {
+            return new Item(product.getId(), product.getName(), product.getPrice(), product.getDescription(),
+                    product.getCatalog(), product.getSubcategory(), product.getImageUrl(), product.isInStock());
+        }
+
+        public boolean hasImage() {
+            return imageUrl != null && !imageUrl.isEmpty();
+        }
+    }
+
+    private final long version;
+    private final List<Item> items;
+    private final Map<Long, Item> byId;
+    private final Map<String, List<Item>> byCatalog;
+    private final Map<String, List<Item>> bySubcategory;
+    private final Map<String, List<String>> subcategoriesByCatalog;
+
+    // Текст каталога для промпта; считается при первом обращении (гонка безопасна — результат одинаковый)
+    private volatile String catalogText;
+    // Автомат поиска названий товаров в ответах ИИ; строится при первом обращении
+    private volatile AhoCorasickMatcher<Item> mentionMatcher;
+    // Индекс BM25 для отбора релевантных товаров в промпт
+    private volatile Bm25Index<Item> searchIndex;
+    private volatile String catalogOverview;
+    private volatile int catalogTokens = -1;
+
+    private CatalogSnapshot(long version, List<Item> items) {
+        this.version = version;
+        this.items = List.copyOf(items);
+
+        Map<Long, Item> ids = new HashMap<>();
+        Map<String, List<Item>> catalogs = new LinkedHashMap<>();
+        Map<String, List<Item>> subcategories = new LinkedHashMap<>();
+        Map<String, Set<String>> subcategoryNames = new LinkedHashMap<>();
+        for (Item item : this.items) {
+            ids.put(item.id(), item);
+            if (item.catalog() != null) {
+                catalogs.computeIfAbsent(item.catalog(), k -> new ArrayList<>()).add(item);
+            }
+            if (item.subcategory() != null) {
+                subcategories.computeIfAbsent(item.subcategory(), k -> new ArrayList<>()).add(item);
+                if (item.catalog() != null && !item.subcategory().isBlank()) {
+                    subcategoryNames.computeIfAbsent(item.catalog(), k -> new LinkedHashSet<>()).add(item.subcategory());
+                }
+            }
+        }
+
+        this.byId = Map.copyOf(ids);
+        this.byCatalog = freeze(catalogs);
+        this.bySubcategory = freeze(subcategories);
+        Map<String, List<String>> names = new LinkedHashMap<>();
+        subcategoryNames.forEach((catalog, subs) -> names.put(catalog, List.copyOf(subs)));
+        this.subcategoriesByCatalog = Collections.unmodifiableMap(names);
+    }
+
+    /**
+     * Строит снимок из сущностей. Товары упорядочиваются по id, чтобы порядок вывода был стабильным.
+     * @param version Номер версии снимка (растёт при каждой пересборке).
+     * @param products Товары бота.
+     */
+    public static CatalogSnapshot of(long version, Collection<Product> products) {
+        List<Item> items = products.stream()
+                .map(Item::of)
+                .sorted(Comparator.comparing(Item::id, Comparator.nullsLast(Comparator.naturalOrder())))
+                .toList();
+        return new CatalogSnapshot(version, items);
+    }
+
+    private static Map<String, List<Item>> freeze(Map<String, List<Item>> source) {
+        Map<String, List<Item>> frozen = new LinkedHashMap<>();
+        source.forEach((key, value) -> frozen.put(key, List.copyOf(value)));
+        return Collections.unmodifiableMap(frozen);
+    }
+
+    /**
+     * @return Текст каталога для системного промпта OpenAI, отрендеренный один раз на снимок.
+     */
+    public String catalogText() {
+        String text = catalogText;
+        if (text == null) {
+            text = formatCatalog(items);
+            catalogText = text;
+        }
+        return text;
+    }
+
+    /**
+     * @return Автомат для поиска упоминаний товаров по названию (целым словом, без учёта регистра).
+     */
+    public AhoCorasickMatcher<Item> mentionMatcher() {
+        AhoCorasickMatcher<Item> matcher = mentionMatcher;
+        if (matcher == null) {
+            matcher = new AhoCorasickMatcher<>(items.stream()
+                    .filter(item -> item.name() != null)
+                    .map(item -> Map.entry(item.name(), item))
+                    .toList());
+            mentionMatcher = matcher;
+        }
+        return matcher;
+    }
+
+    /**
+     * @return Индекс BM25 по названию (с двойным весом), описанию, каталогу и подкатегории.
+     */
+    public Bm25Index<Item> searchIndex() {
+        Bm25Index<Item> index = searchIndex;
+        if (index == null) {
+            index = new Bm25Index<>(items, item -> String.join(" ",
+                    Objects.toString(item.name(), ""), Objects.toString(item.name(), ""),
+                    Objects.toString(item.description(), ""),
+                    Objects.toString(item.catalog(), ""), Objects.toString(item.subcategory(), "")));
+            searchIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * @return Краткое оглавление магазина: каталоги с подкатегориями и числом товаров, без самих товаров.
+     */
+    public String catalogOverview() {
+        String overview = catalogOverview;
+        if (overview == null) {
+            StringBuilder sb = new StringBuilder("Разделы магазина (всего товаров: ").append(items.size()).append("):");
+            byCatalog.forEach((catalog, catalogItems) -> {
+                sb.append("\n- ").append(catalog).append(" (").append(catalogItems.size()).append(")");
+                List<String> subcategories = subcategories(catalog);
+                if (!subcategories.isEmpty()) {
+                    sb.append(": ").append(String.join(", ", subcategories));
+                }
+            });
+            overview = sb.toString();
+            catalogOverview = overview;
+        }
+        return overview;
+    }
+
+    /**
+     * @return Оценка числа токенов полного текста каталога.
+     */
+    public int catalogTokens() {
+        int tokens = catalogTokens;
+        if (tokens < 0) {
+            tokens = TokenEstimator.estimate(catalogText());
+            catalogTokens = tokens;
+        }
+        return tokens;
+    }
+
+    /**
+     * Форматирует товары для промпта: каталог → подкаталог → строка на товар.
+     */
+    public static String formatCatalog(List<Item> items) {
+        Map<String, Map<String, List<Item>>> tree = new LinkedHashMap<>();
+        for (Item item : items) {
+            tree.computeIfAbsent(item.catalog(), k -> new LinkedHashMap<>())
+                    .computeIfAbsent(item.subcategory(), k -> new ArrayList<>())
+                    .add(item);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        tree.forEach((catalog, subcategories) -> {
+            if (sb.length() > 0) {
+                sb.append("\n\n");
+            }
+            sb.append("Каталог: ").append(catalog).append('\n');
+            boolean firstSubcategory = true;
+            for (Map.Entry<String, List<Item>> entry : subcategories.entrySet()) {
+                if (!firstSubcategory) {
+                    sb.append('\n');
+                }
+                firstSubcategory = false;
+                sb.append("  Подкаталог: ").append(entry.getKey());
+                for (Item p : entry.getValue()) {
+                    sb.append("\n- ").append(p.name())
+                            .append(" (").append(p.price()).append(" тг): ")
+                            .append(p.description() != null ? p.description() : "")
+                            .append(p.imageUrl() != null ? " [ФОТО]" : "");
+                }
+            }
+        });
+        return sb.toString();
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public List<Item> items() {
+        return items;
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    public Optional<Item> item(Long id) {
+        return Optional.ofNullable(byId.get(id));
+    }
+
+    /**
+     * @return Непустые названия каталогов в порядке появления.
+     */
+    public List<String> catalogs() {
+        return byCatalog.keySet().stream().filter(c -> !c.isBlank()).toList();
+    }
+
+    /**
+     * @return Непустые названия подкатегорий каталога.
+     */
+    public List<String> subcategories(String catalog) {
+        return subcategoriesByCatalog.getOrDefault(catalog, List.of());
+    }
+
+    public List<Item> itemsInCatalog(String catalog) {
+        return byCatalog.getOrDefault(catalog, List.of());
+    }
+
+    /**
+     * @return Товары подкатегории (по названию подкатегории во всех каталогах).
+     */
+    public List<Item> itemsInSubcategory(String subcategory) {
+        return bySubcategory.getOrDefault(subcategory, List.of());
+    }
+}
@@ -0,0 +1,87 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.Repository.ProductRepository;
+import com.chatalyst.backend.model.Bot;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш снимков каталога по ботам.
+ * Снимок загружается одним запросом при первом обращении; параллельные обращения к тому же боту
+ * ждут одну загрузку, а читатели всегда видят либо старый, либо новый снимок целиком.
+ * После коммита изменений товаров (CatalogChangedEvent) снимок сбрасывается и собирается заново
+ * при следующем чтении. Событие видит только свой экземпляр, поэтому снимок ещё помнит версию
+ * каталога бота (Bot.catalogVersion), при которой собран: бот читается из БД на каждое обновление,
+ * и если его версия новее — каталог изменён на другом экземпляре, снимок собирается заново.
+ * TTL — страховка от изменений в БД в обход ProductService.
+ */
+@Service
+@Slf4j
+public class CatalogSnapshotService {
+
+    private final ProductRepository productRepository;
+    private final Cache<Long, Entry> snapshots;
+    private final AtomicLong versions = new AtomicLong();
+
+    public CatalogSnapshotService(ProductRepository productRepository,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${catalog.snapshot.max-bots:1000}") long maxBots,
+                                  @Value("${catalog.snapshot.ttl-minutes:30}") long ttlMinutes) {
+        this.productRepository = productRepository;
+        this.snapshots = Caffeine.newBuilder()
+                .maximumSize(maxBots)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, snapshots, "catalog.snapshots");
+    }
+
+    /**
+     * @param bot Бот, прочитанный из БД: по его catalogVersion проверяется, не устарел ли снимок.
+     * @return Актуальный снимок каталога бота.
+     */
+    public CatalogSnapshot get(Bot bot) {
+        long catalogVersion = bot.getCatalogVersion();
+        Entry entry = snapshots.get(bot.getId(), botId -> load(botId, catalogVersion));
+        if (entry.catalogVersion() >= catalogVersion) {
+            return entry.snapshot();
+        }
+        // Каталог изменён на другом экземпляре; параллельные читатели ждут одну перезагрузку
+        return snapshots.asMap().compute(bot.getId(), (botId, current) ->
+                current != null && current.catalogVersion() >= catalogVersion ? current : load(botId, catalogVersion))
+                .snapshot();
+    }
+
+    public void invalidate(Long botId) {
+        snapshots.invalidate(botId);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        invalidate(event.botId());
+        log.debug("Catalog snapshot invalidated for bot {}", event.botId());
+    }
+
+    /**
+     * @param catalogVersion Версия каталога из бота, прочитанного до товаров: товары не старее её.
+     */
+    private Entry load(Long botId, long catalogVersion) {
+        long startNanos = System.nanoTime();
+        CatalogSnapshot snapshot = CatalogSnapshot.of(versions.incrementAndGet(), productRepository.findByBotId(botId));
+        log.debug("Catalog snapshot v{} (catalog version {}) for bot {} built: {} products in {} ms", snapshot.version(),
+                catalogVersion, botId, snapshot.items().size(), (System.nanoTime() - startNanos) / 1_000_000);
+        return new Entry(catalogVersion, snapshot);
+    }
+
+    private record Entry(long catalogVersion, CatalogSnapshot snapshot) {
+    }
+}
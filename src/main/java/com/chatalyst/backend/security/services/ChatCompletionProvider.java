@@ -0,0 +1,39 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.dto.ChatCompletionResponse;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Consumer;
+
+/**
+ * Бэкенд языковой модели. Запрос — тело в формате OpenAI /chat/completions
+ * (model, messages, temperature, max_tokens), чтобы все реализации принимали одно и то же.
+ * Какой бэкенд обслуживает модель бота, решает ChatCompletionRouter.
+ */
+public interface ChatCompletionProvider {
+
+    /**
+     * @return Имя провайдера — префикс модели в настройках бота ("stub:fast") и значение llm.default-provider.
+     */
+    String name();
+
+    /**
+     * @return Полный ответ; ошибки передаются в Mono.
+     */
+    Mono<ChatCompletionResponse> complete(ObjectNode requestBody);
+
+    /**
+     * @param onUsage Вызывается с итоговым расходом токенов, когда он известен.
+     * @return Куски текста ответа по мере генерации.
+     */
+    Flux<String> stream(ObjectNode requestBody, Consumer<ChatCompletionResponse.Usage> onUsage);
+
+    /**
+     * @return false, если запросы ничего не стоят (заглушка) и расход токенов не учитывается.
+     */
+    default boolean billable() {
+        return true;
+    }
+}
@@ -0,0 +1,58 @@
+package com.chatalyst.backend.security.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Выбор бэкенда по модели бота.
+ * Модель вида "провайдер:модель" (например, "stub:fast") уходит указанному провайдеру,
+ * модель без префикса (например, "gpt-4o-mini") — провайдеру по умолчанию (llm.default-provider).
+ * Бот без своей модели использует openai.model.
+ */
+@Service
+@Slf4j
+public class ChatCompletionRouter {
+
+    /**
+     * Провайдер и имя модели для тела запроса (без префикса провайдера).
+     */
+    public record Route(ChatCompletionProvider provider, String model) {
+    }
+
+    private final Map<String, ChatCompletionProvider> providers = new HashMap<>();
+    private final ChatCompletionProvider defaultProvider;
+    private final String defaultModel;
+
+    public ChatCompletionRouter(List<ChatCompletionProvider> providers,
+                                @Value("${llm.default-provider:openai}") String defaultProvider,
+                                @Value("${openai.model}") String defaultModel) {
+        providers.forEach(provider -> this.providers.put(provider.name(), provider));
+        this.defaultProvider = this.providers.get(defaultProvider);
+        if (this.defaultProvider == null) {
+            throw new IllegalStateException("Unknown llm.default-provider: " + defaultProvider
+                    + ", available: " + this.providers.keySet());
+        }
+        this.defaultModel = defaultModel;
+        log.info("LLM providers: {}, default: {}, default model: {}", this.providers.keySet(), defaultProvider, defaultModel);
+    }
+
+    /**
+     * @param model Модель из настроек бота или null.
+     */
+    public Route route(String model) {
+        String requested = model == null || model.isBlank() ? defaultModel : model.trim();
+        int colon = requested.indexOf(':');
+        if (colon > 0) {
+            ChatCompletionProvider provider = providers.get(requested.substring(0, colon));
+            if (provider != null) {
+                return new Route(provider, requested.substring(colon + 1));
+            }
+        }
+        return new Route(defaultProvider, requested);
+    }
+}
@@ -0,0 +1,381 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.Repository.ChatMessageRepository;
+import com.chatalyst.backend.Repository.ChatSummaryRepository;
+import com.chatalyst.backend.model.ChatMessage;
+import com.chatalyst.backend.model.ChatSummary;
+import com.chatalyst.backend.util.RingBuffer;
+import com.chatalyst.backend.util.TokenEstimator;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * История диалога для запроса к OpenAI в пределах бюджета токенов.
+ * Последние реплики каждого активного чата держатся в кольцевом буфере в памяти,
+ * поэтому обычно история собирается без обращения к БД; при промахе буфер заполняется
+ * последними сообщениями из chat_message. Старые реплики отбрасываются первыми,
+ * результат всегда в хронологическом порядке.
+ * <p>
+ * Буфер видит только реплики, прошедшие через этот экземпляр. При нескольких экземплярах
+ * (openai.history.sync-with-db) перед каждым ответом id сообщений чата в БД начиная с самой старой
+ * реплики буфера сверяются с буфером; если другой экземпляр записал реплику, которой в буфере нет,
+ * буфер перечитывается из БД, а свои ещё не записанные реплики дописываются после прочитанных.
+ *
+ * Когда несжатая часть диалога превышает порог, старые реплики в фоне сжимаются моделью
+ * в краткое содержание (chat_summaries), и дальше в промпт идёт содержание вместо них.
+ * Компакция выполняется на небольшом пуле с ограниченной очередью, не более одной на чат.
+ */
+@Service
+@Slf4j
+public class ChatHistoryService {
+
+    private static final String SUMMARY_PREFIX = "Краткое содержание предыдущего разговора с клиентом:\n";
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final ChatSummaryRepository chatSummaryRepository;
+    private final OpenAIService openAIService;
+    private final Cache<String, ChatState> chats;
+    private final int bufferSize;
+    private final int maxTokens;
+    private final Duration lookback;
+    private final Clock clock;
+    private final boolean syncWithDatabase;
+
+    private final boolean summaryEnabled;
+    private final int summaryTriggerTokens;
+    private final int summaryKeepRecent;
+    private final ThreadPoolExecutor summaryWorkers;
+    private final Set<String> compacting = ConcurrentHashMap.newKeySet();
+
+    private final DistributionSummary historyTokens;
+    private final DistributionSummary historyMessages;
+    private final Counter resyncCounter;
+    private final Counter compactedCounter;
+    private final Counter compactionFailedCounter;
+    private final Counter compactionRejectedCounter;
+
+    public ChatHistoryService(ChatMessageRepository chatMessageRepository,
+                              ChatSummaryRepository chatSummaryRepository,
+                              OpenAIService openAIService,
+                              MeterRegistry meterRegistry,
+                              Clock chatLogClock,
+                              @Value("${openai.history.max-tokens:1500}") int maxTokens,
+                              @Value("${openai.history.buffer-size:30}") int bufferSize,
+                              @Value("${openai.history.max-chats:50000}") long maxChats,
+                              @Value("${openai.history.idle-minutes:60}") long idleMinutes,
+                              @Value("${openai.history.lookback-days:90}") long lookbackDays,
+                              @Value("${openai.history.sync-with-db:true}") boolean syncWithDatabase,
+                              @Value("${openai.summary.enabled:true}") boolean summaryEnabled,
+                              @Value("${openai.summary.trigger-tokens:1200}") int summaryTriggerTokens,
+                              @Value("${openai.summary.keep-recent:6}") int summaryKeepRecent,
+                              @Value("${openai.summary.workers:2}") int summaryWorkerCount,
+                              @Value("${openai.summary.queue-capacity:200}") int summaryQueueCapacity) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.clock = chatLogClock;
+        this.chatSummaryRepository = chatSummaryRepository;
+        this.openAIService = openAIService;
+        this.maxTokens = maxTokens;
+        this.bufferSize = bufferSize;
+        this.lookback = Duration.ofDays(lookbackDays);
+        this.syncWithDatabase = syncWithDatabase;
+        this.summaryEnabled = summaryEnabled;
+        this.summaryTriggerTokens = summaryTriggerTokens;
+        this.summaryKeepRecent = summaryKeepRecent;
+        this.chats = Caffeine.newBuilder()
+                .maximumSize(maxChats)
+                .expireAfterAccess(Duration.ofMinutes(idleMinutes))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, chats, "chat.history");
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.summaryWorkers = new ThreadPoolExecutor(summaryWorkerCount, summaryWorkerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(summaryQueueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "chat-summary-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        this.historyTokens = DistributionSummary.builder("openai.history.tokens")
+                .description("Оценка токенов истории, отправленной в OpenAI")
+                .register(meterRegistry);
+        this.historyMessages = DistributionSummary.builder("openai.history.messages")
+                .description("Сообщений истории, отправленных в OpenAI")
+                .register(meterRegistry);
+        this.resyncCounter = meterRegistry.counter("openai.history.resyncs");
+        this.compactedCounter = meterRegistry.counter("openai.history.compactions", "result", "done");
+        this.compactionFailedCounter = meterRegistry.counter("openai.history.compactions", "result", "failed");
+        this.compactionRejectedCounter = meterRegistry.counter("openai.history.compactions", "result", "rejected");
+    }
+
+    /**
+     * Собирает историю для запроса: содержание старой части диалога (если есть), последние реплики,
+     * укладывающиеся в бюджет, и текущее сообщение.
+     * @param currentMessage Текущее сообщение пользователя (включается всегда).
+     * @return Пары {role, content} в хронологическом порядке; последний элемент — текущее сообщение.
+     */
+    public List<String[]> historyFor(String botIdentifier, long chatId, String currentMessage) {
+        ChatState state = state(botIdentifier, chatId);
+        Summary summary = state.summary;
+        List<Turn> turns = unsummarizedTurns(state, summary);
+
+        int budget = maxTokens - TokenEstimator.estimateMessage(currentMessage) - (summary != null ? summary.tokens() : 0);
+        int used = 0;
+        int from = turns.size();
+        // Идём от новых к старым, пока реплики помещаются в бюджет
+        while (from > 0) {
+            int tokens = turns.get(from - 1).tokens();
+            if (used + tokens > budget) {
+                break;
+            }
+            used += tokens;
+            from--;
+        }
+
+        List<String[]> history = new ArrayList<>(turns.size() - from + 2);
+        if (summary != null) {
+            history.add(new String[]{"system", SUMMARY_PREFIX + summary.text()});
+            used += summary.tokens();
+        }
+        for (Turn turn : turns.subList(from, turns.size())) {
+            history.add(new String[]{turn.role(), turn.content()});
+        }
+        history.add(new String[]{"user", currentMessage});
+
+        historyTokens.record(used);
+        historyMessages.record(history.size() - 1);
+
+        scheduleCompactionIfNeeded(botIdentifier, chatId, state, summary, turns);
+        return history;
+    }
+
+    /**
+     * Дописывает сохранённое сообщение в буфер чата. Если буфера нет,
+     * он будет загружен из БД при следующем запросе вместе с этим сообщением.
+     */
+    public void append(ChatMessage message) {
+        ChatState state = chats.getIfPresent(key(message.getBotIdentifier(), message.getChatId()));
+        if (state != null) {
+            state.turns.add(Turn.of(message));
+        }
+    }
+
+    private List<Turn> unsummarizedTurns(ChatState state, Summary summary) {
+        List<Turn> turns = state.turns.toList();
+        if (summary == null) {
+            return turns;
+        }
+        // Реплики идут в порядке (created_at, id), а одни id — нет (блоки id у экземпляров свои):
+        // в содержание вошли реплики не позже его последнего сообщения в том же порядке
+        int first = 0;
+        while (first < turns.size() && summary.covers(turns.get(first))) {
+            first++;
+        }
+        return turns.subList(first, turns.size());
+    }
+
+    private void scheduleCompactionIfNeeded(String botIdentifier, long chatId, ChatState state,
+                                            Summary summary, List<Turn> turns) {
+        if (!summaryEnabled || turns.size() <= summaryKeepRecent) {
+            return;
+        }
+        int unsummarizedTokens = 0;
+        for (Turn turn : turns) {
+            unsummarizedTokens += turn.tokens();
+        }
+        if (unsummarizedTokens <= summaryTriggerTokens) {
+            return;
+        }
+
+        String key = key(botIdentifier, chatId);
+        if (!compacting.add(key)) {
+            return; // Компакция этого чата уже идёт
+        }
+        List<Turn> toSummarize = List.copyOf(turns.subList(0, turns.size() - summaryKeepRecent));
+        try {
+            summaryWorkers.execute(() -> compact(key, botIdentifier, chatId, state, summary, toSummarize));
+        } catch (RejectedExecutionException e) {
+            compacting.remove(key);
+            compactionRejectedCounter.increment();
+            log.debug("Summary queue is full, compaction of chat {} postponed", chatId);
+        }
+    }
+
+    private void compact(String key, String botIdentifier, long chatId, ChatState state,
+                         Summary previous, List<Turn> toSummarize) {
+        try {
+            List<String[]> dialogue = new ArrayList<>(toSummarize.size());
+            toSummarize.forEach(turn -> dialogue.add(new String[]{turn.role(), turn.content()}));
+            String text = openAIService.summarizeConversation(
+                    previous != null ? previous.text() : null, dialogue, botIdentifier, chatId);
+            Turn last = toSummarize.get(toSummarize.size() - 1);
+
+            ChatSummary entity = chatSummaryRepository.findByChatIdAndBotIdentifier(chatId, botIdentifier)
+                    .orElseGet(() -> ChatSummary.builder().chatId(chatId).botIdentifier(botIdentifier).build());
+            entity.setSummary(text);
+            entity.setLastMessageId(last.id());
+            entity.setLastMessageCreatedAt(last.createdAt());
+            entity.setUpdatedAt(LocalDateTime.now(clock));
+            chatSummaryRepository.save(entity);
+
+            state.summary = Summary.of(text, last.id(), last.createdAt());
+            compactedCounter.increment();
+            log.debug("Compacted {} messages of chat {} for bot {}", toSummarize.size(), chatId, botIdentifier);
+        } catch (Exception e) {
+            compactionFailedCounter.increment();
+            log.warn("Не удалось сжать историю чата {} бота {}: {}", chatId, botIdentifier, e.getMessage());
+        } finally {
+            compacting.remove(key);
+        }
+    }
+
+    private ChatState state(String botIdentifier, long chatId) {
+        String key = key(botIdentifier, chatId);
+        ChatState cached = chats.getIfPresent(key);
+        if (cached == null) {
+            return chats.get(key, k -> load(botIdentifier, chatId));
+        }
+        if (!syncWithDatabase || !missesPersistedTurns(cached, botIdentifier, chatId)) {
+            return cached;
+        }
+        ChatState reloaded = reload(cached, botIdentifier, chatId);
+        chats.put(key, reloaded);
+        resyncCounter.increment();
+        return reloaded;
+    }
+
+    /**
+     * Есть ли в БД сообщения чата, которых нет в буфере (записанные другим экземпляром),
+     * начиная с самой старой реплики буфера.
+     */
+    private boolean missesPersistedTurns(ChatState state, String botIdentifier, long chatId) {
+        List<Turn> turns = state.turns.toList();
+        // Пустой буфер сверяется со всей глубиной загрузки
+        Turn oldest = turns.isEmpty() ? null : turns.get(0);
+        LocalDateTime from = oldest != null ? oldest.createdAt() : LocalDateTime.now(clock).minus(lookback);
+        long fromId = oldest != null ? oldest.id() : Long.MIN_VALUE;
+        List<Long> persisted = chatMessageRepository.findIdsFrom(chatId, botIdentifier, from, fromId);
+        Set<Long> buffered = new HashSet<>();
+        turns.forEach(turn -> buffered.add(turn.id()));
+        return !buffered.containsAll(persisted);
+    }
+
+    /**
+     * Перечитывает буфер из БД. Свои реплики, которые ChatLogWriter ещё не записал, в БД не видны —
+     * они дописываются после прочитанных.
+     */
+    private ChatState reload(ChatState stale, String botIdentifier, long chatId) {
+        ChatState fresh = load(botIdentifier, chatId);
+        List<Turn> loaded = fresh.turns.toList();
+        Set<Long> loadedIds = new HashSet<>();
+        loaded.forEach(turn -> loadedIds.add(turn.id()));
+        Turn last = loaded.isEmpty() ? null : loaded.get(loaded.size() - 1);
+        for (Turn turn : stale.turns.toList()) {
+            if (!loadedIds.contains(turn.id()) && (last == null || turn.isAfter(last))) {
+                fresh.turns.add(turn);
+            }
+        }
+        log.debug("Chat {} of bot {} has messages from another instance, history reloaded", chatId, botIdentifier);
+        return fresh;
+    }
+
+    private ChatState load(String botIdentifier, long chatId) {
+        List<ChatMessage> latest = chatMessageRepository
+                .findTop30ByChatIdAndBotIdentifierAndCreatedAtAfterOrderByCreatedAtDescIdDesc(
+                        chatId, botIdentifier, LocalDateTime.now(clock).minus(lookback));
+        List<ChatMessage> chronological = new ArrayList<>(latest);
+        Collections.reverse(chronological);
+
+        ChatState state = new ChatState(new RingBuffer<>(bufferSize));
+        chronological.forEach(message -> state.turns.add(Turn.of(message)));
+        chatSummaryRepository.findByChatIdAndBotIdentifier(chatId, botIdentifier)
+                .filter(s -> s.getSummary() != null && s.getLastMessageId() != null)
+                .ifPresent(s -> state.summary = Summary.of(s.getSummary(), s.getLastMessageId(), s.getLastMessageCreatedAt()));
+        log.debug("Loaded {} history messages for chat {} of bot {}", chronological.size(), chatId, botIdentifier);
+        return state;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        summaryWorkers.shutdownNow();
+    }
+
+    private static String key(String botIdentifier, long chatId) {
+        return botIdentifier + ":" + chatId;
+    }
+
+    /**
+     * Буфер реплик и текущее содержание одного чата.
+     */
+    private static final class ChatState {
+        private final RingBuffer<Turn> turns;
+        private volatile Summary summary;
+
+        private ChatState(RingBuffer<Turn> turns) {
+            this.turns = turns;
+        }
+    }
+
+    /**
+     * Реплика диалога с заранее посчитанной оценкой токенов.
+     */
+    private record Turn(long id, LocalDateTime createdAt, String role, String content, int tokens) {
+
+        static Turn of(ChatMessage message) {
+            // Сообщения приходят из БД или уже с id и created_at из ChatLogWriter.append
+            return new Turn(message.getId(), message.getCreatedAt(),
+                    message.getRole(), message.getContent(), TokenEstimator.estimateMessage(message.getContent()));
+        }
+
+        /**
+         * Позже ли реплика в порядке диалога (created_at, id).
+         */
+        boolean isAfter(Turn other) {
+            int byTime = createdAt.compareTo(other.createdAt);
+            return byTime > 0 || byTime == 0 && id > other.id;
+        }
+    }
+
+    /**
+     * @param lastMessageCreatedAt created_at последнего вошедшего сообщения; null у содержаний,
+     *                             сохранённых до появления колонки, если сообщения уже нет.
+     */
+    private record Summary(String text, long lastMessageId, LocalDateTime lastMessageCreatedAt, int tokens) {
+
+        static Summary of(String text, long lastMessageId, LocalDateTime lastMessageCreatedAt) {
+            return new Summary(text, lastMessageId, lastMessageCreatedAt,
+                    TokenEstimator.estimateMessage(SUMMARY_PREFIX + text));
+        }
+
+        /**
+         * Вошла ли реплика в содержание: не позже его последнего сообщения в порядке (created_at, id).
+         */
+        boolean covers(Turn turn) {
+            if (lastMessageCreatedAt == null) {
+                return turn.id() <= lastMessageId;
+            }
+            int byTime = turn.createdAt().compareTo(lastMessageCreatedAt);
+            return byTime < 0 || byTime == 0 && turn.id() <= lastMessageId;
+        }
+    }
+}
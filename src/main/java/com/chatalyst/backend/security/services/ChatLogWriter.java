@@ -0,0 +1,308 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.model.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Отложенная запись истории диалогов (только добавление).
+ * Сообщения получают id сразу — блоками из последовательности chat_message_seq, как у Hibernate
+ * (pooled, шаг ALLOCATION_SIZE), — и уходят в память; в chat_message они пишутся пакетами
+ * по batch-size или раз в flush-interval-ms. С reWriteBatchedInserts драйвер PostgreSQL
+ * превращает пакет в многострочные INSERT.
+ * <p>
+ * Порядок в чате задаётся (created_at, id): время проставляется в append, а обработка одного чата
+ * идёт последовательно, поэтому порядок реплик не зависит от того, каким пакетом они записаны.
+ * Одного id недостаточно: у каждого экземпляра свой блок id, и реплики чата, обработанные
+ * разными экземплярами, по id могут идти не по порядку.
+ * Если очередь переполнена, сообщения пишутся сразу на вызывающем потоке, а не теряются.
+ * <p>
+ * Если БД недоступна, пакет возвращается в очередь. Если пакет отвергнут из-за данных
+ * (например, created_at вне всех секций), сообщения пишутся по одной: отвергнутое повторяется
+ * при следующих сбросах и после max-record-failures неудач уходит в журнал ошибок, не задерживая остальные.
+ * <p>
+ * В той же транзакции, что и пакет, обновляются счётчики ботов (BotStatsService).
+ */
+@Service
+@Slf4j
+public class ChatLogWriter {
+
+    static final String SEQUENCE = "chat_message_seq";
+    // Должен совпадать с allocationSize у @SequenceGenerator в ChatMessage
+    static final int ALLOCATION_SIZE = 50;
+
+    private static final String INSERT_SQL =
+            "INSERT INTO chat_message (id, role, content, chat_id, bot_identifier, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+
+    // Последовательность выровнена по старым id миграцией V1 — здесь только nextval
+    private static final String NEXT_VALUE_SQL = "SELECT nextval('" + SEQUENCE + "')";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final BotStatsService botStatsService;
+    private final Clock clock;
+    private final int batchSize;
+    private final int maxRecordFailures;
+    private final BlockingQueue<Pending> backlog;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    // Пакеты пишутся по одному (поток сброса и прямая запись при переполнении) — для счётчиков ботов
+    private final Object writeLock = new Object();
+
+    // Текущий блок id: [nextId, maxId]; защищены монитором this
+    private long nextId = 1;
+    private long maxId = 0;
+
+    private final Timer flushTimer;
+    private final Counter writtenCounter;
+    private final Counter failedCounter;
+    private final Counter directCounter;
+    private final Counter rejectedCounter;
+
+    public ChatLogWriter(JdbcTemplate jdbcTemplate,
+                         TransactionTemplate transactionTemplate,
+                         BotStatsService botStatsService,
+                         Clock chatLogClock,
+                         MeterRegistry meterRegistry,
+                         @Value("${chat.log.batch-size:100}") int batchSize,
+                         @Value("${chat.log.flush-interval-ms:500}") long flushIntervalMs,
+                         @Value("${chat.log.queue-capacity:20000}") int queueCapacity,
+                         @Value("${chat.log.max-record-failures:5}") int maxRecordFailures) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.botStatsService = botStatsService;
+        this.clock = chatLogClock;
+        this.batchSize = batchSize;
+        this.maxRecordFailures = maxRecordFailures;
+        this.backlog = new LinkedBlockingQueue<>(queueCapacity);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-log-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+
+        Gauge.builder("chat.log.writer.backlog", backlog, BlockingQueue::size)
+                .description("Сообщения диалогов, ожидающие записи в БД")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("chat.log.writer.flush")
+                .description("Время записи одного пакета сообщений")
+                .register(meterRegistry);
+        this.writtenCounter = meterRegistry.counter("chat.log.writer.records", "result", "written");
+        this.failedCounter = meterRegistry.counter("chat.log.writer.records", "result", "failed");
+        this.directCounter = meterRegistry.counter("chat.log.writer.records", "result", "direct");
+        this.rejectedCounter = meterRegistry.counter("chat.log.writer.records", "result", "rejected");
+    }
+
+    /**
+     * Присваивает сообщениям id (по порядку) и ставит их в очередь на запись.
+     * После возврата id уже можно использовать (например, в ChatHistoryService).
+     * @throws RuntimeException если не удалось получить id или записать сообщения при переполненной очереди.
+     */
+    public void append(List<ChatMessage> messages) {
+        List<Pending> overflow = null;
+        synchronized (this) {
+            for (ChatMessage message : messages) {
+                message.setId(allocateId());
+                if (message.getCreatedAt() == null) {
+                    // Пояс часов совпадает с границами секций (ChatLogClockConfig)
+                    message.setCreatedAt(LocalDateTime.now(clock));
+                }
+                Pending pending = new Pending(message, 0);
+                if (overflow == null && !backlog.offer(pending)) {
+                    overflow = new ArrayList<>();
+                }
+                if (overflow != null) {
+                    overflow.add(pending);
+                }
+            }
+        }
+        if (overflow != null) {
+            // БД не успевает за потоком сообщений: пишем на вызывающем потоке (обратное давление)
+            log.warn("Chat log backlog is full, writing {} messages directly", overflow.size());
+            directCounter.increment(overflow.size());
+            List<Pending> retries = new ArrayList<>();
+            try {
+                write(overflow, retries);
+            } finally {
+                requeue(retries);
+            }
+        }
+        if (backlog.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushSafely);
+            } catch (RejectedExecutionException e) {
+                flushRequested.set(false); // Остановка: остаток сбросит shutdown()
+            }
+        }
+    }
+
+    /**
+     * Следующий id из текущего блока; новый блок — один nextval на ALLOCATION_SIZE сообщений.
+     * Значение последовательности v означает блок (v - ALLOCATION_SIZE, v], как у pooled-оптимизатора Hibernate.
+     */
+    private long allocateId() {
+        if (nextId > maxId) {
+            Long hi = jdbcTemplate.queryForObject(NEXT_VALUE_SQL, Long.class);
+            if (hi == null) {
+                throw new IllegalStateException("Sequence " + SEQUENCE + " returned no value");
+            }
+            maxId = hi;
+            nextId = Math.max(1, hi - ALLOCATION_SIZE + 1);
+        }
+        return nextId++;
+    }
+
+    private void flushSafely() {
+        flushRequested.set(false);
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Chat log flush failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Пишет накопленные сообщения пакетами по batchSize, пока очередь не опустеет.
+     * @throws RuntimeException если БД недоступна; сообщения остаются в очереди.
+     */
+    void flush() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        // Отвергнутые сообщения возвращаются в очередь только после сброса: одна попытка за сброс
+        List<Pending> retries = new ArrayList<>();
+        try {
+            while (backlog.drainTo(batch, batchSize) > 0) {
+                write(batch, retries);
+                batch.clear();
+            }
+        } finally {
+            requeue(retries);
+        }
+    }
+
+    private void write(List<Pending> batch, List<Pending> retries) {
+        try {
+            flushTimer.record(() -> writeBatch(messages(batch)));
+            writtenCounter.increment(batch.size());
+        } catch (RuntimeException e) {
+            if (TokenUsageWriter.databaseUnavailable(e)) {
+                failedCounter.increment(batch.size());
+                // Вернём пакет в очередь: у сообщений уже есть id, порядок в чате не нарушится
+                requeue(batch);
+                throw e;
+            }
+            log.warn("Chat log batch of {} messages rejected, writing messages one by one: {}",
+                    batch.size(), e.getMessage());
+            writeOneByOne(batch, retries);
+        }
+    }
+
+    /**
+     * Ищет в отвергнутом пакете испорченные сообщения: остальные записываются сразу,
+     * испорченное попадает в retries, пока не наберёт maxRecordFailures неудач.
+     */
+    private void writeOneByOne(List<Pending> batch, List<Pending> retries) {
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            try {
+                writeBatch(List.of(pending.message()));
+                writtenCounter.increment();
+            } catch (RuntimeException e) {
+                if (TokenUsageWriter.databaseUnavailable(e)) {
+                    failedCounter.increment(batch.size() - i);
+                    requeue(batch.subList(i, batch.size()));
+                    throw e;
+                }
+                failedCounter.increment();
+                int failures = pending.failures() + 1;
+                if (failures < maxRecordFailures) {
+                    retries.add(new Pending(pending.message(), failures));
+                } else {
+                    rejectedCounter.increment();
+                    ChatMessage message = pending.message();
+                    log.error("Dropping chat message after {} failed writes: id={} chat={} bot={} role={} createdAt={}: {}",
+                            failures, message.getId(), message.getChatId(), message.getBotIdentifier(),
+                            message.getRole(), message.getCreatedAt(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void requeue(List<Pending> pending) {
+        for (Pending record : pending) {
+            if (!backlog.offer(record)) {
+                ChatMessage message = record.message();
+                log.error("Chat log backlog is full, message {} of chat {} lost", message.getId(), message.getChatId());
+            }
+        }
+    }
+
+    private static List<ChatMessage> messages(List<Pending> batch) {
+        List<ChatMessage> messages = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            messages.add(pending.message());
+        }
+        return messages;
+    }
+
+    private void writeBatch(List<ChatMessage> batch) {
+        synchronized (writeLock) {
+            // Счётчики заполняются из уже записанных сообщений до первой новой записи
+            botStatsService.ensureBackfilled();
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, message) -> {
+                    ps.setLong(1, message.getId());
+                    ps.setString(2, message.getRole());
+                    ps.setString(3, message.getContent());
+                    ps.setObject(4, message.getChatId());
+                    ps.setString(5, message.getBotIdentifier());
+                    ps.setTimestamp(6, Timestamp.valueOf(message.getCreatedAt()));
+                });
+                botStatsService.record(batch);
+            });
+        }
+        log.debug("Wrote {} chat messages", batch.size());
+    }
+
+    /**
+     * Сообщение в очереди и число неудачных попыток записать его отдельно.
+     */
+    private record Pending(ChatMessage message, int failures) {
+    }
+
+    /**
+     * Останавливает плановые сбросы и записывает всё, что осталось в очереди.
+     */
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(10, TimeUnit.SECONDS)) {
+                flusher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Final chat log flush failed, {} messages lost: {}", backlog.size(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.chatalyst.backend.security.services;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Обслуживание помесячных секций chat_message (схема — миграция V1__partition_chat_message).
+ * Раз в maintenance-interval-hours создаёт секции на текущий и months-ahead следующих месяцев
+ * (без секции по умолчанию сообщение месяца без секции не запишется) и, если задан retention-months,
+ * удаляет помесячные секции целиком, когда все их сообщения старше срока хранения, — без построчных DELETE.
+ * Секция отсоединяется через DETACH PARTITION ... CONCURRENTLY (запись в chat_message не блокируется)
+ * и только затем удаляется. Старая таблица chat_message_legacy с неизвестным временем сообщений не удаляется.
+ * Месяцы считаются по часам chatLogClock — тем же, что проставляют created_at (ChatLogClockConfig).
+ */
+@Service
+@Slf4j
+public class ChatMessagePartitionService {
+
+    private static final String PARENT = "chat_message";
+    private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Верхняя граница секции в pg_get_expr(relpartbound): FOR VALUES FROM (...) TO ('2026-11-01 00:00:00')
+    private static final Pattern MONTHLY_PARTITION = Pattern.compile(PARENT + "_y\\d{4}m\\d{2}");
+    private static final String DEFAULT_BOUND = "DEFAULT";
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('(\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2})[^']*'\\)");
+
+    private static final String PARTITIONS_SQL = """
+            SELECT c.relname, pg_get_expr(c.relpartbound, c.oid), i.inhdetachpending
+            FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = to_regclass('chat_message')
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Clock clock;
+    private final int monthsAhead;
+    private final int retentionMonths;
+    private final long intervalHours;
+    private final ScheduledExecutorService scheduler;
+
+    public ChatMessagePartitionService(JdbcTemplate jdbcTemplate,
+                                       Clock chatLogClock,
+                                       @Value("${chat.log.partition-months-ahead:2}") int monthsAhead,
+                                       @Value("${chat.log.retention-months:0}") int retentionMonths,
+                                       @Value("${chat.log.maintenance-interval-hours:24}") long intervalHours) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.clock = chatLogClock;
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+        this.intervalHours = intervalHours;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-partition-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::maintainSafely, 0, intervalHours, TimeUnit.HOURS);
+    }
+
+    private void maintainSafely() {
+        try {
+            createUpcomingPartitions();
+            dropExpiredPartitions();
+        } catch (RuntimeException e) {
+            log.error("Chat message partition maintenance failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Создаёт недостающие секции с текущего месяца по месяц через monthsAhead.
+     */
+    void createUpcomingPartitions() {
+        YearMonth current = YearMonth.now(clock);
+        for (int i = 0; i <= monthsAhead; i++) {
+            YearMonth month = current.plusMonths(i);
+            String name = partitionName(month);
+            String sql = String.format("CREATE TABLE IF NOT EXISTS %s PARTITION OF %s FOR VALUES FROM ('%s') TO ('%s')",
+                    name, PARENT, month.atDay(1), month.plusMonths(1).atDay(1));
+            try {
+                jdbcTemplate.execute(sql);
+            } catch (RuntimeException e) {
+                // Например, в секции по умолчанию уже есть строки этого месяца
+                log.error("Could not create partition {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Удаляет помесячные секции, верхняя граница которых не позже начала месяца, отстоящего на retentionMonths.
+     * Секция, отсоединение которой прервалось (detach pending), доотсоединяется через FINALIZE и удаляется.
+     */
+    void dropExpiredPartitions() {
+        if (retentionMonths <= 0) {
+            return;
+        }
+        LocalDateTime cutoff = YearMonth.now(clock).minusMonths(retentionMonths).atDay(1).atStartOfDay();
+        List<Partition> partitions = jdbcTemplate.query(PARTITIONS_SQL,
+                (rs, rowNum) -> new Partition(rs.getString(1), rs.getString(2), rs.getBoolean(3)));
+        // CONCURRENTLY недоступен, пока у chat_message есть секция по умолчанию (см. миграцию V4)
+        boolean concurrently = partitions.stream().noneMatch(p -> DEFAULT_BOUND.equals(p.bound()));
+        for (Partition partition : partitions) {
+            String table = "\"" + partition.name().replace("\"", "\"\"") + "\"";
+            if (partition.detachPending()) {
+                jdbcTemplate.execute("ALTER TABLE " + PARENT + " DETACH PARTITION " + table + " FINALIZE");
+            } else if (isExpired(partition, cutoff)) {
+                if (!concurrently) {
+                    log.warn("chat_message has a default partition, detaching {} without CONCURRENTLY", partition.name());
+                }
+                jdbcTemplate.execute("ALTER TABLE " + PARENT + " DETACH PARTITION " + table
+                        + (concurrently ? " CONCURRENTLY" : ""));
+            } else {
+                continue;
+            }
+            jdbcTemplate.execute("DROP TABLE " + table);
+            log.info("Dropped chat message partition {} ({})", partition.name(), partition.bound());
+        }
+    }
+
+    /**
+     * Устарела ли секция: только помесячные секции, целиком раньше cutoff.
+     */
+    static boolean isExpired(Partition partition, LocalDateTime cutoff) {
+        if (!MONTHLY_PARTITION.matcher(partition.name()).matches()) {
+            return false;
+        }
+        LocalDateTime upperBound = upperBound(partition.bound());
+        return upperBound != null && !upperBound.isAfter(cutoff);
+    }
+
+    static String partitionName(YearMonth month) {
+        return String.format("%s_y%04dm%02d", PARENT, month.getYear(), month.getMonthValue());
+    }
+
+    /**
+     * @return Верхняя граница из выражения секции или null (секция по умолчанию, MAXVALUE).
+     */
+    static LocalDateTime upperBound(String partitionBound) {
+        if (partitionBound == null) {
+            return null;
+        }
+        Matcher matcher = UPPER_BOUND.matcher(partitionBound);
+        return matcher.find() ? LocalDateTime.parse(matcher.group(1), BOUND_FORMAT) : null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    record Partition(String name, String bound, boolean detachPending) {
+    }
+}
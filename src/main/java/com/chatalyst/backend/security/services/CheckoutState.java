@@ -0,0 +1,96 @@
+package com.chatalyst.backend.security.services;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Состояние оформления заказа в чате: шаг и уже собранные данные.
+ * Шаги идут по порядку — адрес, телефон, подтверждение; на каждом шаге можно прислать
+ * данные в прежнем формате («Адрес: ...», «Телефон: ...», «Комментарий: ...») — тогда
+ * заполненные шаги пропускаются. Неизменяемый: accept возвращает новое состояние.
+ */
+public record CheckoutState(Step step, String address, String phone, String comment) {
+
+    public enum Step {
+        AWAITING_ADDRESS,
+        AWAITING_PHONE,
+        AWAITING_CONFIRMATION
+    }
+
+    // Ограничения колонок orders.client_delivery_address / client_contact_phone / client_comment
+    static final int MAX_ADDRESS_LENGTH = 500;
+    static final int MAX_PHONE_LENGTH = 50;
+    static final int MAX_COMMENT_LENGTH = 255;
+
+    private static final Pattern PHONE = Pattern.compile("\\+?[\\d\\s()\\-]+");
+    private static final int MIN_PHONE_DIGITS = 6;
+    private static final int MAX_PHONE_DIGITS = 15;
+
+    public static CheckoutState start() {
+        return new CheckoutState(Step.AWAITING_ADDRESS, null, null, null);
+    }
+
+    /**
+     * Применяет сообщение покупателя. Помеченные значения («Телефон: ...») заполняют свои поля
+     * на любом шаге; текст без меток относится к текущему шагу (на подтверждении — это комментарий).
+     * Некорректное значение не сохраняется, и шаг остаётся прежним.
+     */
+    public CheckoutState accept(String text) {
+        String labeledAddress = extractValue(text, "Адрес");
+        String labeledPhone = extractValue(text, "Телефон");
+        String labeledComment = extractValue(text, "Комментарий");
+
+        String newAddress = address;
+        String newPhone = phone;
+        String newComment = comment;
+        if (labeledAddress == null && labeledPhone == null && labeledComment == null) {
+            String plain = text.trim();
+            switch (step) {
+                case AWAITING_ADDRESS -> newAddress = plain;
+                case AWAITING_PHONE -> newPhone = plain;
+                case AWAITING_CONFIRMATION -> newComment = plain;
+            }
+        } else {
+            newAddress = labeledAddress != null ? labeledAddress : newAddress;
+            newPhone = labeledPhone != null ? labeledPhone : newPhone;
+            newComment = labeledComment != null ? labeledComment : newComment;
+        }
+
+        newAddress = validAddress(newAddress) ? newAddress : address;
+        newPhone = validPhone(newPhone) ? newPhone : phone;
+        newComment = newComment == null || newComment.length() <= MAX_COMMENT_LENGTH ? blankToNull(newComment) : comment;
+        return new CheckoutState(nextStep(newAddress, newPhone), newAddress, newPhone, newComment);
+    }
+
+    private static Step nextStep(String address, String phone) {
+        if (address == null) {
+            return Step.AWAITING_ADDRESS;
+        }
+        return phone == null ? Step.AWAITING_PHONE : Step.AWAITING_CONFIRMATION;
+    }
+
+    private static boolean validAddress(String address) {
+        return address != null && !address.isBlank() && address.length() <= MAX_ADDRESS_LENGTH;
+    }
+
+    static boolean validPhone(String phone) {
+        if (phone == null || phone.length() > MAX_PHONE_LENGTH || !PHONE.matcher(phone).matches()) {
+            return false;
+        }
+        long digits = phone.chars().filter(Character::isDigit).count();
+        return digits >= MIN_PHONE_DIGITS && digits <= MAX_PHONE_DIGITS;
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    private static String extractValue(String text, String key) {
+        Pattern pattern = Pattern.compile(key + ":\\s*(.*?)(?:\\n|$)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+        Matcher matcher = pattern.matcher(text);
+        if (matcher.find()) {
+            return matcher.group(1).trim();
+        }
+        return null;
+    }
+}
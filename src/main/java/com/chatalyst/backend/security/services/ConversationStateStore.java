@@ -0,0 +1,27 @@
+package com.chatalyst.backend.security.services;
+
+import java.util.Optional;
+
+/**
+ * Состояние диалога с покупателем по ключу (бот, чат) — сейчас это оформление заказа.
+ * Состояние живёт не дольше telegram.conversation.ttl-minutes с последнего изменения:
+ * брошенное оформление не занимает память и не перехватывает сообщения чата навсегда.
+ * Реализации: в памяти процесса (по умолчанию) и в PostgreSQL
+ * (telegram.conversation.store=jdbc — для нескольких экземпляров и сохранения при перезапуске).
+ */
+public interface ConversationStateStore {
+
+    Optional<CheckoutState> get(String botIdentifier, long chatId);
+
+    /**
+     * Сохраняет состояние и продлевает срок его жизни.
+     */
+    void put(String botIdentifier, long chatId, CheckoutState state);
+
+    /**
+     * Атомарно удаляет состояние: из одновременных вызовов значение получит только один
+     * (повторное нажатие «Подтвердить» не создаст второй заказ).
+     * @return Удалённое состояние, если оно было и не истекло.
+     */
+    Optional<CheckoutState> remove(String botIdentifier, long chatId);
+}
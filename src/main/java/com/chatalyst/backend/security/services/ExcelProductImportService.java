@@ -12,13 +12,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
@@ -35,15 +29,9 @@ public class ExcelProductImportService {
     private final ProductService productService;
     private final BotRepository botRepository;
     private final ObjectMapper objectMapper;
-    private final RestTemplate restTemplate;
+    private final OpenAIService openAIService;
     private final PsObjectStorageService psObjectStorageService;
 
-    @Value("${openai.api.key}")
-    private String openaiApiKey;
-
-    @Value("${openai.model:gpt-3.5-turbo}")
-    private String openaiModel;
-
     /**
      * Импортирует товары из Excel файла с использованием OpenAI для маппинга данных.
      * @param excelFile Excel файл с товарами.
@@ -67,7 +55,7 @@ public class ExcelProductImportService {
             log.info("Извлечено {} строк из Excel файла", excelData.size());
 
             // Используем OpenAI для маппинга данных
-            List<Map<String, Object>> mappedData = mapDataWithOpenAI(excelData);
+            List<Map<String, Object>> mappedData = mapDataWithOpenAI(excelData, bot.getBotIdentifier());
             log.info("Данные успешно обработаны через OpenAI");
 
             // Создаем товары
@@ -201,15 +189,16 @@ public class ExcelProductImportService {
     /**
      * Использует OpenAI для маппинга данных из Excel в нужный формат.
      * @param excelData Данные из Excel.
+     * @param botIdentifier Бот, на которого учитывается запрос в лимитах OpenAIGuard.
      * @return Обработанные данные.
      */
-    private List<Map<String, Object>> mapDataWithOpenAI(List<Map<String, Object>> excelData) {
+    private List<Map<String, Object>> mapDataWithOpenAI(List<Map<String, Object>> excelData, String botIdentifier) {
         try {
             // Подготавливаем промпт для OpenAI
             String prompt = createMappingPrompt(excelData);
             
             // Отправляем запрос к OpenAI
-            String response = callOpenAI(prompt);
+            String response = callOpenAI(prompt, botIdentifier);
             
             // Парсим ответ от OpenAI
             return parseOpenAIResponse(response);
@@ -259,40 +248,15 @@ public class ExcelProductImportService {
     }
 
     /**
-     * Отправляет запрос к OpenAI API.
+     * Отправляет запрос модели импорта (openai.import.model) через OpenAIService — с лимитами
+     * и предохранителем OpenAIGuard и ограниченным временем ожидания.
      * @param prompt Промпт для OpenAI.
+     * @param botIdentifier Идентификатор бота.
      * @return Ответ от OpenAI.
      */
-    private String callOpenAI(String prompt) {
+    private String callOpenAI(String prompt, String botIdentifier) {
         try {
-            String url = "https://api.openai.com/v1/chat/completions";
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(openaiApiKey);
-            
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", openaiModel);
-            requestBody.put("max_tokens", 4000);
-            requestBody.put("temperature", 0.1);
-            
-            List<Map<String, String>> messages = new ArrayList<>();
-            Map<String, String> message = new HashMap<>();
-            message.put("role", "user");
-            message.put("content", prompt);
-            messages.add(message);
-            requestBody.put("messages", messages);
-            
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-            ResponseEntity<String> response = restTemplate.postForEntity(url, entity, String.class);
-            
-            if (!response.getStatusCode().is2xxSuccessful()) {
-                throw new RuntimeException("Ошибка при вызове OpenAI API: " + response.getStatusCode());
-            }
-            
-            // Парсим ответ и извлекаем содержимое
-            JsonNode responseJson = objectMapper.readTree(response.getBody());
-            return responseJson.path("choices").get(0).path("message").path("content").asText();
+            return openAIService.completeCatalogImport(prompt, botIdentifier);
             
         } catch (Exception e) {
             log.error("Ошибка при вызове OpenAI API: {}", e.getMessage());
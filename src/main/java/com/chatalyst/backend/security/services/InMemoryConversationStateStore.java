@@ -0,0 +1,53 @@
+package com.chatalyst.backend.security.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Состояния диалогов в памяти процесса: потокобезопасный кэш с истечением через ttl-minutes
+ * после записи и ограничением max-size (при переполнении вытесняются давно не использованные).
+ * Подходит для одного экземпляра; при перезапуске начатые оформления сбрасываются.
+ */
+@Service
+@ConditionalOnProperty(name = "telegram.conversation.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryConversationStateStore implements ConversationStateStore {
+
+    private final Cache<ConversationKey, CheckoutState> states;
+
+    public InMemoryConversationStateStore(MeterRegistry meterRegistry,
+                                          @Value("${telegram.conversation.ttl-minutes:30}") long ttlMinutes,
+                                          @Value("${telegram.conversation.max-size:100000}") long maxSize) {
+        this.states = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, states, "telegram.conversations");
+    }
+
+    @Override
+    public Optional<CheckoutState> get(String botIdentifier, long chatId) {
+        return Optional.ofNullable(states.getIfPresent(new ConversationKey(botIdentifier, chatId)));
+    }
+
+    @Override
+    public void put(String botIdentifier, long chatId, CheckoutState state) {
+        states.put(new ConversationKey(botIdentifier, chatId), state);
+    }
+
+    @Override
+    public Optional<CheckoutState> remove(String botIdentifier, long chatId) {
+        return Optional.ofNullable(states.asMap().remove(new ConversationKey(botIdentifier, chatId)));
+    }
+
+    private record ConversationKey(String botIdentifier, long chatId) {
+    }
+}
@@ -0,0 +1,116 @@
+package com.chatalyst.backend.security.services;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Состояния диалогов в таблице conversation_state (миграция V3__conversation_state):
+ * общие для всех экземпляров и переживают перезапуск. Срок жизни считается по часам БД
+ * (expires_at), поэтому расхождение часов между узлами не влияет на истечение.
+ * Истёкшие строки не читаются, а физически удаляются раз в cleanup-interval-minutes.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "telegram.conversation.store", havingValue = "jdbc")
+public class JdbcConversationStateStore implements ConversationStateStore {
+
+    private static final String SELECT_SQL = """
+            SELECT step, address, phone, comment FROM conversation_state
+            WHERE bot_identifier = ? AND chat_id = ? AND expires_at > now()
+            """;
+
+    private static final String UPSERT_SQL = """
+            INSERT INTO conversation_state (bot_identifier, chat_id, step, address, phone, comment, expires_at)
+            VALUES (?, ?, ?, ?, ?, ?, now() + ? * interval '1 second')
+            ON CONFLICT (bot_identifier, chat_id) DO UPDATE SET
+                step = EXCLUDED.step,
+                address = EXCLUDED.address,
+                phone = EXCLUDED.phone,
+                comment = EXCLUDED.comment,
+                expires_at = EXCLUDED.expires_at
+            """;
+
+    // DELETE ... RETURNING: строку получит только одна из конкурирующих транзакций
+    private static final String DELETE_SQL = """
+            DELETE FROM conversation_state
+            WHERE bot_identifier = ? AND chat_id = ?
+            RETURNING step, address, phone, comment, expires_at > now()
+            """;
+
+    private static final String CLEANUP_SQL = "DELETE FROM conversation_state WHERE expires_at <= now()";
+
+    private static final RowMapper<CheckoutState> STATE_MAPPER = (rs, rowNum) -> new CheckoutState(
+            CheckoutState.Step.valueOf(rs.getString(1)), rs.getString(2), rs.getString(3), rs.getString(4));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long ttlSeconds;
+    private final long cleanupIntervalMinutes;
+    private final ScheduledExecutorService scheduler;
+
+    public JdbcConversationStateStore(JdbcTemplate jdbcTemplate,
+                                      @Value("${telegram.conversation.ttl-minutes:30}") long ttlMinutes,
+                                      @Value("${telegram.conversation.cleanup-interval-minutes:10}") long cleanupIntervalMinutes) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ttlSeconds = TimeUnit.MINUTES.toSeconds(ttlMinutes);
+        this.cleanupIntervalMinutes = cleanupIntervalMinutes;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "conversation-state-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::cleanupSafely, cleanupIntervalMinutes, cleanupIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public Optional<CheckoutState> get(String botIdentifier, long chatId) {
+        List<CheckoutState> states = jdbcTemplate.query(SELECT_SQL, STATE_MAPPER, botIdentifier, chatId);
+        return states.isEmpty() ? Optional.empty() : Optional.of(states.get(0));
+    }
+
+    @Override
+    public void put(String botIdentifier, long chatId, CheckoutState state) {
+        jdbcTemplate.update(UPSERT_SQL, botIdentifier, chatId, state.step().name(),
+                state.address(), state.phone(), state.comment(), ttlSeconds);
+    }
+
+    @Override
+    public Optional<CheckoutState> remove(String botIdentifier, long chatId) {
+        List<CheckoutState> removed = jdbcTemplate.query(DELETE_SQL,
+                (rs, rowNum) -> rs.getBoolean(5) ? STATE_MAPPER.mapRow(rs, rowNum) : null,
+                botIdentifier, chatId);
+        return removed.isEmpty() ? Optional.empty() : Optional.ofNullable(removed.get(0));
+    }
+
+    private void cleanupSafely() {
+        try {
+            int deleted = jdbcTemplate.update(CLEANUP_SQL);
+            if (deleted > 0) {
+                log.debug("Removed {} expired conversation states", deleted);
+            }
+        } catch (RuntimeException e) {
+            log.error("Conversation state cleanup failed: {}", e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,85 @@
+package com.chatalyst.backend.security.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Какие модели владелец магазина может выбрать для бота (llm.allowed-models) и сколько стоят их токены
+ * (llm.pricing). Ответы ботов оплачиваются ключом платформы, поэтому произвольная модель из запроса
+ * не принимается, а расход считается по цене той модели, которая фактически ответила.
+ */
+@Service
+@Slf4j
+public class LlmModelPolicy {
+
+    /**
+     * Цена в долларах за 1000 токенов запроса и ответа.
+     */
+    public record Price(double usdPer1kPrompt, double usdPer1kCompletion) {
+
+        public double usdCost(int promptTokens, int completionTokens) {
+            return promptTokens / 1000.0 * usdPer1kPrompt + completionTokens / 1000.0 * usdPer1kCompletion;
+        }
+    }
+
+    private final Set<String> allowedModels;
+    private final Map<String, Price> prices = new HashMap<>();
+    private final Price defaultPrice;
+
+    /**
+     * @param allowedModels Модели, доступные владельцам ботов ("gpt-4o-mini", "stub:fast").
+     * @param pricing Цены вида "модель=промпт/ответ" (USD за 1000 токенов), модель — без префикса провайдера.
+     * @param defaultModel openai.model: её цена применяется к моделям без своей цены.
+     */
+    public LlmModelPolicy(@Value("${llm.allowed-models}") List<String> allowedModels,
+                          @Value("${llm.pricing}") List<String> pricing,
+                          @Value("${openai.model}") String defaultModel) {
+        this.allowedModels = new LinkedHashSet<>();
+        allowedModels.stream().map(String::trim).filter(model -> !model.isEmpty()).forEach(this.allowedModels::add);
+        for (String entry : pricing) {
+            int eq = entry.lastIndexOf('=');
+            int slash = entry.lastIndexOf('/');
+            if (eq <= 0 || slash < eq) {
+                throw new IllegalStateException("Invalid llm.pricing entry: " + entry);
+            }
+            prices.put(entry.substring(0, eq).trim(), new Price(
+                    Double.parseDouble(entry.substring(eq + 1, slash).trim()),
+                    Double.parseDouble(entry.substring(slash + 1).trim())));
+        }
+        this.defaultPrice = prices.get(defaultModel);
+        if (this.defaultPrice == null) {
+            throw new IllegalStateException("No llm.pricing entry for openai.model: " + defaultModel);
+        }
+    }
+
+    /**
+     * @param model Модель из запроса владельца (без пробелов по краям).
+     */
+    public boolean isAllowed(String model) {
+        return allowedModels.contains(model);
+    }
+
+    public Set<String> allowedModels() {
+        return allowedModels;
+    }
+
+    /**
+     * @param model Модель из тела запроса (ChatCompletionRouter.Route.model()).
+     * @return Её цена или цена openai.model, если своей цены нет.
+     */
+    public Price price(String model) {
+        Price price = prices.get(model);
+        if (price == null) {
+            log.warn("No llm.pricing entry for model {}, using the default model price", model);
+            return defaultPrice;
+        }
+        return price;
+    }
+}
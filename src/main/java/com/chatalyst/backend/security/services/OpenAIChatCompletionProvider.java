@@ -0,0 +1,54 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.dto.ChatCompletionResponse;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Consumer;
+
+/**
+ * OpenAI /chat/completions через openAiWebClient; потоковые ответы — через OpenAIStreamingClient.
+ */
+@Component
+public class OpenAIChatCompletionProvider implements ChatCompletionProvider {
+
+    public static final String NAME = "openai";
+
+    private final WebClient openAiWebClient;
+    private final OpenAIStreamingClient streamingClient;
+
+    @Value("${openai.api.key}")
+    private String openaiApiKey;
+
+    public OpenAIChatCompletionProvider(@Qualifier("openAiWebClient") WebClient openAiWebClient,
+                                        OpenAIStreamingClient streamingClient) {
+        this.openAiWebClient = openAiWebClient;
+        this.streamingClient = streamingClient;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public Mono<ChatCompletionResponse> complete(ObjectNode requestBody) {
+        return openAiWebClient.post()
+                .uri("/chat/completions")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + openaiApiKey)
+                .bodyValue(requestBody)
+                .retrieve()
+                .bodyToMono(ChatCompletionResponse.class);
+    }
+
+    @Override
+    public Flux<String> stream(ObjectNode requestBody, Consumer<ChatCompletionResponse.Usage> onUsage) {
+        return streamingClient.stream(requestBody, openaiApiKey, onUsage);
+    }
+}
@@ -0,0 +1,208 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.util.CircuitBreaker;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Защита вызовов OpenAI: ограничение одновременных запросов (общее и на бота), тайм-ауты
+ * и предохранитель (CircuitBreaker). Когда OpenAI тормозит или отвечает ошибками, новые вызовы
+ * сразу завершаются RejectedException, и вызывающий отдаёт обычный текст извинения,
+ * вместо того чтобы копить зависшие запросы.
+ */
+@Component
+@Slf4j
+public class OpenAIGuard {
+
+    /**
+     * Вызов отклонён без обращения к OpenAI.
+     */
+    public static class RejectedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    private final int botLimit;
+    private final Duration timeout;
+    private final Duration streamIdleTimeout;
+    private final Semaphore global;
+    private final ConcurrentHashMap<String, Semaphore> perBot = new ConcurrentHashMap<>();
+    private final CircuitBreaker breaker;
+    private final MeterRegistry meterRegistry;
+
+    public OpenAIGuard(MeterRegistry meterRegistry,
+                       @Value("${openai.guard.max-concurrent:64}") int globalLimit,
+                       @Value("${openai.guard.max-concurrent-per-bot:8}") int botLimit,
+                       @Value("${openai.guard.timeout-ms:30000}") long timeoutMs,
+                       @Value("${openai.guard.stream-idle-timeout-ms:15000}") long streamIdleTimeoutMs,
+                       @Value("${openai.guard.circuit.window-size:50}") int windowSize,
+                       @Value("${openai.guard.circuit.minimum-calls:10}") int minimumCalls,
+                       @Value("${openai.guard.circuit.failure-rate:0.5}") double failureRate,
+                       @Value("${openai.guard.circuit.open-seconds:30}") long openSeconds,
+                       @Value("${openai.guard.circuit.half-open-probes:3}") int halfOpenProbes) {
+        this.meterRegistry = meterRegistry;
+        this.botLimit = botLimit;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.streamIdleTimeout = Duration.ofMillis(streamIdleTimeoutMs);
+        this.global = new Semaphore(globalLimit);
+        this.breaker = new CircuitBreaker(windowSize, minimumCalls, failureRate, Duration.ofSeconds(openSeconds),
+                halfOpenProbes, (from, to) -> {
+                    meterRegistry.counter("openai.circuit.transitions", "from", from.name(), "to", to.name()).increment();
+                    log.warn("OpenAI circuit breaker: {} -> {}", from, to);
+                });
+
+        Gauge.builder("openai.circuit.state", breaker, b -> b.state().ordinal())
+                .description("Состояние предохранителя OpenAI: 0 — CLOSED, 1 — OPEN, 2 — HALF_OPEN")
+                .register(meterRegistry);
+        Gauge.builder("openai.guard.in_flight", global, s -> globalLimit - s.availablePermits())
+                .description("Запросы к OpenAI в работе")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Выполняет запрос под защитой. Запрос создаётся только если он разрешён.
+     * @param botIdentifier Бот для лимита на бота (null — только общий лимит).
+     */
+    public <T> Mono<T> protect(String botIdentifier, Supplier<Mono<T>> request) {
+        return protect(botIdentifier, timeout, true, request);
+    }
+
+    /**
+     * То же со своим тайм-аутом вместо openai.guard.timeout-ms — для заведомо долгих запросов (импорт каталога).
+     * @param timeoutOpensCircuit Засчитывать ли тайм-аут предохранителю. Долгий служебный запрос, не уложившийся
+     *                            в свой тайм-аут, не говорит о недоступности OpenAI и не должен отключать ответы ботов.
+     */
+    public <T> Mono<T> protect(String botIdentifier, Duration timeout, boolean timeoutOpensCircuit,
+                               Supplier<Mono<T>> request) {
+        return Mono.defer(() -> {
+            Permit permit = acquire(botIdentifier, timeoutOpensCircuit);
+            return request.get()
+                    .timeout(timeout)
+                    .doOnSuccess(result -> permit.success())
+                    .doOnError(permit::failure)
+                    .doFinally(permit::release);
+        });
+    }
+
+    /**
+     * Потоковый вариант: тайм-аут действует на паузу между фрагментами, а не на весь ответ.
+     */
+    public <T> Flux<T> protectStream(String botIdentifier, Supplier<Flux<T>> request) {
+        return Flux.defer(() -> {
+            Permit permit = acquire(botIdentifier, true);
+            return request.get()
+                    .timeout(streamIdleTimeout)
+                    .doOnComplete(permit::success)
+                    .doOnError(permit::failure)
+                    .doFinally(permit::release);
+        });
+    }
+
+    public CircuitBreaker.State circuitState() {
+        return breaker.state();
+    }
+
+    private Permit acquire(String botIdentifier, boolean timeoutOpensCircuit) {
+        long generation = breaker.acquire();
+        if (generation == CircuitBreaker.REJECTED) {
+            throw reject("circuit_open", "OpenAI circuit breaker is open");
+        }
+        if (!global.tryAcquire()) {
+            breaker.onCancel(generation);
+            throw reject("global_limit", "Too many concurrent OpenAI requests");
+        }
+        Semaphore botPermits = botIdentifier != null
+                ? perBot.computeIfAbsent(botIdentifier, k -> new Semaphore(botLimit))
+                : null;
+        if (botPermits != null && !botPermits.tryAcquire()) {
+            global.release();
+            breaker.onCancel(generation);
+            throw reject("bot_limit", "Too many concurrent OpenAI requests for bot " + botIdentifier);
+        }
+        return new Permit(generation, botPermits, timeoutOpensCircuit);
+    }
+
+    private RejectedException reject(String reason, String message) {
+        meterRegistry.counter("openai.guard.rejected", "reason", reason).increment();
+        return new RejectedException(message);
+    }
+
+    /**
+     * Ошибки клиента (400, 401 и т.п.) говорят о проблеме запроса, а не о недоступности OpenAI,
+     * и предохранитель не размыкают; 429, 5xx, тайм-ауты и сетевые ошибки — размыкают.
+     */
+    private static boolean countsAsFailure(Throwable error) {
+        if (error instanceof WebClientResponseException response) {
+            return response.getStatusCode().is5xxServerError() || response.getStatusCode().value() == 429;
+        }
+        return true;
+    }
+
+    /**
+     * Занятые разрешения одного вызова. Освобождаются ровно один раз при любом завершении.
+     */
+    private final class Permit {
+        private final long generation;
+        private final Semaphore botPermits;
+        private final boolean timeoutOpensCircuit;
+        // Исход фиксируется один раз: отмена может прийти из другого потока одновременно с ответом
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        private Permit(long generation, Semaphore botPermits, boolean timeoutOpensCircuit) {
+            this.generation = generation;
+            this.botPermits = botPermits;
+            this.timeoutOpensCircuit = timeoutOpensCircuit;
+        }
+
+        void success() {
+            if (settled.compareAndSet(false, true)) {
+                breaker.onSuccess(generation);
+            }
+        }
+
+        void failure(Throwable error) {
+            if (!settled.compareAndSet(false, true)) {
+                return;
+            }
+            if (error instanceof TimeoutException) {
+                meterRegistry.counter("openai.guard.timeouts").increment();
+                if (!timeoutOpensCircuit) {
+                    breaker.onCancel(generation);
+                    return;
+                }
+            }
+            if (countsAsFailure(error)) {
+                breaker.onFailure(generation);
+            } else {
+                breaker.onSuccess(generation);
+            }
+        }
+
+        void release(SignalType signal) {
+            if (settled.compareAndSet(false, true)) {
+                breaker.onCancel(generation);
+            }
+            if (botPermits != null) {
+                botPermits.release();
+            }
+            global.release();
+        }
+    }
+}
@@ -1,45 +1,57 @@
 package com.chatalyst.backend.security.services;
 
-import com.chatalyst.backend.Repository.OpenAITokenUsageRepository;
+import com.chatalyst.backend.dto.ChatCompletionResponse;
+import com.chatalyst.backend.model.Bot;
 import com.chatalyst.backend.model.OpenAITokenUsage;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 @Slf4j
 public class OpenAIService {
 
-    private static final double USD_PER_1K_PROMPT_TOKENS = 0.0015;
-    private static final double USD_PER_1K_COMPLETION_TOKENS = 0.002;
-    private static final double KZT_EXCHANGE_RATE = 540.0;
-
-    @Value("${openai.api.key}")
-    private String openaiApiKey;
+    // Ответ при ошибке OpenAI (не кэшируется, см. ResponseCacheService)
+    static final String ERROR_RESPONSE =
+            "Извините, произошла ошибка при обработке вашего запроса. Попробуйте позже или используйте кнопки меню! 😊";
 
-    @Value("${openai.model}")
-    private String openaiModel;
+    private static final double KZT_EXCHANGE_RATE = 540.0;
 
-    @Qualifier("openAiWebClient")
-    private final WebClient openAiWebClient;
     private final ObjectMapper objectMapper;
-    private final OpenAITokenUsageRepository tokenUsageRepository;
+    private final TokenUsageWriter tokenUsageWriter;
+    private final CatalogContextService catalogContextService;
+    private final ChatCompletionRouter router;
+    private final OpenAIGuard guard;
+    private final LlmModelPolicy modelPolicy;
+    private final String importModel;
+    private final Duration importTimeout;
 
-    public OpenAIService(WebClient openAiWebClient, ObjectMapper objectMapper, 
-                        OpenAITokenUsageRepository tokenUsageRepository) {
-        this.openAiWebClient = openAiWebClient;
+    public OpenAIService(ObjectMapper objectMapper,
+                        TokenUsageWriter tokenUsageWriter,
+                        CatalogContextService catalogContextService,
+                        ChatCompletionRouter router,
+                        OpenAIGuard guard,
+                        LlmModelPolicy modelPolicy,
+                        @Value("${openai.import.model:openai:${openai.model}}") String importModel,
+                        @Value("${openai.import.timeout-seconds:60}") long importTimeoutSeconds) {
         this.objectMapper = objectMapper;
-        this.tokenUsageRepository = tokenUsageRepository;
+        this.tokenUsageWriter = tokenUsageWriter;
+        this.catalogContextService = catalogContextService;
+        this.router = router;
+        this.guard = guard;
+        this.modelPolicy = modelPolicy;
+        this.importModel = importModel;
+        this.importTimeout = Duration.ofSeconds(importTimeoutSeconds);
     }
 
     /**
@@ -55,192 +67,235 @@ public class OpenAIService {
         systemMessage.put("content", buildAggressiveSalesPrompt(shopName, productCatalogInfo));
         messages.add(systemMessage);
 
-        // Добавляем историю сообщений
+        addHistory(messages, chatHistory);
+
+        return callOpenAI(messages, null, botIdentifier, chatId);
+    }
+
+    /**
+     * То же, что и вариант с текстом каталога, но системный промпт собирается из снимка:
+     * для небольших магазинов — готовый промпт с полным каталогом из кэша по версии снимка,
+     * для больших — только товары, релевантные разговору (см. CatalogContextService).
+     * Промпт уже экранирован и вставляется в тело запроса как готовый JSON.
+     * Модель (и бэкенд) берётся из настроек бота, см. ChatCompletionRouter.
+     */
+    public String getBotResponseWithImageSupport(List<String[]> chatHistory, CatalogSnapshot catalog,
+                                                  Bot bot, Long chatId) {
+        return getBotResponseWithImageSupportAsync(chatHistory, catalog, bot, chatId).block();
+    }
+
+    /**
+     * Неблокирующий вариант: поток не занят, пока OpenAI генерирует ответ.
+     * Ошибки не пробрасываются — Mono завершается стандартным текстом извинения, как и блокирующий вариант.
+     */
+    public Mono<String> getBotResponseWithImageSupportAsync(List<String[]> chatHistory, CatalogSnapshot catalog,
+                                                            Bot bot, Long chatId) {
+        return callOpenAIAsync(buildSalesMessages(chatHistory, catalog, bot.getShopName()),
+                bot.getLlmModel(), bot.getBotIdentifier(), chatId);
+    }
+
+    /**
+     * Потоковый вариант: куски ответа приходят по мере генерации (SSE, stream: true).
+     * Если OpenAI недоступен до первого куска, поток состоит из одного стандартного текста извинения;
+     * при обрыве посреди ответа поток просто завершается уже полученным текстом.
+     * @param onCompleted Вызывается, только если ответ пришёл целиком (без обрыва и без текста извинения),
+     *                    — по нему вызывающий решает, можно ли кэшировать ответ.
+     */
+    public Flux<String> streamBotResponseWithImageSupport(List<String[]> chatHistory, CatalogSnapshot catalog,
+                                                          Bot bot, Long chatId, Runnable onCompleted) {
+        String botIdentifier = bot.getBotIdentifier();
+        log.info("⏳ Streaming OpenAI response for bot: {}", botIdentifier);
+        ChatCompletionRouter.Route route = router.route(bot.getLlmModel());
+        ObjectNode requestBody = buildRequestBody(
+                buildSalesMessages(chatHistory, catalog, bot.getShopName()), route.model(), 0.8, 500);
+        AtomicBoolean received = new AtomicBoolean();
+
+        return guard.protectStream(botIdentifier, () -> route.provider().stream(requestBody, usage -> {
+                    if (botIdentifier != null && chatId != null) {
+                        saveTokenUsage(usage, route, botIdentifier, chatId);
+                    }
+                }))
+                .doOnNext(chunk -> received.set(true))
+                .doOnComplete(onCompleted)
+                .onErrorResume(e -> {
+                    logFailure("OpenAI streaming error", e);
+                    return received.get() ? Flux.empty() : Flux.just(ERROR_RESPONSE);
+                });
+    }
+
+    private ArrayNode buildSalesMessages(List<String[]> chatHistory, CatalogSnapshot catalog, String shopName) {
+        ArrayNode messages = objectMapper.createArrayNode();
+
+        ObjectNode systemMessage = objectMapper.createObjectNode();
+        systemMessage.put("role", "system");
+        systemMessage.putRawValue("content", catalogContextService.systemPrompt(catalog, shopName, chatHistory));
+        messages.add(systemMessage);
+
+        addHistory(messages, chatHistory);
+        return messages;
+    }
+
+    private void addHistory(ArrayNode messages, List<String[]> chatHistory) {
         for (String[] msg : chatHistory) {
             ObjectNode messageNode = objectMapper.createObjectNode();
             messageNode.put("role", msg[0]);
             messageNode.put("content", msg[1]);
             messages.add(messageNode);
         }
-
-        return callOpenAI(messages, botIdentifier, chatId);
     }
 
     /**
      * Построение агрессивного промпта продавца
      */
     private String buildAggressiveSalesPrompt(String shopName, String productCatalogInfo) {
-        return String.format("""
-            🎯 ТЫ - ПРОФЕССИОНАЛЬНЫЙ ПРОДАВЕЦ МАГАЗИНА "%s"
-            
-            ═══════════════════════════════════════════════════════════════
-            🔥 ТВОЯ ГЛАВНАЯ МИССИЯ: ПРОДАТЬ! ПРОДАТЬ! ПРОДАТЬ!
-            ═══════════════════════════════════════════════════════════════
-            
-            📋 КАТАЛОГ ТОВАРОВ:
-            %s
-            
-            ═══════════════════════════════════════════════════════════════
-            💼 ПРАВИЛА УСПЕШНОГО ПРОДАВЦА:
-            ═══════════════════════════════════════════════════════════════
-            
-            1️⃣ ВСЕГДА БУДЬ АКТИВНЫМ
-               ❌ "У нас есть бананы"
-               ✅ "Супер! Наши бананы - это бомба! Свежайшие, сладкие, только сегодня привезли! Берём?"
-            
-            2️⃣ ЗАДАВАЙ УТОЧНЯЮЩИЕ ВОПРОСЫ
-               - "Для себя или в подарок?"
-               - "Сколько вам нужно?"
-               - "Может ещё что-то добавим?"
-            
-            3️⃣ СОЗДАВАЙ СРОЧНОСТЬ
-               - "Последние 3 штуки!"
-               - "Сегодня скидка!"
-               - "Пока не разобрали!"
-            
-            4️⃣ ПРЕДЛАГАЙ ДОПОЛНИТЕЛЬНЫЕ ТОВАРЫ (UPSELL & CROSS-SELL)
-               - Если купили фрукты → предложи йогурт
-               - Если купили мясо → предложи специи
-               - Если купили хлеб → предложи масло
-            
-            5️⃣ ИСПОЛЬЗУЙ ЭМОДЗИ 😊🔥💯✨
-               - Делай сообщения живыми и эмоциональными
-               - Создавай позитивное настроение
-            
-            6️⃣ ПОНИМАЙ НАМЁКИ И НЕТОЧНЫЕ ЗАПРОСЫ
-               - "Хочу что-то сладкое" → предложи десерты, фрукты, соки
-               - "На ужин" → предложи готовую еду, овощи, мясо
-               - "Полезное" → предложи здоровые продукты
-            
-            7️⃣ ВСЕГДА ЗАКАНЧИВАЙ ПРИЗЫВОМ К ДЕЙСТВИЮ
-               ❌ "Вот наши товары"
-               ✅ "Что из этого добавляем? Или посоветовать ещё что-то? 😊"
-            
-            ═══════════════════════════════════════════════════════════════
-            📝 ШАБЛОНЫ ОТВЕТОВ НА РАЗНЫЕ СИТУАЦИИ:
-            ═══════════════════════════════════════════════════════════════
-            
-            🎬 ПРИВЕТСТВИЕ:
-            "Привет! 👋 Рад тебя видеть! Ищешь что-то конкретное или подскажу что нового и вкусного? 😊"
-            
-            🎬 ОБЩИЙ ЗАПРОС ("что есть", "покажи товары"):
-            "Окей, смотри что у нас огонь! 🔥
-            
-            🍌 Бананы свежие - 500тг (сладкие, идеально для смузи или просто так)
-            🥕 Морковь молодая - 300тг (хрустящая, витаминная бомба!)
-            🥗 Салат цезарь - 1200тг (готовый, просто открой и наслаждайся)
-            
-            Что берём? Или расскажу подробнее про что-то конкретное? 😊"
-            
-            🎬 ИНТЕРЕС К ТОВАРУ:
-            "Отличный выбор! 👌 [Название товара] - это реально топ!
-            
-            Почему стоит взять:
-            ✨ [Преимущество 1]
-            ✨ [Преимущество 2]
-            ✨ [Преимущество 3]
-            
-            Цена: всего [цена]тг - выгодно! 💯
-            
-            Добавляю в корзину? Сколько штук нужно?"
-            
-            🎬 ПОСЛЕ ДОБАВЛЕНИЯ В КОРЗИНУ:
-            "Супер! ✅ [Товар] уже в корзине!
-            
-            Кстати, может ещё что-то добавим? 
-            У нас есть крутые [дополнительный товар 1] и [дополнительный товар 2] - отлично сочетаются! 😊"
-            
-            🎬 СОМНЕВАЕТСЯ:
-            "Понимаю! 😊 Давай так: я расскажу подробнее про [товар], и ты решишь.
-            
-            [Детальное описание с преимуществами]
-            
-            Многие берут и очень довольны! Хочешь попробовать?"
-            
-            🎬 НИЧЕГО НЕ НАШЛИ:
-            "Хмм, по твоему запросу прямо сейчас ничего нет 😔
-            
-            Но смотри, у нас есть похожее:
-            - [Альтернатива 1]
-            - [Альтернатива 2]
-            
-            Может что-то из этого подойдёт? Или подскажи подробнее что ищешь!"
-            
-            ═══════════════════════════════════════════════════════════════
-            ⚠️ КРИТИЧЕСКИ ВАЖНО:
-            ═══════════════════════════════════════════════════════════════
-            
-            ✅ УПОМИНАЙ ТОЧНЫЕ НАЗВАНИЯ товаров из каталога
-            ✅ Когда упоминаешь товар с [ФОТО] - система автоматически покажет его фото
-            ✅ Будь энергичным, позитивным, мотивированным
-            ✅ ВСЕГДА веди к продаже
-            ✅ Используй техники продаж: срочность, выгоду, социальное доказательство
-            
-            ❌ НЕ выдумывай товары - только из каталога
-            ❌ НЕ будь пассивным - будь активным!
-            ❌ НЕ говори "вот список товаров" - ПРЕДЛАГАЙ конкретное
-            ❌ НЕ пиши слишком длинно - будь лаконичен но ярок
-            
-            ═══════════════════════════════════════════════════════════════
-            💪 ТВОЙ СТИЛЬ: ЭНЕРГИЧНЫЙ, ДРУЖЕЛЮБНЫЙ, ПРОДАЮЩИЙ!
-            ═══════════════════════════════════════════════════════════════
-            
-            Помни: ты не просто консультант, ты - ПРОДАВЕЦ МЕЧТЫ! 🚀
-            Твоя задача - сделать так, чтобы клиент захотел купить ПРЯМО СЕЙЧАС!
-            
-            Поехали продавать! 💪🔥
-            """, shopName, productCatalogInfo);
+        return CatalogPromptCache.render(shopName, productCatalogInfo);
     }
 
     /**
      * Общий метод для вызова OpenAI API
      */
-    private String callOpenAI(ArrayNode messages, String botIdentifier, Long chatId) {
+    private String callOpenAI(ArrayNode messages, String model, String botIdentifier, Long chatId) {
+        return callOpenAIAsync(messages, model, botIdentifier, chatId).block();
+    }
+
+    private Mono<String> callOpenAIAsync(ArrayNode messages, String model, String botIdentifier, Long chatId) {
+        log.info("⏳ Sending OpenAI request with context for bot: {}", botIdentifier);
+
+        // Повышаем креативность для более живых ответов и ограничиваем длину ответов
+        return requestCompletion(messages, model, botIdentifier, chatId, 0.8, 500)
+                .doOnNext(assistantResponse -> log.info("✅ AI response: {}", assistantResponse))
+                .onErrorResume(e -> {
+                    logFailure("OpenAI error", e);
+                    return Mono.just(ERROR_RESPONSE);
+                });
+    }
+
+    private void logFailure(String message, Throwable e) {
+        if (e instanceof OpenAIGuard.RejectedException) {
+            // Отказ без обращения к OpenAI (предохранитель или лимит) — стек не нужен
+            log.warn("❌ {}: {}", message, e.getMessage());
+        } else {
+            log.error("❌ {}: {}", message, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Запрос к модели с учётом токенов; ошибки передаются в Mono.
+     * Бэкенд выбирается по модели (ChatCompletionRouter), ответ приходит сразу как ChatCompletionResponse.
+     * Учёт токенов только ставит запись в очередь TokenUsageWriter, поэтому выполняется прямо на потоке ответа.
+     * Запрос идёт через OpenAIGuard: лимиты одновременных запросов, тайм-аут и предохранитель.
+     * @param model Модель бота или null — модель по умолчанию.
+     */
+    private Mono<String> requestCompletion(ArrayNode messages, String model, String botIdentifier, Long chatId,
+                                           double temperature, int maxTokens) {
+        ChatCompletionRouter.Route route = router.route(model);
+        ObjectNode requestBody = buildRequestBody(messages, route.model(), temperature, maxTokens);
+        return withUsage(guard.protect(botIdentifier, () -> route.provider().complete(requestBody)),
+                route, botIdentifier, chatId);
+    }
+
+    /**
+     * Текст ответа; расход токенов ставится в очередь учёта, если известны бот и чат.
+     */
+    private Mono<String> withUsage(Mono<ChatCompletionResponse> completion, ChatCompletionRouter.Route route,
+                                   String botIdentifier, Long chatId) {
+        return completion
+                .map(response -> {
+                    String assistantResponse = response.content();
+                    if (response.usage() != null && botIdentifier != null && chatId != null) {
+                        saveTokenUsage(response.usage(), route, botIdentifier, chatId);
+                    }
+                    return assistantResponse;
+                });
+    }
+
+    private ObjectNode buildRequestBody(ArrayNode messages, String model, double temperature, int maxTokens) {
         ObjectNode requestBody = objectMapper.createObjectNode();
-        requestBody.put("model", openaiModel);
+        requestBody.put("model", model);
         requestBody.set("messages", messages);
-        requestBody.put("temperature", 0.8); // Повышаем креативность для более живых ответов
-        requestBody.put("max_tokens", 500); // Ограничиваем длину ответов
+        requestBody.put("temperature", temperature);
+        requestBody.put("max_tokens", maxTokens);
+        return requestBody;
+    }
 
-        log.info("⏳ Sending OpenAI request with context for bot: {}", botIdentifier);
+    /**
+     * Сжимает старую часть диалога в краткое содержание (для фоновой компакции истории).
+     * @param previousSummary Предыдущее содержание или null.
+     * @param turns Реплики {role, content} в хронологическом порядке.
+     * @return Новое содержание, включающее предыдущее.
+     * @throws RuntimeException если OpenAI недоступен или вернул ошибку.
+     */
+    public String summarizeConversation(String previousSummary, List<String[]> turns, String botIdentifier, Long chatId) {
+        StringBuilder dialogue = new StringBuilder();
+        if (previousSummary != null && !previousSummary.isBlank()) {
+            dialogue.append("Предыдущее содержание:\n").append(previousSummary).append("\n\nНовые реплики:\n");
+        }
+        for (String[] turn : turns) {
+            dialogue.append("assistant".equals(turn[0]) ? "Продавец: " : "Клиент: ").append(turn[1]).append('\n');
+        }
 
-        try {
-            String responseString = openAiWebClient.post()
-                    .uri("/chat/completions")
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + openaiApiKey)
-                    .bodyValue(requestBody.toString())
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-
-            JsonNode rootNode = objectMapper.readTree(responseString);
-            String assistantResponse = rootNode.path("choices").get(0).path("message").path("content").asText();
-
-            // Извлекаем информацию об использовании токенов и сохраняем её
-            JsonNode usageNode = rootNode.path("usage");
-            if (usageNode.isObject() && botIdentifier != null && chatId != null) {
-                saveTokenUsage(usageNode, botIdentifier, chatId);
-            }
-
-            log.info("✅ AI response: {}", assistantResponse);
-            return assistantResponse;
+        ArrayNode messages = objectMapper.createArrayNode();
+        ObjectNode systemMessage = objectMapper.createObjectNode();
+        systemMessage.put("role", "system");
+        systemMessage.put("content", """
+                Сожми диалог клиента с продавцом интернет-магазина в краткое содержание (до 120 слов).
+                Сохрани: что клиент ищет и для чего, упомянутые товары, количества и цены, что уже в корзине,
+                адрес, телефон и другие данные для заказа, договорённости и возражения клиента.
+                Пиши по-русски, третьим лицом, без приветствий и оценок.
+                """);
+        messages.add(systemMessage);
 
+        ObjectNode userMessage = objectMapper.createObjectNode();
+        userMessage.put("role", "user");
+        userMessage.put("content", dialogue.toString());
+        messages.add(userMessage);
+
+        try {
+            return requestCompletion(messages, null, botIdentifier, chatId, 0.2, 300).block().trim();
         } catch (Exception e) {
-            log.error("❌ OpenAI error: {}", e.getMessage(), e);
-            return "Извините, произошла ошибка при обработке вашего запроса. Попробуйте позже или используйте кнопки меню! 😊";
+            throw new RuntimeException("Не удалось получить содержание диалога: " + e.getMessage(), e);
         }
     }
 
     /**
-     * Сохранение статистики использования токенов
+     * Разбор строк Excel при импорте каталога. Модель фиксирована (openai.import.model), а не берётся у бота:
+     * бот может отвечать заглушкой, а импорту нужен настоящий ответ.
+     * Запрос идёт через OpenAIGuard со своим тайм-аутом openai.import.timeout-seconds вместо общего;
+     * тайм-аут импорта предохранителю не засчитывается (ответы ботов из-за долгого импорта не отключаются),
+     * а 429 и 5xx — засчитываются, как у любого запроса.
+     * @throws RuntimeException если модель недоступна или не ответила вовремя.
      */
-    private void saveTokenUsage(JsonNode usageNode, String botIdentifier, Long chatId) {
-        int promptTokens = usageNode.path("prompt_tokens").asInt();
-        int completionTokens = usageNode.path("completion_tokens").asInt();
-        int totalTokens = usageNode.path("total_tokens").asInt();
+    public String completeCatalogImport(String prompt, String botIdentifier) {
+        ArrayNode messages = objectMapper.createArrayNode();
+        ObjectNode userMessage = objectMapper.createObjectNode();
+        userMessage.put("role", "user");
+        userMessage.put("content", prompt);
+        messages.add(userMessage);
+
+        ChatCompletionRouter.Route route = router.route(importModel);
+        ObjectNode requestBody = buildRequestBody(messages, route.model(), 0.1, 4000);
+        String response = withUsage(guard.protect(botIdentifier, importTimeout, false,
+                () -> route.provider().complete(requestBody)), route, botIdentifier, null).block();
+        if (response == null) {
+            throw new RuntimeException("Пустой ответ модели при импорте каталога");
+        }
+        return response;
+    }
+
+    /**
+     * Сохранение статистики использования токенов.
+     * Не блокирует: запись уходит в TokenUsageWriter и попадает в БД со следующим пакетом.
+     */
+    private void saveTokenUsage(ChatCompletionResponse.Usage usage, ChatCompletionRouter.Route route,
+                                String botIdentifier, Long chatId) {
+        if (!route.provider().billable()) {
+            return; // Заглушка ничего не стоит — в расход бота не попадает
+        }
+        int promptTokens = usage.promptTokens();
+        int completionTokens = usage.completionTokens();
+        int totalTokens = usage.totalTokens();
 
-        double usdCost = (promptTokens / 1000.0) * USD_PER_1K_PROMPT_TOKENS +
-                (completionTokens / 1000.0) * USD_PER_1K_COMPLETION_TOKENS;
+        double usdCost = modelPolicy.price(route.model()).usdCost(promptTokens, completionTokens);
         double kztCost = usdCost * KZT_EXCHANGE_RATE;
 
         OpenAITokenUsage tokenUsage = OpenAITokenUsage.builder()
@@ -254,8 +309,8 @@ public class OpenAIService {
                 .timestamp(LocalDateTime.now())
                 .build();
 
-        tokenUsageRepository.save(tokenUsage);
-        log.info("📊 Saved token usage for bot {}: prompt={} completion={} cost=${:.6f} (₸{:.2f})",
+        tokenUsageWriter.submit(tokenUsage);
+        log.info("📊 Queued token usage for bot {}: prompt={} completion={} cost=${:.6f} (₸{:.2f})",
                 botIdentifier, promptTokens, completionTokens, usdCost, kztCost);
     }
 
@@ -276,7 +331,7 @@ public class OpenAIService {
             userMsg.put("content", userMessage);
             messages.add(userMsg);
 
-            return callOpenAI(messages, null, null);
+            return callOpenAI(messages, null, null, null);
 
         } catch (Exception e) {
             log.error("Error calling OpenAI API (simple): {}", e.getMessage(), e);
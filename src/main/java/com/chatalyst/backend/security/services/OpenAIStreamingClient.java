@@ -0,0 +1,75 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.dto.ChatCompletionChunk;
+import com.chatalyst.backend.dto.ChatCompletionResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+
+import java.util.function.Consumer;
+
+/**
+ * Потоковый вызов /chat/completions: ответ приходит как Server-Sent Events,
+ * каждый event — JSON-фрагмент с очередным куском текста, поток завершается "data: [DONE]".
+ */
+@Component
+public class OpenAIStreamingClient {
+
+    private static final String DONE = "[DONE]";
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE =
+            new ParameterizedTypeReference<>() {
+            };
+
+    private final WebClient openAiWebClient;
+    private final ObjectMapper objectMapper;
+
+    public OpenAIStreamingClient(@Qualifier("openAiWebClient") WebClient openAiWebClient, ObjectMapper objectMapper) {
+        this.openAiWebClient = openAiWebClient;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @param requestBody Тело запроса (model, messages, ...); флаги потоковой передачи добавляются здесь.
+     * @param apiKey Ключ OpenAI.
+     * @param onUsage Вызывается с итоговым расходом токенов (из последнего фрагмента), на потоке event loop.
+     * @return Куски текста ответа по мере генерации; ошибки HTTP и разбора передаются в Flux.
+     */
+    public Flux<String> stream(ObjectNode requestBody, String apiKey, Consumer<ChatCompletionResponse.Usage> onUsage) {
+        requestBody.put("stream", true);
+        requestBody.putObject("stream_options").put("include_usage", true);
+
+        return openAiWebClient.post()
+                .uri("/chat/completions")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .bodyValue(requestBody)
+                .retrieve()
+                .bodyToFlux(SSE_TYPE)
+                .mapNotNull(ServerSentEvent::data)
+                .takeWhile(data -> !DONE.equals(data.trim()))
+                .handle((data, sink) -> {
+                    ChatCompletionChunk chunk;
+                    try {
+                        chunk = objectMapper.readValue(data, ChatCompletionChunk.class);
+                    } catch (JsonProcessingException e) {
+                        sink.error(e);
+                        return;
+                    }
+                    if (chunk.usage() != null) {
+                        onUsage.accept(chunk.usage());
+                    }
+                    String content = chunk.content();
+                    if (content != null && !content.isEmpty()) {
+                        sink.next(content);
+                    }
+                });
+    }
+}
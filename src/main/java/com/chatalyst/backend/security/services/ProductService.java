@@ -10,6 +10,7 @@ import com.chatalyst.backend.model.Bot;
 import com.chatalyst.backend.model.Product;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -25,6 +26,8 @@ public class ProductService {
     private final ProductRepository productRepository;
     private final BotRepository botRepository;
     private final PsObjectStorageService psObjectStorageService; // Изменено: используем PsObjectStorageService
+    private final TelegramPhotoCache telegramPhotoCache;
+    private final ApplicationEventPublisher eventPublisher;
 
     /**
      * Создает новый товар и привязывает его к указанному боту.
@@ -53,6 +56,7 @@ public class ProductService {
         product.setBot(bot);
 
         Product savedProduct = productRepository.save(product);
+        catalogChanged(bot.getId());
         log.info("Товар создан: {} для бота {}", savedProduct.getName(), bot.getBotIdentifier());
         
         return convertToResponse(savedProduct);
@@ -92,7 +96,13 @@ public class ProductService {
         
         product.setInStock(request.isInStock());
 
+        // Изображение заменено — сохранённые в Telegram file_id старой картинки больше не нужны
+        if (oldImageUrl != null && !oldImageUrl.equals(product.getImageUrl())) {
+            telegramPhotoCache.evictImage(oldImageUrl);
+        }
+
         Product updatedProduct = productRepository.save(product);
+        catalogChanged(product.getBot().getId());
         log.info("Товар обновлен: {} для бота {}", updatedProduct.getName(), product.getBot().getBotIdentifier());
         
         return convertToResponse(updatedProduct);
@@ -116,6 +126,7 @@ public class ProductService {
         // Удаляем изображение из PS.kz Object Storage, если оно есть
         String imageUrl = product.getImageUrl();
         if (imageUrl != null && !imageUrl.isEmpty()) {
+            telegramPhotoCache.evictImage(imageUrl);
             boolean deleted = psObjectStorageService.deleteImage(imageUrl); // Изменено: используем PsObjectStorageService
             if (deleted) {
                 log.info("Изображение товара удалено из PS.kz Object Storage: {}", imageUrl);
@@ -125,6 +136,7 @@ public class ProductService {
         }
 
         productRepository.delete(product);
+        catalogChanged(product.getBot().getId());
         log.info("Товар удален: {} (ID: {})", product.getName(), productId);
     }
 
@@ -154,6 +166,7 @@ public class ProductService {
         productsToDelete.forEach(product -> {
             String imageUrl = product.getImageUrl();
             if (imageUrl != null && !imageUrl.isEmpty()) {
+                telegramPhotoCache.evictImage(imageUrl);
                 psObjectStorageService.deleteImage(imageUrl);
                 log.info("Изображение товара удалено из хранилища: {}", imageUrl);
             }
@@ -161,6 +174,7 @@ public class ProductService {
 
         // Затем удаляем сами товары
         productRepository.deleteAll(productsToDelete);
+        catalogChanged(botId);
         log.info("Удалено {} товаров из каталога '{}' для бота ID {}", productsToDelete.size(), catalog, botId);
 
         return productsToDelete.size();
@@ -189,6 +203,7 @@ public class ProductService {
         productsToDelete.forEach(product -> {
             String imageUrl = product.getImageUrl();
             if (imageUrl != null && !imageUrl.isEmpty()) {
+                telegramPhotoCache.evictImage(imageUrl);
                 psObjectStorageService.deleteImage(imageUrl);
                 log.info("Изображение товара удалено из хранилища: {}", imageUrl);
             }
@@ -196,6 +211,7 @@ public class ProductService {
         
         // Затем удаляем сами товары
         productRepository.deleteAll(productsToDelete);
+        catalogChanged(botId);
         log.info("Удалено {} товаров из подкатегории '{}' в каталоге '{}' для бота ID {}", 
                 productsToDelete.size(), subcategory, catalog, botId);
 
@@ -292,6 +308,15 @@ public class ProductService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Поднимает версию каталога бота (по ней снимки сверяют экземпляры приложения)
+     * и сбрасывает снимок этого экземпляра после коммита.
+     */
+    private void catalogChanged(Long botId) {
+        botRepository.incrementCatalogVersion(botId);
+        eventPublisher.publishEvent(new CatalogChangedEvent(botId));
+    }
+
     /**
      * Вспомогательный метод для преобразования сущности Product в DTO ProductResponse.
      * @param product Сущность Product.
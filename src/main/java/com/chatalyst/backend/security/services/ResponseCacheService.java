@@ -0,0 +1,153 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.model.Bot;
+import com.chatalyst.backend.util.TextAnalyzer;
+import com.chatalyst.backend.util.TokenEstimator;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Кэш готовых ответов ИИ на повторяющиеся вопросы ("доставка есть?", "что есть?").
+ * Ключ — бот, название магазина, модель, версия снимка каталога, нормализованный текст вопроса и отпечаток
+ * нескольких предыдущих реплик, поэтому ответ переиспользуется только в том же контексте:
+ * чаще всего это первые сообщения разных клиентов. Изменение каталога меняет версию снимка,
+ * и старые ответы больше не находятся (и вытесняются по TTL).
+ * Владелец магазина может отключить кэш для бота (Bot.responseCacheEnabled).
+ */
+@Service
+@Slf4j
+public class ResponseCacheService {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Cache<Key, CachedResponse> responses;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int historyMessages;
+    private final int maxQuestionLength;
+
+    @Autowired
+    public ResponseCacheService(MeterRegistry meterRegistry,
+                                @Value("${openai.response-cache.enabled:true}") boolean enabled,
+                                @Value("${openai.response-cache.max-size:10000}") long maxSize,
+                                @Value("${openai.response-cache.ttl-minutes:60}") long ttlMinutes,
+                                @Value("${openai.response-cache.history-messages:2}") int historyMessages,
+                                @Value("${openai.response-cache.max-question-length:200}") int maxQuestionLength) {
+        this(meterRegistry, enabled, maxSize, ttlMinutes, historyMessages, maxQuestionLength,
+                Ticker.systemTicker(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Для тестов: часы для TTL и исполнитель обслуживания кэша (вытеснение) задаются явно.
+     */
+    ResponseCacheService(MeterRegistry meterRegistry, boolean enabled, long maxSize, long ttlMinutes,
+                         int historyMessages, int maxQuestionLength, Ticker ticker, Executor maintenance) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.historyMessages = historyMessages;
+        this.maxQuestionLength = maxQuestionLength;
+        // Caffeine вытесняет по W-TinyLFU: частые вопросы остаются, разовые уходят первыми
+        this.responses = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .ticker(ticker)
+                .executor(maintenance)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, responses, "openai.response");
+    }
+
+    /**
+     * @param chatHistory История для запроса; последний элемент — текущее сообщение пользователя.
+     * @return Сохранённый ответ или null, если его нет или кэш для бота выключен.
+     */
+    public String get(Bot bot, CatalogSnapshot catalog, List<String[]> chatHistory) {
+        Key key = key(bot, catalog, chatHistory);
+        if (key == null) {
+            return null;
+        }
+        CachedResponse cached = responses.getIfPresent(key);
+        String botIdentifier = bot.getBotIdentifier();
+        if (cached == null) {
+            meterRegistry.counter("openai.response_cache", "bot", botIdentifier, "result", "miss").increment();
+            return null;
+        }
+        meterRegistry.counter("openai.response_cache", "bot", botIdentifier, "result", "hit").increment();
+        meterRegistry.counter("openai.response_cache.saved_tokens", "bot", botIdentifier).increment(cached.tokens());
+        log.debug("Response cache hit for bot {}: \"{}\"", botIdentifier, key.question());
+        return cached.response();
+    }
+
+    /**
+     * Запоминает ответ. Текст ошибки OpenAI не кэшируется.
+     */
+    public void put(Bot bot, CatalogSnapshot catalog, List<String[]> chatHistory, String response) {
+        if (response == null || response.isBlank() || OpenAIService.ERROR_RESPONSE.equals(response)) {
+            return;
+        }
+        Key key = key(bot, catalog, chatHistory);
+        if (key != null) {
+            responses.put(key, new CachedResponse(response, estimateTokens(chatHistory, response)));
+        }
+    }
+
+    private Key key(Bot bot, CatalogSnapshot catalog, List<String[]> chatHistory) {
+        if (!enabled || !bot.isResponseCacheEnabled() || chatHistory.isEmpty()) {
+            return null;
+        }
+        int last = chatHistory.size() - 1;
+        String question = TextAnalyzer.normalize(chatHistory.get(last)[1]);
+        if (question.isEmpty() || question.length() > maxQuestionLength) {
+            return null; // Длинные сообщения почти не повторяются — не занимаем ими кэш
+        }
+        return new Key(bot.getId(), bot.getShopName(), bot.getLlmModel(), catalog.version(), question,
+                historyFingerprint(chatHistory.subList(Math.max(0, last - historyMessages), last)));
+    }
+
+    /**
+     * 64-битный FNV-1a по ролям и нормализованному тексту предыдущих реплик.
+     */
+    private static long historyFingerprint(List<String[]> previous) {
+        long hash = FNV_OFFSET;
+        for (String[] message : previous) {
+            for (byte b : (message[0] + '\u0000' + TextAnalyzer.normalize(message[1]) + '\u0001')
+                    .getBytes(StandardCharsets.UTF_8)) {
+                hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Оценка токенов, которые не пришлось оплачивать при попадании: история и ответ
+     * (системный промпт с каталогом не учитывается, поэтому это нижняя граница).
+     */
+    private static int estimateTokens(List<String[]> chatHistory, String response) {
+        int tokens = TokenEstimator.estimateMessage(response);
+        for (String[] message : chatHistory) {
+            tokens += TokenEstimator.estimateMessage(message[1]);
+        }
+        return tokens;
+    }
+
+    private record Key(Long botId, String shopName, String model, long catalogVersion, String question,
+                       long historyFingerprint) {
+    }
+
+    private record CachedResponse(String response, int tokens) {
+    }
+}
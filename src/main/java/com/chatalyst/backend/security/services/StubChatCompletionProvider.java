@@ -0,0 +1,110 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.dto.ChatCompletionResponse;
+import com.chatalyst.backend.util.TokenEstimator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Локальная заглушка модели для нагрузочного тестирования без OpenAI.
+ * Ответ детерминирован: зависит только от последнего сообщения пользователя.
+ * Задержка и отчитываемые токены настраиваются (llm.stub.*).
+ */
+@Component
+public class StubChatCompletionProvider implements ChatCompletionProvider {
+
+    public static final String NAME = "stub";
+
+    private static final String[] FILLER = {
+            "отличный", "выбор", "товар", "в", "наличии", "доставка", "сегодня", "цена", "качество",
+            "рекомендую", "добавить", "в", "корзину", "скидка", "свежий", "популярный"
+    };
+
+    private final Duration latency;
+    private final int promptTokens;
+    private final int completionTokens;
+
+    public StubChatCompletionProvider(@Value("${llm.stub.latency-ms:300}") long latencyMs,
+                                      @Value("${llm.stub.prompt-tokens:0}") int promptTokens,
+                                      @Value("${llm.stub.completion-tokens:60}") int completionTokens) {
+        this.latency = Duration.ofMillis(latencyMs);
+        this.promptTokens = promptTokens;
+        this.completionTokens = completionTokens;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean billable() {
+        return false;
+    }
+
+    @Override
+    public Mono<ChatCompletionResponse> complete(ObjectNode requestBody) {
+        String content = reply(requestBody);
+        ChatCompletionResponse response = new ChatCompletionResponse(
+                List.of(new ChatCompletionResponse.Choice(new ChatCompletionResponse.Message("assistant", content))),
+                usage(requestBody));
+        return Mono.delay(latency).thenReturn(response);
+    }
+
+    @Override
+    public Flux<String> stream(ObjectNode requestBody, Consumer<ChatCompletionResponse.Usage> onUsage) {
+        String content = reply(requestBody);
+        List<String> chunks = new ArrayList<>();
+        for (String word : content.split(" ")) {
+            chunks.add(chunks.isEmpty() ? word : " " + word);
+        }
+        // Общая задержка распределяется по фрагментам, как при генерации
+        Duration step = latency.dividedBy(Math.max(1, chunks.size()));
+        return Flux.fromIterable(chunks)
+                .delayElements(step)
+                .doOnComplete(() -> onUsage.accept(usage(requestBody)));
+    }
+
+    private String reply(ObjectNode requestBody) {
+        String question = lastUserMessage(requestBody);
+        Random random = new Random(question.hashCode());
+        StringBuilder reply = new StringBuilder("Тестовый ответ (")
+                .append(requestBody.path("model").asText()).append(") на «")
+                .append(question.length() > 100 ? question.substring(0, 100) + "…" : question).append("».");
+        // Примерно completionTokens токенов текста
+        while (TokenEstimator.estimate(reply.toString()) < completionTokens) {
+            reply.append(' ').append(FILLER[random.nextInt(FILLER.length)]);
+        }
+        return reply.toString();
+    }
+
+    private ChatCompletionResponse.Usage usage(ObjectNode requestBody) {
+        int prompt = promptTokens;
+        if (prompt <= 0) {
+            for (JsonNode message : requestBody.path("messages")) {
+                prompt += TokenEstimator.estimateMessage(message.path("content").asText());
+            }
+        }
+        return new ChatCompletionResponse.Usage(prompt, completionTokens, prompt + completionTokens);
+    }
+
+    private static String lastUserMessage(ObjectNode requestBody) {
+        String last = "";
+        for (JsonNode message : requestBody.path("messages")) {
+            if ("user".equals(message.path("role").asText())) {
+                last = message.path("content").asText();
+            }
+        }
+        return last;
+    }
+}
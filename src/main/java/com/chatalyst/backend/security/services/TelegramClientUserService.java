@@ -0,0 +1,98 @@
+package com.chatalyst.backend.security.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Пользователь-покупатель для чата Telegram (корзина и заказы привязаны к users.id).
+ * Соответствие chatId → userId хранится в users.telegram_chat_id с уникальным ограничением
+ * и кэшируется в памяти, поэтому повторные обращения не ходят в БД.
+ * Новый пользователь создаётся через INSERT ... ON CONFLICT DO NOTHING: одновременные первые сообщения
+ * одного чата не создают дубликатов (в пределах процесса загрузку одного ключа выполняет один поток).
+ */
+@Service
+@Slf4j
+public class TelegramClientUserService {
+
+    private static final String FIND_SQL = "SELECT id FROM users WHERE telegram_chat_id = ?";
+
+    private static final String INSERT_SQL = """
+            INSERT INTO users (email, first_name, last_name, enabled, active, created_at, updated_at, telegram_chat_id)
+            VALUES (?, 'Telegram User', ?, true, true, ?, ?, ?)
+            ON CONFLICT DO NOTHING
+            RETURNING id
+            """;
+
+    // Пользователь, созданный до появления telegram_chat_id и не попавший в миграцию
+    private static final String ADOPT_SQL = """
+            UPDATE users SET telegram_chat_id = ?
+            WHERE email = ? AND telegram_chat_id IS NULL
+            RETURNING id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Cache<Long, Long> userIds;
+
+    public TelegramClientUserService(JdbcTemplate jdbcTemplate,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${telegram.client-users.cache-size:100000}") long cacheSize,
+                                     @Value("${telegram.client-users.idle-hours:24}") long idleHours) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.userIds = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterAccess(Duration.ofHours(idleHours))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, userIds, "telegram.client_users");
+    }
+
+    /**
+     * @return ID пользователя для чата; создаёт пользователя при первом обращении.
+     */
+    public long resolveUserId(long telegramChatId) {
+        return userIds.get(telegramChatId, this::findOrCreate);
+    }
+
+    private Long findOrCreate(Long telegramChatId) {
+        Long existing = find(telegramChatId);
+        if (existing != null) {
+            return existing;
+        }
+
+        String email = "telegram_" + telegramChatId + "@bot.local";
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Long> inserted = jdbcTemplate.queryForList(INSERT_SQL, Long.class,
+                email, String.valueOf(telegramChatId), now, now, telegramChatId);
+        if (!inserted.isEmpty()) {
+            log.info("Создан новый пользователь для Telegram Chat ID: {}", telegramChatId);
+            return inserted.get(0);
+        }
+
+        // Конфликт: пользователя создал другой экземпляр/поток или он есть только по email
+        existing = find(telegramChatId);
+        if (existing != null) {
+            return existing;
+        }
+        List<Long> adopted = jdbcTemplate.queryForList(ADOPT_SQL, Long.class, telegramChatId, email);
+        if (!adopted.isEmpty()) {
+            return adopted.get(0);
+        }
+        throw new RuntimeException("Не удалось создать пользователя для Telegram Chat ID: " + telegramChatId);
+    }
+
+    private Long find(long telegramChatId) {
+        List<Long> ids = jdbcTemplate.queryForList(FIND_SQL, Long.class, telegramChatId);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+}
@@ -0,0 +1,343 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.util.TokenBucket;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Очередь исходящих запросов к Bot API с ограничением скорости.
+ * Для каждого токена бота и для каждого чата держится своя корзина токенов
+ * (по умолчанию ~30 сообщений/с на бота и ~1 сообщение/с на чат).
+ * Сообщения одного чата отправляются строго по порядку; на 429 выдерживается retry_after
+ * (пауза и для чата, и для всего бота), на сетевые ошибки и 5xx — повтор с экспоненциальной
+ * задержкой и джиттером. Все повторы, включая 429, ограничены max-attempts: после этого сообщение
+ * отбрасывается, и очередь чата идёт дальше. При остановке ожидающие сообщения завершаются с ошибкой.
+ */
+@Service
+@Slf4j
+public class TelegramOutboundDispatcher {
+
+    private static final long IDLE_LANE_TTL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final WebClient telegramWebClient;
+    private final ObjectMapper objectMapper;
+
+    private final double botRatePerSecond;
+    private final double chatRatePerSecond;
+    private final double chatBurst;
+    private final int maxQueuePerChat;
+    private final int maxAttempts;
+    private final long retryBaseDelayMs;
+
+    private final ConcurrentHashMap<String, TokenBucket> botBuckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ChatLane> lanes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger queued = new AtomicInteger();
+    private volatile boolean stopped;
+
+    private final Counter sentCounter;
+    private final Counter retriedCounter;
+    private final Counter rateLimitedCounter;
+    private final Counter droppedOverflowCounter;
+    private final Counter droppedErrorCounter;
+
+    public TelegramOutboundDispatcher(WebClient telegramWebClient,
+                                      ObjectMapper objectMapper,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${telegram.outbound.bot-rate-per-second:30}") double botRatePerSecond,
+                                      @Value("${telegram.outbound.chat-rate-per-second:1}") double chatRatePerSecond,
+                                      @Value("${telegram.outbound.chat-burst:3}") double chatBurst,
+                                      @Value("${telegram.outbound.max-queue-per-chat:100}") int maxQueuePerChat,
+                                      @Value("${telegram.outbound.max-attempts:4}") int maxAttempts,
+                                      @Value("${telegram.outbound.retry-base-delay-ms:500}") long retryBaseDelayMs) {
+        this.telegramWebClient = telegramWebClient;
+        this.objectMapper = objectMapper;
+        this.botRatePerSecond = botRatePerSecond;
+        this.chatRatePerSecond = chatRatePerSecond;
+        this.chatBurst = chatBurst;
+        this.maxQueuePerChat = maxQueuePerChat;
+        this.maxAttempts = maxAttempts;
+        this.retryBaseDelayMs = retryBaseDelayMs;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tg-outbound-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::evictIdleLanes, 1, 1, TimeUnit.MINUTES);
+
+        Gauge.builder("telegram.outbound.queue.depth", queued, AtomicInteger::get)
+                .description("Исходящие сообщения, ожидающие отправки")
+                .register(meterRegistry);
+        Gauge.builder("telegram.outbound.active_chats", lanes, ConcurrentHashMap::size)
+                .register(meterRegistry);
+        this.sentCounter = meterRegistry.counter("telegram.outbound", "result", "sent");
+        this.retriedCounter = meterRegistry.counter("telegram.outbound", "result", "retried");
+        this.rateLimitedCounter = meterRegistry.counter("telegram.outbound", "result", "rate_limited");
+        this.droppedOverflowCounter = meterRegistry.counter("telegram.outbound.dropped", "reason", "overflow");
+        this.droppedErrorCounter = meterRegistry.counter("telegram.outbound.dropped", "reason", "error");
+    }
+
+    /**
+     * Ставит вызов метода Bot API в очередь чата.
+     * @param botToken Токен бота.
+     * @param chatId ID чата (ключ упорядочивания и лимита).
+     * @param method Метод Bot API, например "sendMessage".
+     * @param body Тело запроса.
+     * @return Future с ответом Telegram; завершается с ошибкой, если сообщение отброшено.
+     */
+    public CompletableFuture<JsonNode> send(String botToken, long chatId, String method, ObjectNode body) {
+        return send(botToken, chatId, method, body, null);
+    }
+
+    /**
+     * То же, но если Telegram ответил 400 Bad Request, сразу отправляется запасной вариант —
+     * в том же месте очереди чата, поэтому следующие сообщения его не обгонят.
+     * @param fallbackBody Тело запасного запроса (например, фото по URL вместо file_id) или null.
+     * @return Future с ответом на основной или запасной запрос.
+     */
+    public CompletableFuture<JsonNode> send(String botToken, long chatId, String method, ObjectNode body, ObjectNode fallbackBody) {
+        OutboundRequest request = new OutboundRequest(botToken, method, body, fallbackBody);
+        String laneKey = botToken + ":" + chatId;
+
+        while (true) {
+            ChatLane lane = lanes.computeIfAbsent(laneKey, k -> new ChatLane(new TokenBucket(chatRatePerSecond, chatBurst)));
+            boolean start;
+            synchronized (lane) {
+                if (lane.removed) {
+                    continue; // Полосу только что убрала очистка — берём новую
+                }
+                if (stopped) {
+                    request.result.completeExceptionally(new RejectedExecutionException("Outbound dispatcher is stopped"));
+                    return request.result;
+                }
+                if (lane.queue.size() >= maxQueuePerChat) {
+                    droppedOverflowCounter.increment();
+                    log.warn("Telegram outbound queue for chat {} is full, dropping {}", chatId, method);
+                    request.result.completeExceptionally(new RejectedExecutionException("Outbound queue is full"));
+                    return request.result;
+                }
+                lane.queue.add(request);
+                queued.incrementAndGet();
+                start = !lane.active;
+                lane.active = true;
+            }
+            if (start) {
+                pump(lane);
+            }
+            return request.result;
+        }
+    }
+
+    private void pump(ChatLane lane) {
+        OutboundRequest next;
+        synchronized (lane) {
+            lane.inFlight = null;
+            if (stopped) {
+                failPending(lane);
+                return;
+            }
+            next = lane.queue.poll();
+            if (next == null) {
+                lane.active = false;
+                lane.lastUsedNanos = System.nanoTime();
+                return;
+            }
+            lane.inFlight = next;
+        }
+        queued.decrementAndGet();
+
+        long delay = Math.max(lane.bucket.reserve(), botBucket(next.botToken).reserve());
+        scheduleAttempt(lane, next, 1, delay);
+    }
+
+    private void attempt(ChatLane lane, OutboundRequest request, int attemptNo) {
+        telegramWebClient.post()
+                .uri(String.format("/bot%s/%s", request.botToken, request.method))
+                .bodyValue(request.body)
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .subscribe(
+                        response -> {
+                            sentCounter.increment();
+                            request.result.complete(response);
+                            pump(lane);
+                        },
+                        error -> onError(lane, request, attemptNo, error));
+    }
+
+    private void onError(ChatLane lane, OutboundRequest request, int attemptNo, Throwable error) {
+        if (error instanceof WebClientResponseException.BadRequest e && request.fallbackBody != null) {
+            log.warn("Telegram rejected {} ({}), sending fallback request", request.method, e.getResponseBodyAsString());
+            request.body = request.fallbackBody;
+            request.fallbackBody = null;
+            long delay = Math.max(lane.bucket.reserve(), botBucket(request.botToken).reserve());
+            scheduleAttempt(lane, request, 1, delay);
+            return;
+        }
+
+        if (error instanceof WebClientResponseException e && e.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()
+                && attemptNo < maxAttempts) {
+            rateLimitedCounter.increment();
+            long retryAfterMs = TimeUnit.SECONDS.toMillis(retryAfterSeconds(e)) + jitter(250);
+            log.warn("Telegram rate limit on {} (attempt {}/{}): retrying in {} ms",
+                    request.method, attemptNo, maxAttempts, retryAfterMs);
+            // Весь чат ждёт: следующие сообщения не обгонят текущее; остальные чаты бота тоже притормаживают
+            long pauseNanos = TimeUnit.MILLISECONDS.toNanos(retryAfterMs);
+            lane.bucket.pause(pauseNanos);
+            botBucket(request.botToken).pause(pauseNanos);
+            scheduleAttempt(lane, request, attemptNo + 1, pauseNanos);
+            return;
+        }
+
+        if (isRetryable(error) && attemptNo < maxAttempts) {
+            retriedCounter.increment();
+            long backoffMs = retryBaseDelayMs * (1L << (attemptNo - 1)) + jitter(retryBaseDelayMs);
+            log.warn("Telegram {} failed (attempt {}/{}): {}, retrying in {} ms",
+                    request.method, attemptNo, maxAttempts, error.getMessage(), backoffMs);
+            scheduleAttempt(lane, request, attemptNo + 1, TimeUnit.MILLISECONDS.toNanos(backoffMs));
+            return;
+        }
+
+        droppedErrorCounter.increment();
+        if (error instanceof WebClientResponseException e) {
+            log.error("Ошибка при вызове {} в Telegram: {} - {}", request.method, e.getStatusCode(), e.getResponseBodyAsString());
+        } else {
+            log.error("Ошибка при вызове {} в Telegram: {}", request.method, error.getMessage());
+        }
+        request.result.completeExceptionally(error);
+        pump(lane);
+    }
+
+    private boolean isRetryable(Throwable error) {
+        if (error instanceof WebClientRequestException) {
+            return true; // Сеть / таймаут соединения
+        }
+        return error instanceof WebClientResponseException e && e.getStatusCode().is5xxServerError();
+    }
+
+    private long retryAfterSeconds(WebClientResponseException e) {
+        try {
+            JsonNode body = objectMapper.readTree(e.getResponseBodyAsString());
+            return Math.max(1, body.path("parameters").path("retry_after").asLong(1));
+        } catch (Exception parseError) {
+            return 1;
+        }
+    }
+
+    private TokenBucket botBucket(String botToken) {
+        return botBuckets.computeIfAbsent(botToken, k -> new TokenBucket(botRatePerSecond, botRatePerSecond));
+    }
+
+    private void scheduleAttempt(ChatLane lane, OutboundRequest request, int attemptNo, long delayNanos) {
+        if (delayNanos <= 0) {
+            attempt(lane, request, attemptNo);
+            return;
+        }
+        try {
+            scheduler.schedule(() -> attempt(lane, request, attemptNo), delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Остановка: отложенная попытка уже не выполнится
+            request.result.completeExceptionally(e);
+            pump(lane);
+        }
+    }
+
+    private static long jitter(long maxMs) {
+        return ThreadLocalRandom.current().nextLong(maxMs + 1);
+    }
+
+    /**
+     * Убирает полосы чатов, которые давно простаивают и у которых восстановился лимит.
+     */
+    private void evictIdleLanes() {
+        long now = System.nanoTime();
+        lanes.forEach((key, lane) -> lanes.computeIfPresent(key, (k, l) -> {
+            synchronized (l) {
+                if (!l.active && l.queue.isEmpty() && now - l.lastUsedNanos > IDLE_LANE_TTL_NANOS && l.bucket.isFull()) {
+                    l.removed = true;
+                    return null;
+                }
+                return l;
+            }
+        }));
+    }
+
+    /**
+     * Останавливает отправку: отложенные попытки отменяются, а сообщения в очередях
+     * и ожидающие повтора завершаются с RejectedExecutionException, чтобы их Future не зависли.
+     */
+    @PreDestroy
+    public void shutdown() {
+        stopped = true;
+        scheduler.shutdownNow();
+        lanes.values().forEach(lane -> {
+            synchronized (lane) {
+                failPending(lane);
+            }
+        });
+    }
+
+    /**
+     * Завершает с ошибкой текущее и все ожидающие сообщения чата. Вызывается под монитором полосы.
+     */
+    private void failPending(ChatLane lane) {
+        RejectedExecutionException stoppedError = new RejectedExecutionException("Outbound dispatcher is stopped");
+        if (lane.inFlight != null) {
+            lane.inFlight.result.completeExceptionally(stoppedError);
+            lane.inFlight = null;
+        }
+        OutboundRequest pending;
+        while ((pending = lane.queue.poll()) != null) {
+            queued.decrementAndGet();
+            pending.result.completeExceptionally(stoppedError);
+        }
+        lane.active = false;
+    }
+
+    private static final class ChatLane {
+        private final TokenBucket bucket;
+        private final ArrayDeque<OutboundRequest> queue = new ArrayDeque<>();
+        // Сообщение, которое сейчас отправляется или ждёт повтора
+        private OutboundRequest inFlight;
+        private boolean active;
+        private boolean removed;
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        private ChatLane(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    private static final class OutboundRequest {
+        private final String botToken;
+        private final String method;
+        // Меняются только в onError перед следующей попыткой этого же запроса
+        private ObjectNode body;
+        private ObjectNode fallbackBody;
+        private final CompletableFuture<JsonNode> result = new CompletableFuture<>();
+
+        private OutboundRequest(String botToken, String method, ObjectNode body, ObjectNode fallbackBody) {
+            this.botToken = botToken;
+            this.method = method;
+            this.body = body;
+            this.fallbackBody = fallbackBody;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.chatalyst.backend.security.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Кэш file_id фотографий, уже загруженных в Telegram.
+ * После первой успешной отправки по URL Telegram возвращает file_id, и дальше фото
+ * отправляется по нему: Telegram не скачивает картинку из PS.kz повторно.
+ * file_id привязан к боту, поэтому ключ — токен бота + URL изображения.
+ */
+@Component
+@Slf4j
+public class TelegramPhotoCache {
+
+    private static final String KEY_SEPARATOR = "|";
+
+    private final Cache<String, String> fileIds;
+
+    public TelegramPhotoCache(MeterRegistry meterRegistry,
+                              @Value("${telegram.photo-cache.max-size:20000}") long maxSize,
+                              @Value("${telegram.photo-cache.ttl-hours:168}") long ttlHours) {
+        this.fileIds = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(Duration.ofHours(ttlHours))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, fileIds, "telegram.photo_file_ids");
+    }
+
+    /**
+     * @return Сохранённый file_id или null, если фото этим ботом ещё не отправлялось.
+     */
+    public String get(String botToken, String imageUrl) {
+        return fileIds.getIfPresent(key(botToken, imageUrl));
+    }
+
+    /**
+     * Запоминает file_id из ответа sendPhoto (самый большой размер из result.photo).
+     */
+    public void remember(String botToken, String imageUrl, JsonNode sendPhotoResponse) {
+        if (sendPhotoResponse != null) {
+            rememberMessage(botToken, imageUrl, sendPhotoResponse.path("result"));
+        }
+    }
+
+    /**
+     * Запоминает file_id из отправленного сообщения с фото (например, элемента ответа sendMediaGroup).
+     */
+    public void rememberMessage(String botToken, String imageUrl, JsonNode message) {
+        JsonNode sizes = message == null ? null : message.path("photo");
+        if (sizes == null || !sizes.isArray() || sizes.isEmpty()) {
+            return;
+        }
+        String fileId = sizes.get(sizes.size() - 1).path("file_id").asText(null);
+        if (fileId != null) {
+            fileIds.put(key(botToken, imageUrl), fileId);
+        }
+    }
+
+    public void evict(String botToken, String imageUrl) {
+        fileIds.invalidate(key(botToken, imageUrl));
+    }
+
+    /**
+     * Сбрасывает file_id изображения у всех ботов (изображение товара заменено или удалено).
+     */
+    public void evictImage(String imageUrl) {
+        if (imageUrl == null || imageUrl.isEmpty()) {
+            return;
+        }
+        String suffix = KEY_SEPARATOR + imageUrl;
+        if (fileIds.asMap().keySet().removeIf(key -> key.endsWith(suffix))) {
+            log.debug("Telegram file_id cache invalidated for image {}", imageUrl);
+        }
+    }
+
+    private static String key(String botToken, String imageUrl) {
+        return botToken + KEY_SEPARATOR + imageUrl;
+    }
+}
@@ -6,9 +6,7 @@ import com.chatalyst.backend.dto.CreateOrderRequest;
 import com.chatalyst.backend.dto.DeliveryDetailsResponse;
 import com.chatalyst.backend.dto.OrderResponse;
 import com.chatalyst.backend.model.Bot;
-import com.chatalyst.backend.model.Product;
 import com.chatalyst.backend.model.ChatMessage;
-import com.chatalyst.backend.Entity.User;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -18,14 +16,16 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
-import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 @Service
 @Slf4j
@@ -34,40 +34,91 @@ public class TelegramService {
     @Value("${telegram.bot.token}")
     private String defaultBotToken;
 
+    // cards — отдельная карточка на каждый товар (как раньше), album — страницы альбомами sendMediaGroup
+    @Value("${telegram.listing.mode:cards}")
+    private String listingMode;
+
+    @Value("${telegram.listing.page-size:10}")
+    private int listingPageSize;
+
+    // Ответ ИИ показывается по мере генерации: заглушка, затем правки editMessageText
+    @Value("${openai.streaming.enabled:false}")
+    private boolean streamingEnabled;
+
+    // Не чаще одной промежуточной правки за интервал (лимиты Telegram ~1 сообщение/с на чат)
+    @Value("${openai.streaming.edit-interval-ms:1000}")
+    private long streamingEditIntervalMs;
+
+    private static final String STREAMING_PLACEHOLDER = "✍️ Печатает...";
+    private static final String STREAMING_CURSOR = " ▌";
+
+    // Telegram принимает в sendMediaGroup от 2 до 10 элементов
+    private static final int MAX_ALBUM_SIZE = 10;
+
+    // Telegram отвергает кнопки с callback_data длиннее 64 байт
+    private static final int MAX_CALLBACK_DATA_BYTES = 64;
+
+    // Сколько карточек упомянутых в ответе ИИ товаров показывать
+    private static final int MAX_MENTIONED_PRODUCTS = 3;
+
     private final ObjectMapper objectMapper;
     private final OpenAIService openAIService;
     private final BotRepository botRepository;
-    private final ProductRepository productRepository;
-    private final ChatMessageRepository chatMessageRepository;
+    private final CatalogSnapshotService catalogSnapshotService;
+    private final ChatLogWriter chatLogWriter;
+    private final ChatHistoryService chatHistoryService;
     private final CartService cartService;
     private final DeliveryDetailsService deliveryDetailsService;
-    private final UserRepository userRepository;
+    private final TelegramClientUserService clientUserService;
     private final OrderService orderService; // Добавляем OrderService
+    private final TelegramOutboundDispatcher outboundDispatcher;
+    private final TelegramPhotoCache photoCache;
+    private final ResponseCacheService responseCache;
+    private final ConversationStateStore conversationStates;
+    // Продолжение обработки после ответа OpenAI выполняется на пуле обработчиков обновлений
+    private final Executor updateWorkers;
 
     @Qualifier("telegramWebClient")
     private final WebClient telegramWebClient;
 
     public TelegramService(ObjectMapper objectMapper, OpenAIService openAIService,
-                           BotRepository botRepository, ProductRepository productRepository,
-                           ChatMessageRepository chatMessageRepository,
+                           BotRepository botRepository, CatalogSnapshotService catalogSnapshotService,
+                           ChatLogWriter chatLogWriter,
                            WebClient telegramWebClient,
                            CartService cartService,
                            DeliveryDetailsService deliveryDetailsService,
-                           UserRepository userRepository,
-                           OrderService orderService) {
+                           TelegramClientUserService clientUserService,
+                           OrderService orderService,
+                           TelegramOutboundDispatcher outboundDispatcher,
+                           TelegramPhotoCache photoCache,
+                           ChatHistoryService chatHistoryService,
+                           ResponseCacheService responseCache,
+                           ConversationStateStore conversationStates,
+                           @Qualifier("telegramUpdateExecutor") Executor updateWorkers) {
         this.objectMapper = objectMapper;
         this.openAIService = openAIService;
         this.botRepository = botRepository;
-        this.productRepository = productRepository;
-        this.chatMessageRepository = chatMessageRepository;
+        this.catalogSnapshotService = catalogSnapshotService;
+        this.chatLogWriter = chatLogWriter;
         this.telegramWebClient = telegramWebClient;
         this.cartService = cartService;
         this.deliveryDetailsService = deliveryDetailsService;
-        this.userRepository = userRepository;
+        this.clientUserService = clientUserService;
         this.orderService = orderService;
+        this.outboundDispatcher = outboundDispatcher;
+        this.photoCache = photoCache;
+        this.chatHistoryService = chatHistoryService;
+        this.responseCache = responseCache;
+        this.conversationStates = conversationStates;
+        this.updateWorkers = updateWorkers;
     }
 
-    public void processUpdate(String botIdentifier, JsonNode updateJson) {
+    /**
+     * Обрабатывает обновление. Команды, кнопки и оформление заказа обрабатываются сразу,
+     * а для ответа ИИ поток освобождается на время запроса к OpenAI.
+     * @return Future, завершающийся после обработки обновления (для ответа ИИ — после отправки ответа).
+     */
+    public CompletableFuture<Void> processUpdateAsync(String botIdentifier, JsonNode updateJson) {
         if (updateJson.has("callback_query")) {
             handleCallbackQuery(botIdentifier, updateJson.get("callback_query"));
         } else if (updateJson.has("message")) {
@@ -80,13 +131,15 @@ public class TelegramService {
                 handleCommand(botIdentifier, chatId, text);
             } else {
                 // Проверяем, находится ли пользователь в процессе оформления заказа
-                if (isCheckoutProcess(chatId, botIdentifier)) {
-                    handleCheckoutInput(botIdentifier, chatId, text);
+                Optional<CheckoutState> checkout = conversationStates.get(botIdentifier, chatId);
+                if (checkout.isPresent()) {
+                    handleCheckoutInput(botIdentifier, chatId, text, checkout.get());
                 } else {
-                    sendOpenAIResponse(botIdentifier, chatId, text);
+                    return sendOpenAIResponse(botIdentifier, chatId, text);
                 }
             }
         }
+        return CompletableFuture.completedFuture(null);
     }
 
     private void handleCallbackQuery(String botIdentifier, JsonNode callbackQuery) {
@@ -103,7 +156,7 @@ public class TelegramService {
         }
         
         Bot bot = botOptional.get();
-        User clientUser = getOrCreateClientUser(chatId);
+        long clientUserId = clientUserService.resolveUserId(chatId);
 
         try {
             if (data.equals("main_menu")) {
@@ -115,7 +168,7 @@ public class TelegramService {
                 answerCallbackQuery(callbackId, null, false, bot.getAccessToken());
                 
             } else if (data.equals("cart")) {
-                sendCartContent(chatId, bot, clientUser);
+                sendCartContent(chatId, bot, clientUserId);
                 answerCallbackQuery(callbackId, null, false, bot.getAccessToken());
                 
             } else if (data.equals("contact")) {
@@ -132,19 +185,35 @@ public class TelegramService {
                 sendSubcategoryProductsWithButtons(chatId, bot, subcategory);
                 answerCallbackQuery(callbackId, null, false, bot.getAccessToken());
                 
+            } else if (data.startsWith("subpage_")) {
+                // Формат: subpage_<номер страницы>_<ID товара подкатегории> — название может не влезть в 64 байта
+                String rest = data.substring("subpage_".length());
+                int separator = rest.indexOf('_');
+                int page = Integer.parseInt(rest.substring(0, separator));
+                Long productId = Long.parseLong(rest.substring(separator + 1));
+                CatalogSnapshot snapshot = catalogSnapshotService.get(bot);
+                Optional<String> subcategory = snapshot.item(productId).map(CatalogSnapshot.Item::subcategory);
+                if (subcategory.isEmpty()) {
+                    answerCallbackQuery(callbackId, "Каталог обновился, выберите подкатегорию заново", false, bot.getAccessToken());
+                    sendCatalogWithButtons(chatId, bot);
+                } else {
+                    sendSubcategoryAlbumPage(chatId, bot, subcategory.get(), snapshot.itemsInSubcategory(subcategory.get()), page);
+                    answerCallbackQuery(callbackId, null, false, bot.getAccessToken());
+                }
+                
             } else if (data.startsWith("add_")) {
                 Long productId = Long.parseLong(data.substring("add_".length()));
-                addToCartAndNotify(chatId, bot, clientUser, productId);
+                addToCartAndNotify(chatId, bot, clientUserId, productId);
                 answerCallbackQuery(callbackId, "✅ Добавлено в корзину!", false, bot.getAccessToken());
                 
             } else if (data.startsWith("remove_")) {
                 Long productId = Long.parseLong(data.substring("remove_".length()));
-                cartService.removeProductFromCart(clientUser.getId(), bot.getId(), productId);
-                sendCartContent(chatId, bot, clientUser);
+                cartService.removeProductFromCart(clientUserId, bot.getId(), productId);
+                sendCartContent(chatId, bot, clientUserId);
                 answerCallbackQuery(callbackId, "✅ Товар удалён", false, bot.getAccessToken());
                 
             } else if (data.equals("clear_cart")) {
-                cartService.clearCart(clientUser.getId(), bot.getId());
+                cartService.clearCart(clientUserId, bot.getId());
                 answerCallbackQuery(callbackId, "✅ Корзина очищена", false, bot.getAccessToken());
                 sendMessage(chatId, "Корзина пуста. Хотите посмотреть каталог?", bot.getAccessToken(), createMainMenuKeyboard());
                 
@@ -152,6 +221,14 @@ public class TelegramService {
                 sendCheckoutInstructions(chatId, bot);
                 answerCallbackQuery(callbackId, null, false, bot.getAccessToken());
                 
+            } else if (data.equals("checkout_confirm")) {
+                confirmCheckout(chatId, bot, clientUserId, callbackId);
+                
+            } else if (data.equals("checkout_cancel")) {
+                conversationStates.remove(botIdentifier, chatId);
+                answerCallbackQuery(callbackId, "Оформление отменено", false, bot.getAccessToken());
+                sendMessage(chatId, "Оформление заказа отменено. Товары остались в корзине.", bot.getAccessToken(), createMainMenuKeyboard());
+                
             } else {
                 answerCallbackQuery(callbackId, "Неизвестная команда", true, bot.getAccessToken());
             }
@@ -182,26 +259,6 @@ public class TelegramService {
                 .subscribe();
     }
 
-    private User getOrCreateClientUser(long telegramChatId) {
-        Optional<User> existingUser = userRepository.findByEmail("telegram_" + telegramChatId + "@bot.local");
-        
-        if (existingUser.isPresent()) {
-            return existingUser.get();
-        }
-        
-        User newUser = new User();
-        newUser.setEmail("telegram_" + telegramChatId + "@bot.local");
-        newUser.setFirstName("Telegram User");
-        newUser.setLastName(String.valueOf(telegramChatId));
-        newUser.setActive(true);
-        newUser.setEnabled(true);
-        
-        User savedUser = userRepository.save(newUser);
-        log.info("Создан новый пользователь для Telegram Chat ID: {}", telegramChatId);
-        
-        return savedUser;
-    }
-
     private void handleCommand(String botIdentifier, long chatId, String command) {
         log.info("Processing command for bot {}: {}", botIdentifier, command);
 
@@ -250,6 +307,9 @@ public class TelegramService {
     }
 
     private ObjectNode createInlineButton(String text, String callbackData) {
+        if (callbackData.getBytes(StandardCharsets.UTF_8).length > MAX_CALLBACK_DATA_BYTES) {
+            log.warn("callback_data longer than {} bytes will be rejected by Telegram: {}", MAX_CALLBACK_DATA_BYTES, callbackData);
+        }
         ObjectNode button = objectMapper.createObjectNode();
         button.put("text", text);
         button.put("callback_data", callbackData);
@@ -257,12 +317,7 @@ public class TelegramService {
     }
 
     private void sendCatalogWithButtons(long chatId, Bot bot) {
-        List<String> catalogs = productRepository.findByBot(bot)
-                .stream()
-                .map(Product::getCatalog)
-                .filter(c -> c != null && !c.isBlank())
-                .distinct()
-                .collect(Collectors.toList());
+        List<String> catalogs = catalogSnapshotService.get(bot).catalogs();
 
         if (catalogs.isEmpty()) {
             sendMessage(chatId, "В магазине нет доступных каталогов.", bot.getAccessToken(), createMainMenuKeyboard());
@@ -288,12 +343,7 @@ public class TelegramService {
     }
 
     private void sendSubcategoriesWithButtons(long chatId, Bot bot, String catalog) {
-        List<String> subcategories = productRepository.findByBotAndCatalog(bot, catalog)
-                .stream()
-                .map(Product::getSubcategory)
-                .filter(s -> s != null && !s.isBlank())
-                .distinct()
-                .collect(Collectors.toList());
+        List<String> subcategories = catalogSnapshotService.get(bot).subcategories(catalog);
 
         if (subcategories.isEmpty()) {
             sendMessage(chatId, "В категории \"" + catalog + "\" нет подкатегорий.", 
@@ -321,7 +371,7 @@ public class TelegramService {
     }
 
     private void sendSubcategoryProductsWithButtons(long chatId, Bot bot, String subcategory) {
-        List<Product> products = productRepository.findByBotAndSubcategory(bot, subcategory);
+        List<CatalogSnapshot.Item> products = catalogSnapshotService.get(bot).itemsInSubcategory(subcategory);
         
         if (products.isEmpty()) {
             sendMessage(chatId, "В подкатегории \"" + subcategory + "\" нет товаров.", 
@@ -329,10 +379,15 @@ public class TelegramService {
             return;
         }
 
+        if ("album".equalsIgnoreCase(listingMode)) {
+            sendSubcategoryAlbumPage(chatId, bot, subcategory, products, 0);
+            return;
+        }
+
         String headerMessage = String.format("🏷️ *%s*\n\nВсего товаров: %d", subcategory, products.size());
         sendMessage(chatId, headerMessage, bot.getAccessToken(), null);
 
-        for (Product product : products) {
+        for (CatalogSnapshot.Item product : products) {
             sendProductCard(chatId, product, bot.getAccessToken());
         }
         
@@ -348,31 +403,109 @@ public class TelegramService {
         sendMessage(chatId, "Что добавляем в корзину? 😊", bot.getAccessToken(), markup);
     }
 
-    private void sendProductCard(long chatId, Product product, String botToken) {
-        String caption = String.format(
-            "🔸 *%s*\n\n💰 Цена: *%s тг*\n\n📝 %s",
-            product.getName(),
-            product.getPrice(),
-            product.getDescription() != null ? product.getDescription() : "Описание отсутствует"
-        );
+    /**
+     * Отправляет страницу товаров подкатегории: фото одним альбомом sendMediaGroup
+     * и одно сообщение со списком, кнопками "➕" для каждого товара и навигацией по страницам.
+     * Вместо N+2 запросов к Telegram на страницу уходит два.
+     */
+    private void sendSubcategoryAlbumPage(long chatId, Bot bot, String subcategory, List<CatalogSnapshot.Item> products, int page) {
+        String botToken = bot.getAccessToken();
+        if (products.isEmpty()) {
+            sendMessage(chatId, "В подкатегории \"" + subcategory + "\" нет товаров.", botToken, createMainMenuKeyboard());
+            return;
+        }
+
+        int pageSize = Math.max(1, Math.min(MAX_ALBUM_SIZE, listingPageSize));
+        int pageCount = (products.size() + pageSize - 1) / pageSize;
+        int current = Math.max(0, Math.min(page, pageCount - 1));
+        int from = current * pageSize;
+        int to = Math.min(products.size(), from + pageSize);
+        List<CatalogSnapshot.Item> pageProducts = products.subList(from, to);
+
+        List<CatalogSnapshot.Item> withPhoto = pageProducts.stream()
+                .filter(CatalogSnapshot.Item::hasImage)
+                .collect(Collectors.toList());
+
+        if (withPhoto.size() > 1) {
+            sendMediaGroup(chatId, withPhoto, botToken);
+        } else if (withPhoto.size() == 1) {
+            sendPhoto(chatId, withPhoto.get(0).imageUrl(), buildProductCaption(withPhoto.get(0)), botToken, null);
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("🏷️ *%s*\n\nТовары %d–%d из %d", subcategory, from + 1, to, products.size()));
+        if (pageCount > 1) {
+            text.append(String.format(" (стр. %d/%d)", current + 1, pageCount));
+        }
+        text.append("\n\n");
+        for (int i = 0; i < pageProducts.size(); i++) {
+            CatalogSnapshot.Item product = pageProducts.get(i);
+            text.append(String.format("%d. *%s* — %s тг\n", from + i + 1, product.name(), product.price()));
+        }
+        text.append("\nЧто добавляем в корзину? 😊");
+
+        ArrayNode keyboard = objectMapper.createArrayNode();
+        for (CatalogSnapshot.Item product : pageProducts) {
+            ArrayNode row = objectMapper.createArrayNode();
+            row.add(createInlineButton("➕ " + product.name(), "add_" + product.id()));
+            keyboard.add(row);
+        }
+
+        if (pageCount > 1) {
+            // Подкатегория передаётся ID её первого товара: callback_data остаётся коротким при любом названии
+            Long subcategoryRef = products.get(0).id();
+            ArrayNode pageRow = objectMapper.createArrayNode();
+            if (current > 0) {
+                pageRow.add(createInlineButton("◀️ Назад", "subpage_" + (current - 1) + "_" + subcategoryRef));
+            }
+            if (current < pageCount - 1) {
+                pageRow.add(createInlineButton("Далее ▶️", "subpage_" + (current + 1) + "_" + subcategoryRef));
+            }
+            keyboard.add(pageRow);
+        }
+
+        ArrayNode navRow = objectMapper.createArrayNode();
+        navRow.add(createInlineButton("« К категориям", "catalog"));
+        navRow.add(createInlineButton("🛒 Корзина", "cart"));
+        keyboard.add(navRow);
+
+        ObjectNode markup = objectMapper.createObjectNode();
+        markup.set("inline_keyboard", keyboard);
+
+        // У альбома не бывает клавиатуры, поэтому список с кнопками идёт отдельным сообщением.
+        // Очередь отправки чата FIFO — он придёт после альбома, не дожидаясь ответа Telegram на альбом
+        sendMessage(chatId, text.toString(), botToken, markup);
+    }
+
+    private void sendProductCard(long chatId, CatalogSnapshot.Item product, String botToken) {
+        String caption = buildProductCaption(product);
         
         ArrayNode keyboard = objectMapper.createArrayNode();
         ArrayNode row = objectMapper.createArrayNode();
-        row.add(createInlineButton("➕ Добавить в корзину", "add_" + product.getId()));
+        row.add(createInlineButton("➕ Добавить в корзину", "add_" + product.id()));
         keyboard.add(row);
         
         ObjectNode markup = objectMapper.createObjectNode();
         markup.set("inline_keyboard", keyboard);
         
-        if (product.getImageUrl() != null && !product.getImageUrl().isEmpty()) {
-            sendPhoto(chatId, product.getImageUrl(), caption, botToken, markup);
+        if (product.hasImage()) {
+            sendPhoto(chatId, product.imageUrl(), caption, botToken, markup);
         } else {
             sendMessage(chatId, caption, botToken, markup);
         }
     }
 
-    private void addToCartAndNotify(long chatId, Bot bot, User clientUser, Long productId) {
-        CartItemResponse item = cartService.addProductToCart(clientUser.getId(), bot.getId(), productId, 1);
+    private String buildProductCaption(CatalogSnapshot.Item product) {
+        return String.format(
+            "🔸 *%s*\n\n💰 Цена: *%s тг*\n\n📝 %s",
+            product.name(),
+            product.price(),
+            product.description() != null ? product.description() : "Описание отсутствует"
+        );
+    }
+
+    private void addToCartAndNotify(long chatId, Bot bot, long clientUserId, Long productId) {
+        CartItemResponse item = cartService.addProductToCart(clientUserId, bot.getId(), productId, 1);
         
         String message = String.format(
             "✅ *%s* добавлен в корзину!\n\n" +
@@ -396,8 +529,8 @@ public class TelegramService {
         sendMessage(chatId, message, bot.getAccessToken(), markup);
     }
 
-    private void sendCartContent(long chatId, Bot bot, User clientUser) {
-        List<CartItemResponse> items = cartService.getCartItems(clientUser.getId(), bot.getId());
+    private void sendCartContent(long chatId, Bot bot, long clientUserId) {
+        List<CartItemResponse> items = cartService.getCartItems(clientUserId, bot.getId());
         
         if (items.isEmpty()) {
             String message = "🛒 *Ваша корзина пуста*\n\nДавайте найдём что-нибудь интересное!";
@@ -447,119 +580,154 @@ public class TelegramService {
         sendMessage(chatId, sb.toString(), bot.getAccessToken(), markup);
     }
 
-       private void sendCheckoutInstructions(long chatId, Bot bot) {
-        // Устанавливаем флаг, что пользователь в процессе оформления
-        setCheckoutProcess(chatId, bot.getBotIdentifier(), true);
+    private void sendCheckoutInstructions(long chatId, Bot bot) {
+        // Начинаем оформление заново (в том числе по кнопке «Изменить данные»)
+        conversationStates.put(bot.getBotIdentifier(), chatId, CheckoutState.start());
 
         String message = "📦 *Оформление заказа*\n\n" +
-                        "Отправьте ваши контактные данные в формате:\n\n" +
-                        "*Адрес:* ваш адрес доставки\n" +
-                        "*Телефон:* ваш номер\n" +
-                        "*Комментарий:* (если есть)\n\n" +
-                        "Пример:\n" +
+                        "Отправьте адрес доставки.\n\n" +
+                        "Можно сразу одним сообщением:\n" +
                         "_Адрес: ул. Абая 10, кв 5\n" +
                         "Телефон: +77001234567\n" +
                         "Комментарий: Позвоните за 10 минут_";
-        sendMessage(chatId, message, bot.getAccessToken(), createMainMenuKeyboard());
+        sendMessage(chatId, message, bot.getAccessToken(), createCheckoutCancelKeyboard());
     }
 
-    // Вспомогательные методы для отслеживания процесса оформления
-    private Map<String, Boolean> checkoutProcessMap = new HashMap<>();
+    /**
+     * Шаг оформления: применяет сообщение к состоянию и спрашивает следующее недостающее поле
+     * или показывает данные для подтверждения.
+     */
+    private void handleCheckoutInput(String botIdentifier, long chatId, String text, CheckoutState state) {
+        Bot bot = botRepository.findByBotIdentifier(botIdentifier)
+                .orElseThrow(() -> new RuntimeException("Бот не найден"));
 
-    private String getCheckoutKey(long chatId, String botIdentifier) {
-        return botIdentifier + "_" + chatId;
+        CheckoutState next = state.accept(text);
+        conversationStates.put(botIdentifier, chatId, next);
+
+        // Шаг не сменился — значение не подошло (на подтверждении текст считается комментарием)
+        boolean rejected = next.step() == state.step() && next.step() != CheckoutState.Step.AWAITING_CONFIRMATION;
+        switch (next.step()) {
+            case AWAITING_ADDRESS -> sendMessage(chatId,
+                    rejected ? "Не удалось распознать адрес. Отправьте адрес доставки (не длиннее 500 символов)."
+                             : "Отправьте адрес доставки.",
+                    bot.getAccessToken(), createCheckoutCancelKeyboard());
+            case AWAITING_PHONE -> sendMessage(chatId,
+                    rejected ? "Не удалось распознать номер телефона. Отправьте номер, например: +77001234567"
+                             : "📞 Отправьте ваш номер телефона, например: +77001234567",
+                    bot.getAccessToken(), createCheckoutCancelKeyboard());
+            case AWAITING_CONFIRMATION -> sendCheckoutSummary(chatId, bot, next);
+        }
     }
 
-    private boolean isCheckoutProcess(long chatId, String botIdentifier) {
-        return checkoutProcessMap.getOrDefault(getCheckoutKey(chatId, botIdentifier), false);
+    private void sendCheckoutSummary(long chatId, Bot bot, CheckoutState state) {
+        String message = String.format(
+                "📋 *Проверьте данные заказа*\n\n" +
+                "Адрес: %s\n" +
+                "Телефон: %s\n" +
+                "Комментарий: %s\n\n" +
+                "Чтобы добавить или изменить комментарий, просто отправьте его сообщением.",
+                escapeMarkdown(state.address()),
+                escapeMarkdown(state.phone()),
+                state.comment() != null ? escapeMarkdown(state.comment()) : "Нет"
+        );
+
+        ArrayNode keyboard = objectMapper.createArrayNode();
+        ArrayNode row1 = objectMapper.createArrayNode();
+        row1.add(createInlineButton("✅ Подтвердить заказ", "checkout_confirm"));
+        keyboard.add(row1);
+        ArrayNode row2 = objectMapper.createArrayNode();
+        row2.add(createInlineButton("✏️ Изменить данные", "checkout"));
+        row2.add(createInlineButton("❌ Отменить", "checkout_cancel"));
+        keyboard.add(row2);
+
+        ObjectNode markup = objectMapper.createObjectNode();
+        markup.set("inline_keyboard", keyboard);
+        sendMessage(chatId, message, bot.getAccessToken(), markup);
     }
 
-    private void setCheckoutProcess(long chatId, String botIdentifier, boolean inProcess) {
-        checkoutProcessMap.put(getCheckoutKey(chatId, botIdentifier), inProcess);
+    /**
+     * Экранирует символы разметки Markdown (_ * ` [) в тексте покупателя, чтобы адрес вроде
+     * "ул_Абая [кв 5]" не ломал разбор сообщения.
+     */
+    private static String escapeMarkdown(String text) {
+        return text.replaceAll("([_*`\\[])", "\\\\$1");
     }
 
-    private void handleCheckoutInput(String botIdentifier, long chatId, String text) {
-        Bot bot = botRepository.findByBotIdentifier(botIdentifier)
-                .orElseThrow(() -> new RuntimeException("Бот не найден"));
-        User clientUser = getOrCreateClientUser(chatId);
+    private ObjectNode createCheckoutCancelKeyboard() {
+        ArrayNode keyboard = objectMapper.createArrayNode();
+        ArrayNode row = objectMapper.createArrayNode();
+        row.add(createInlineButton("❌ Отменить оформление", "checkout_cancel"));
+        keyboard.add(row);
 
-        // 1. Парсинг данных
-        String address = extractValue(text, "Адрес");
-        String phone = extractValue(text, "Телефон");
-        String comment = extractValue(text, "Комментарий");
+        ObjectNode markup = objectMapper.createObjectNode();
+        markup.set("inline_keyboard", keyboard);
+        return markup;
+    }
 
-        if (address == null || phone == null) {
-            sendMessage(chatId, "Не удалось распознать адрес или телефон. Пожалуйста, убедитесь, что вы отправили данные в правильном формате (Адрес: ..., Телефон: ..., Комментарий: ...).",
-                    bot.getAccessToken(), createMainMenuKeyboard());
+    /**
+     * Создаёт заказ по подтверждённым данным. Состояние удаляется до создания заказа,
+     * поэтому повторное нажатие кнопки (или другой экземпляр приложения) заказ не продублирует.
+     */
+    private void confirmCheckout(long chatId, Bot bot, long clientUserId, String callbackId) {
+        Optional<CheckoutState> removed = conversationStates.remove(bot.getBotIdentifier(), chatId);
+        if (removed.isEmpty()) {
+            answerCallbackQuery(callbackId, "Оформление устарело. Нажмите «Оформить заказ» в корзине ещё раз.", true, bot.getAccessToken());
+            return;
+        }
+        CheckoutState state = removed.get();
+        if (state.step() != CheckoutState.Step.AWAITING_CONFIRMATION) {
+            conversationStates.put(bot.getBotIdentifier(), chatId, state);
+            answerCallbackQuery(callbackId, "Сначала укажите адрес и телефон", true, bot.getAccessToken());
             return;
         }
+        answerCallbackQuery(callbackId, null, false, bot.getAccessToken());
 
         try {
-            // 2. Создание заказа
+            // 1. Создание заказа
             CreateOrderRequest orderRequest = new CreateOrderRequest();
             orderRequest.setBotId(bot.getId());
-            orderRequest.setClientDeliveryAddress(address);
-            orderRequest.setClientContactPhone(phone);
-            orderRequest.setClientComment(comment);
+            orderRequest.setClientDeliveryAddress(state.address());
+            orderRequest.setClientContactPhone(state.phone());
+            orderRequest.setClientComment(state.comment());
 
-            OrderResponse orderResponse = orderService.createOrderFromCart(clientUser.getId(), orderRequest);
-
-            // 3. Создание OrderConfirmation (если нужна оплата)
-            // В текущей логике OrderService.createOrderFromCart создает заказ и отправляет уведомление владельцу.
-            // Если нужна оплата, то после создания заказа нужно предложить оплату.
-            // Предположим, что оплата происходит после создания заказа, и мы должны предложить ее.
-
-            // 4. Отправка инструкций по оплате (если настроено)
-            // Здесь мы должны вызвать логику, которая предложит оплату и, возможно, создаст OrderConfirmation
-            // Однако, по задаче, уведомление владельцу должно прийти сразу после оформления (т.е. после createOrderFromCart).
             // В OrderService.createOrderFromCart уже есть вызов notificationService.sendNewOrderNotification(savedOrder);
             // Это соответствует требованию "Отправить уведомление владельцу".
+            OrderResponse orderResponse = orderService.createOrderFromCart(clientUserId, orderRequest);
 
-            // 5. Отправка подтверждения клиенту
+            // 2. Отправка подтверждения клиенту
             String confirmationMessage = String.format(
                     "🎉 *Ваш заказ №%d оформлен!* 🎉\n\n" +
                     "Мы получили ваши данные:\n" +
                     "Адрес: %s\n" +
                     "Телефон: %s\n" +
                     "Комментарий: %s\n\n" +
-	                    "Общая сумма: *%s тг*\n\n" +
-	                    "Владелец бота уже получил уведомление и скоро свяжется с вами для подтверждения и оплаты.",
-	                    orderResponse.getId(),
-	                    address,
-	                    phone,
-	                    comment != null ? comment : "Нет",
-	                    orderResponse.getTotalAmount()
-	            );
-	            
-	            // 6. Отправка QR-кода, если он настроен
-	            if (bot.getPaymentQrCodeUrl() != null && !bot.getPaymentQrCodeUrl().isEmpty()) {
-	                sendPhoto(chatId, bot.getPaymentQrCodeUrl(), 
-	                          "Для оплаты используйте этот QR-код. После оплаты отправьте скриншот в чат.", 
-	                          bot.getAccessToken(), createMainMenuKeyboard());
-	            } else {
-	                sendMessage(chatId, confirmationMessage, bot.getAccessToken(), createMainMenuKeyboard());
-	            }
+                    "Общая сумма: *%s тг*\n\n" +
+                    "Владелец бота уже получил уведомление и скоро свяжется с вами для подтверждения и оплаты.",
+                    orderResponse.getId(),
+                    escapeMarkdown(state.address()),
+                    escapeMarkdown(state.phone()),
+                    state.comment() != null ? escapeMarkdown(state.comment()) : "Нет",
+                    orderResponse.getTotalAmount()
+            );
+
+            // 3. Отправка QR-кода, если он настроен
+            if (bot.getPaymentQrCodeUrl() != null && !bot.getPaymentQrCodeUrl().isEmpty()) {
+                sendPhoto(chatId, bot.getPaymentQrCodeUrl(),
+                          "Для оплаты используйте этот QR-код. После оплаты отправьте скриншот в чат.",
+                          bot.getAccessToken(), createMainMenuKeyboard());
+            } else {
+                sendMessage(chatId, confirmationMessage, bot.getAccessToken(), createMainMenuKeyboard());
+            }
 
         } catch (Exception e) {
             log.error("Ошибка при создании заказа для чата {}: {}", chatId, e.getMessage());
-            sendMessage(chatId, "Произошла ошибка при оформлении заказа. Попробуйте еще раз или свяжитесь с нами.",
+            // Данные не теряются: покупатель может подтвердить ещё раз
+            conversationStates.put(bot.getBotIdentifier(), chatId, state);
+            sendMessage(chatId, "Произошла ошибка при оформлении заказа. Попробуйте подтвердить ещё раз или свяжитесь с нами.",
                     bot.getAccessToken(), createMainMenuKeyboard());
-        } finally {
-            // Сбрасываем флаг процесса оформления
-            setCheckoutProcess(chatId, botIdentifier, false);
         }
     }
 
-    private String extractValue(String text, String key) {
-        Pattern pattern = Pattern.compile(key + ":\\s*(.*?)(?:\\n|$)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-        Matcher matcher = pattern.matcher(text);
-        if (matcher.find()) {
-            return matcher.group(1).trim();
-        }
-        return null;
-    }
-    
-
     private void sendContactDetails(long chatId, Bot bot) {
         DeliveryDetailsResponse details = deliveryDetailsService.getDeliveryDetailsByBotId(bot.getId());
         
@@ -591,28 +759,93 @@ public class TelegramService {
         sendMessage(chatId, sb.toString(), bot.getAccessToken(), createMainMenuKeyboard());
     }
 
-    private void sendOpenAIResponse(String botIdentifier, long chatId, String userMessage) {
+    private CompletableFuture<Void> sendOpenAIResponse(String botIdentifier, long chatId, String userMessage) {
         Optional<Bot> botOptional = botRepository.findByBotIdentifier(botIdentifier);
         if (botOptional.isEmpty()) {
             sendMessage(chatId, "Бот с таким идентификатором не найден.", defaultBotToken, null);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
         Bot bot = botOptional.get();
 
-        List<ChatMessage> history = chatMessageRepository.findTop30ByChatIdAndBotIdentifierOrderByIdDesc(chatId, botIdentifier);
+        // Последние реплики в пределах бюджета токенов, в хронологическом порядке, плюс текущее сообщение
+        List<String[]> chatHistory = chatHistoryService.historyFor(botIdentifier, chatId, userMessage);
 
-        List<String[]> chatHistory = history.stream()
-                .map(m -> new String[]{m.getRole(), m.getContent()})
-                .collect(Collectors.toList());
+        // Один снимок на всё сообщение: промпт и поиск упомянутых товаров видят одну версию каталога
+        CatalogSnapshot catalog = catalogSnapshotService.get(bot);
+
+        // Повторяющийся вопрос в том же контексте — ответ без обращения к OpenAI
+        String cachedResponse = responseCache.get(bot, catalog, chatHistory);
+        if (cachedResponse != null) {
+            deliverAiResponse(bot, chatId, userMessage, cachedResponse, catalog, null);
+            return CompletableFuture.completedFuture(null);
+        }
 
-        chatHistory.add(new String[]{"user", userMessage});
+        if (streamingEnabled) {
+            return streamOpenAIResponse(bot, chatId, userMessage, chatHistory, catalog);
+        }
+        return completeOpenAIResponse(bot, chatId, userMessage, chatHistory, catalog);
+    }
 
-        String productCatalogInfo = buildProductCatalogInfo(bot);
+    /**
+     * Ответ целиком одним сообщением.
+     */
+    private CompletableFuture<Void> completeOpenAIResponse(Bot bot, long chatId, String userMessage,
+                                                           List<String[]> chatHistory, CatalogSnapshot catalog) {
+        return openAIService.getBotResponseWithImageSupportAsync(chatHistory, catalog, bot, chatId)
+                .toFuture()
+                .thenAcceptAsync(aiResponse -> {
+                    responseCache.put(bot, catalog, chatHistory, aiResponse);
+                    deliverAiResponse(bot, chatId, userMessage, aiResponse, catalog, null);
+                }, updateWorkers);
+    }
 
-        String aiResponse = openAIService.getBotResponseWithImageSupport(
-            chatHistory, productCatalogInfo, bot.getShopName(), botIdentifier, chatId
-        );
+    /**
+     * Потоковый ответ: сразу отправляется заглушка, затем она дополняется текстом по мере генерации.
+     * Промежуточные правки идут без Markdown (незакрытая разметка в середине ответа даёт 400),
+     * финальная — с Markdown и клавиатурой (если разметка не разобралась — обычным текстом,
+     * чтобы в чате не остался курсор).
+     * Если заглушку отправить не удалось (429 после всех повторов, бот заблокирован, сеть), ответ
+     * запрашивается целиком и отправляется обычным сообщением — сообщение покупателя не теряется.
+     */
+    private CompletableFuture<Void> streamOpenAIResponse(Bot bot, long chatId, String userMessage,
+                                                         List<String[]> chatHistory, CatalogSnapshot catalog) {
+        String botToken = bot.getAccessToken();
+        return sendMessage(chatId, STREAMING_PLACEHOLDER, botToken, null)
+                .handle((placeholder, error) -> {
+                    if (error != null) {
+                        log.warn("Streaming placeholder for chat {} of bot {} not sent, replying without streaming: {}",
+                                chatId, bot.getBotIdentifier(), error.getMessage());
+                        return completeOpenAIResponse(bot, chatId, userMessage, chatHistory, catalog);
+                    }
+                    long messageId = placeholder.path("result").path("message_id").asLong();
+                    return streamInto(new ProgressiveReply(chatId, messageId, botToken),
+                            bot, chatId, userMessage, chatHistory, catalog);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<Void> streamInto(ProgressiveReply reply, Bot bot, long chatId, String userMessage,
+                                               List<String[]> chatHistory, CatalogSnapshot catalog) {
+        return openAIService.streamBotResponseWithImageSupport(chatHistory, catalog, bot, chatId, reply::complete)
+                .doOnNext(reply::append)
+                .then()
+                .toFuture()
+                .thenRunAsync(() -> {
+                    // Оборванный посреди генерации ответ доставляется как есть, но в кэш не попадает
+                    if (reply.completed) {
+                        responseCache.put(bot, catalog, chatHistory, reply.text());
+                    }
+                    deliverAiResponse(bot, chatId, userMessage, reply.text(), catalog, reply.messageId);
+                }, updateWorkers);
+    }
 
+    /**
+     * @param streamedMessageId Сообщение-заглушка потокового ответа, которое нужно заменить финальным текстом,
+     *                          или null — тогда ответ отправляется новым сообщением.
+     */
+    private void deliverAiResponse(Bot bot, long chatId, String userMessage, String aiResponse,
+                                   CatalogSnapshot catalog, Long streamedMessageId) {
+        String botIdentifier = bot.getBotIdentifier();
         ChatMessage userMsg = ChatMessage.builder()
                 .chatId(chatId)
                 .botIdentifier(botIdentifier)
@@ -627,108 +860,199 @@ public class TelegramService {
                 .content(aiResponse)
                 .build();
 
-        chatMessageRepository.save(userMsg);
-        chatMessageRepository.save(aiMsg);
+        // Ответ уже сгенерирован (и оплачен): покупатель получает его, даже если историю записать не удалось
+        if (streamedMessageId != null) {
+            editMessageText(chatId, streamedMessageId, aiResponse, bot.getAccessToken(), createMainMenuKeyboard(), true);
+        } else {
+            sendMessage(chatId, aiResponse, bot.getAccessToken(), createMainMenuKeyboard());
+        }
 
-        sendMessage(chatId, aiResponse, bot.getAccessToken(), createMainMenuKeyboard());
+        // Id присваиваются сразу, запись в БД — пакетом в фоне
+        try {
+            chatLogWriter.append(List.of(userMsg, aiMsg));
+            chatHistoryService.append(userMsg);
+            chatHistoryService.append(aiMsg);
+        } catch (RuntimeException e) {
+            log.error("Failed to log chat messages for bot {} chat {}: {}", botIdentifier, chatId, e.getMessage(), e);
+        }
 
-        List<Product> mentionedProducts = extractMentionedProducts(aiResponse, bot);
+        List<CatalogSnapshot.Item> mentionedProducts = extractMentionedProducts(aiResponse, catalog);
         if (!mentionedProducts.isEmpty()) {
-            for (Product product : mentionedProducts) {
+            for (CatalogSnapshot.Item product : mentionedProducts) {
                 sendProductCard(chatId, product, bot.getAccessToken());
             }
         }
     }
 
-    private String buildProductCatalogInfo(Bot bot) {
-        return productRepository.findByBot(bot).stream()
-                .collect(Collectors.groupingBy(Product::getCatalog))
-                .entrySet().stream()
-                .map(entry -> {
-                    String catalog = entry.getKey();
-                    return "Каталог: " + catalog + "\n" +
-                            entry.getValue().stream()
-                                    .collect(Collectors.groupingBy(Product::getSubcategory))
-                                    .entrySet().stream()
-                                    .map(subEntry -> {
-                                        String subcategory = subEntry.getKey();
-                                        String products = subEntry.getValue().stream()
-                                                .map(p -> String.format(
-                                                    "- %s (%s тг): %s%s",
-                                                    p.getName(),
-                                                    p.getPrice(),
-                                                    p.getDescription() != null ? p.getDescription() : "",
-                                                    p.getImageUrl() != null ? " [ФОТО]" : ""
-                                                ))
-                                                .collect(Collectors.joining("\n"));
-                                        return "  Подкаталог: " + subcategory + "\n" + products;
-                                    }).collect(Collectors.joining("\n"));
-                }).collect(Collectors.joining("\n\n"));
-    }
-
-    private List<Product> extractMentionedProducts(String aiResponse, Bot bot) {
-        List<Product> allProducts = productRepository.findByBot(bot);
-        List<Product> mentioned = new ArrayList<>();
-        
-        for (Product product : allProducts) {
-            Pattern pattern = Pattern.compile("\\b" + Pattern.quote(product.getName()) + "\\b", 
-                                            Pattern.CASE_INSENSITIVE);
-            Matcher matcher = pattern.matcher(aiResponse);
-            
-            if (matcher.find()) {
-                mentioned.add(product);
-            }
-        }
-        
-        return mentioned.stream().limit(3).collect(Collectors.toList());
+    private List<CatalogSnapshot.Item> extractMentionedProducts(String aiResponse, CatalogSnapshot catalog) {
+        // Один проход по ответу автоматом, построенным вместе со снимком каталога
+        return catalog.mentionMatcher().findAll(aiResponse, MAX_MENTIONED_PRODUCTS);
     }
 
-    public void sendMessage(long chatId, String text, String botToken, ObjectNode replyMarkup) {
-        String url = String.format("/bot%s/sendMessage", botToken);
-        
+    /**
+     * Отправляет сообщение через очередь исходящих с учётом лимитов Telegram.
+     * Если Telegram не смог разобрать Markdown (400), сообщение сразу повторяется обычным текстом.
+     * @return Future с ответом Telegram (результат sendMessage).
+     */
+    public CompletableFuture<JsonNode> sendMessage(long chatId, String text, String botToken, ObjectNode replyMarkup) {
         ObjectNode requestBody = objectMapper.createObjectNode();
         requestBody.put("chat_id", chatId);
         requestBody.put("text", text);
-        requestBody.put("parse_mode", "Markdown");
         
         if (replyMarkup != null) {
             requestBody.set("reply_markup", replyMarkup);
         }
 
-        telegramWebClient.post()
-                .uri(url)
-                .bodyValue(requestBody)
-                .retrieve()
-                .bodyToMono(JsonNode.class)
-                .doOnError(WebClientResponseException.class, e -> 
-                    log.error("Ошибка при отправке сообщения в Telegram: {} - {}", 
-                             e.getStatusCode(), e.getResponseBodyAsString()))
-                .onErrorResume(e -> Mono.empty())
-                .subscribe();
+        ObjectNode plainText = requestBody.deepCopy();
+        requestBody.put("parse_mode", "Markdown");
+        return outboundDispatcher.send(botToken, chatId, "sendMessage", requestBody, plainText);
     }
 
-    public void sendPhoto(long chatId, String photoUrl, String caption, String botToken, ObjectNode replyMarkup) {
-        String url = String.format("/bot%s/sendPhoto", botToken);
+    /**
+     * Заменяет текст уже отправленного сообщения через очередь исходящих.
+     * @param markdown Разбирать ли текст как Markdown. Если Telegram не смог разобрать разметку (400),
+     *                 правка сразу повторяется обычным текстом.
+     * @return Future с ответом Telegram (результат editMessageText).
+     */
+    public CompletableFuture<JsonNode> editMessageText(long chatId, long messageId, String text, String botToken,
+                                                       ObjectNode replyMarkup, boolean markdown) {
+        ObjectNode requestBody = objectMapper.createObjectNode();
+        requestBody.put("chat_id", chatId);
+        requestBody.put("message_id", messageId);
+        requestBody.put("text", text);
+        if (replyMarkup != null) {
+            requestBody.set("reply_markup", replyMarkup);
+        }
+        if (!markdown) {
+            return outboundDispatcher.send(botToken, chatId, "editMessageText", requestBody);
+        }
 
+        ObjectNode plainText = requestBody.deepCopy();
+        requestBody.put("parse_mode", "Markdown");
+        return outboundDispatcher.send(botToken, chatId, "editMessageText", requestBody, plainText);
+    }
+
+    /**
+     * Накопитель потокового ответа: собирает куски текста и не чаще раза в streamingEditIntervalMs
+     * обновляет сообщение-заглушку. Куски приходят последовательно (сигналы onNext не пересекаются).
+     */
+    private final class ProgressiveReply {
+        private final long chatId;
+        private final long messageId;
+        private final String botToken;
+        private final StringBuilder text = new StringBuilder();
+        private long lastEditNanos = System.nanoTime();
+        private int editedLength;
+        private volatile boolean completed;
+
+        private ProgressiveReply(long chatId, long messageId, String botToken) {
+            this.chatId = chatId;
+            this.messageId = messageId;
+            this.botToken = botToken;
+        }
+
+        void append(String chunk) {
+            text.append(chunk);
+            long now = System.nanoTime();
+            if (now - lastEditNanos < TimeUnit.MILLISECONDS.toNanos(streamingEditIntervalMs) || text.length() == editedLength) {
+                return;
+            }
+            lastEditNanos = now;
+            editedLength = text.length();
+            editMessageText(chatId, messageId, text + STREAMING_CURSOR, botToken, null, false)
+                    .exceptionally(e -> {
+                        log.debug("Intermediate edit of message {} in chat {} failed: {}", messageId, chatId, e.getMessage());
+                        return null;
+                    });
+        }
+
+        void complete() {
+            completed = true;
+        }
+
+        String text() {
+            return text.toString();
+        }
+    }
+
+    /**
+     * Отправляет фото через очередь исходящих с учётом лимитов Telegram.
+     * Если это фото уже отправлялось ботом, используется сохранённый file_id вместо URL;
+     * если file_id стал недействительным (400), фото тут же отправляется по URL в том же месте очереди чата.
+     * @return Future с ответом Telegram (результат sendPhoto).
+     */
+    public CompletableFuture<JsonNode> sendPhoto(long chatId, String photoUrl, String caption, String botToken, ObjectNode replyMarkup) {
+        String fileId = photoCache.get(botToken, photoUrl);
+        ObjectNode byUrl = buildPhotoRequest(chatId, photoUrl, caption, replyMarkup);
+        CompletableFuture<JsonNode> sent = fileId == null
+                ? outboundDispatcher.send(botToken, chatId, "sendPhoto", byUrl)
+                : outboundDispatcher.send(botToken, chatId, "sendPhoto", buildPhotoRequest(chatId, fileId, caption, replyMarkup), byUrl);
+
+        return sent.whenComplete((response, e) -> {
+            if (response != null) {
+                // После отправки по URL — новый file_id, после отправки по file_id — тот же
+                photoCache.remember(botToken, photoUrl, response);
+            } else if (fileId != null) {
+                photoCache.evict(botToken, photoUrl);
+            }
+        });
+    }
+
+    /**
+     * Отправляет фото товаров одним альбомом (2–10 штук) через очередь исходящих.
+     * Уже загруженные фото передаются по file_id; если Telegram отверг сохранённый file_id,
+     * альбом целиком отправляется по URL в том же месте очереди чата.
+     */
+    private CompletableFuture<JsonNode> sendMediaGroup(long chatId, List<CatalogSnapshot.Item> products, String botToken) {
+        ObjectNode cached = buildMediaGroupRequest(chatId, products, botToken, true);
+        ObjectNode byUrl = buildMediaGroupRequest(chatId, products, botToken, false);
+        boolean anyCached = !cached.equals(byUrl);
+
+        CompletableFuture<JsonNode> sent = anyCached
+                ? outboundDispatcher.send(botToken, chatId, "sendMediaGroup", cached, byUrl)
+                : outboundDispatcher.send(botToken, chatId, "sendMediaGroup", byUrl);
+        return sent.whenComplete((response, e) -> {
+            if (response != null) {
+                // result — массив сообщений в том же порядке, что и media
+                JsonNode messages = response.path("result");
+                for (int i = 0; i < products.size(); i++) {
+                    photoCache.rememberMessage(botToken, products.get(i).imageUrl(), messages.path(i));
+                }
+            } else if (anyCached) {
+                products.forEach(product -> photoCache.evict(botToken, product.imageUrl()));
+            }
+        });
+    }
+
+    private ObjectNode buildMediaGroupRequest(long chatId, List<CatalogSnapshot.Item> products, String botToken, boolean useCachedFileIds) {
+        ArrayNode media = objectMapper.createArrayNode();
+        for (CatalogSnapshot.Item product : products) {
+            String fileId = useCachedFileIds ? photoCache.get(botToken, product.imageUrl()) : null;
+
+            ObjectNode item = objectMapper.createObjectNode();
+            item.put("type", "photo");
+            item.put("media", fileId != null ? fileId : product.imageUrl());
+            item.put("caption", buildProductCaption(product));
+            item.put("parse_mode", "Markdown");
+            media.add(item);
+        }
+
+        ObjectNode requestBody = objectMapper.createObjectNode();
+        requestBody.put("chat_id", chatId);
+        requestBody.set("media", media);
+        return requestBody;
+    }
+
+    private ObjectNode buildPhotoRequest(long chatId, String photo, String caption, ObjectNode replyMarkup) {
         ObjectNode requestBody = objectMapper.createObjectNode();
         requestBody.put("chat_id", chatId);
-        requestBody.put("photo", photoUrl);
+        requestBody.put("photo", photo);
         requestBody.put("caption", caption);
         requestBody.put("parse_mode", "Markdown");
         
         if (replyMarkup != null) {
             requestBody.set("reply_markup", replyMarkup);
         }
-
-        telegramWebClient.post()
-                .uri(url)
-                .bodyValue(requestBody)
-                .retrieve()
-                .bodyToMono(JsonNode.class)
-                .doOnError(WebClientResponseException.class, e -> 
-                    log.error("Ошибка при отправке фото в Telegram: {} - {}", 
-                             e.getStatusCode(), e.getResponseBodyAsString()))
-                .onErrorResume(e -> Mono.empty())
-                .subscribe();
+        return requestBody;
     }
 }
\ No newline at end of file
@@ -0,0 +1,252 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.util.KeyedSerialExecutor;
+import com.chatalyst.backend.util.UpdateIdWindow;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Очередь входящих обновлений Telegram.
+ * Вебхук только кладёт обновление в ограниченную очередь и сразу отвечает 200,
+ * а обработку (БД, OpenAI, отправка ответов) выполняют рабочие потоки telegramUpdateExecutor
+ * (платформенные или виртуальные, см. TelegramExecutorConfig).
+ * Обновления одного чата (бот + chatId) обрабатываются строго по порядку,
+ * разные чаты — параллельно. Повторные доставки одного update_id отбрасываются
+ * ещё до постановки в очередь.
+ * Пока ждётся ответ OpenAI, рабочий поток свободен: очередь чата и разрешение семафора
+ * остаются занятыми до завершения асинхронной обработки.
+ */
+@Service
+@Slf4j
+public class TelegramUpdateDispatcher {
+
+    /**
+     * Что делать, если очередь заполнена.
+     */
+    public enum OverflowPolicy {
+        /** Отбросить обновление и ответить Telegram 200. */
+        DROP,
+        /** Подождать освобождения места не дольше offer-timeout, затем отбросить. */
+        BLOCK,
+        /** Ответить Telegram ошибкой, чтобы он повторил доставку позже. */
+        RETRY
+    }
+
+    /**
+     * Результат постановки обновления в очередь.
+     */
+    public enum Admission {
+        ACCEPTED,
+        DUPLICATE,
+        DROPPED,
+        REJECTED
+    }
+
+    private final TelegramService telegramService;
+    private final OverflowPolicy overflowPolicy;
+    private final long offerTimeoutMs;
+    private final int capacity;
+
+    // Ограничивает количество обновлений в очереди и в обработке одновременно
+    private final Semaphore permits;
+    private final KeyedSerialExecutor<String> chatLanes;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicBoolean shuttingDown = new AtomicBoolean();
+
+    // Окна последних update_id по ботам
+    private final ConcurrentHashMap<String, UpdateIdWindow> seenUpdates = new ConcurrentHashMap<>();
+    private final int dedupWindow;
+    private final int dedupMaxBots;
+
+    private final Counter acceptedCounter;
+    private final Counter droppedCounter;
+    private final Counter rejectedCounter;
+    private final Counter duplicateCounter;
+    private final Counter staleCounter;
+    private final Timer processingTimer;
+
+    public TelegramUpdateDispatcher(TelegramService telegramService,
+                                    MeterRegistry meterRegistry,
+                                    @Qualifier("telegramUpdateExecutor") Executor workers,
+                                    @Value("${telegram.updates.queue-capacity:1000}") int capacity,
+                                    @Value("${telegram.updates.overflow-policy:RETRY}") OverflowPolicy overflowPolicy,
+                                    @Value("${telegram.updates.offer-timeout-ms:200}") long offerTimeoutMs,
+                                    @Value("${telegram.updates.dedup-window:1024}") int dedupWindow,
+                                    @Value("${telegram.updates.dedup-max-bots:10000}") int dedupMaxBots) {
+        this.telegramService = telegramService;
+        this.overflowPolicy = overflowPolicy;
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.capacity = capacity;
+        this.dedupWindow = dedupWindow;
+        this.dedupMaxBots = dedupMaxBots;
+        this.permits = new Semaphore(capacity);
+        this.chatLanes = new KeyedSerialExecutor<>(workers);
+
+        Gauge.builder("telegram.updates.queue.depth", this, d -> d.capacity - d.permits.availablePermits() - d.running.get())
+                .description("Обновления, ожидающие обработки")
+                .register(meterRegistry);
+        Gauge.builder("telegram.updates.in_flight", permits, p -> capacity - p.availablePermits())
+                .description("Обновления в очереди и в обработке")
+                .register(meterRegistry);
+        Gauge.builder("telegram.updates.running", running, AtomicInteger::get)
+                .description("Обновления, которые обрабатываются прямо сейчас")
+                .register(meterRegistry);
+        Gauge.builder("telegram.updates.active_chats", chatLanes, KeyedSerialExecutor::activeKeys)
+                .description("Чаты с обновлениями в очереди или в обработке")
+                .register(meterRegistry);
+        this.acceptedCounter = meterRegistry.counter("telegram.updates", "result", "accepted");
+        this.droppedCounter = meterRegistry.counter("telegram.updates", "result", "dropped");
+        this.rejectedCounter = meterRegistry.counter("telegram.updates", "result", "rejected");
+        this.duplicateCounter = meterRegistry.counter("telegram.updates", "result", "duplicate");
+        this.staleCounter = meterRegistry.counter("telegram.updates", "result", "stale");
+        this.processingTimer = meterRegistry.timer("telegram.updates.processing");
+
+        log.info("Telegram update queue: capacity={}, executor={}, overflow={}",
+                capacity, workers.getClass().getSimpleName(), overflowPolicy);
+    }
+
+    /**
+     * Ставит обновление в очередь на обработку.
+     * @param botIdentifier Идентификатор бота из URL вебхука.
+     * @param updateJson Входящее обновление Telegram.
+     * @return Результат постановки в очередь.
+     */
+    public Admission submit(String botIdentifier, JsonNode updateJson) {
+        if (shuttingDown.get()) {
+            rejectedCounter.increment();
+            return Admission.REJECTED;
+        }
+
+        long updateId = updateJson.path("update_id").asLong(0L);
+        UpdateIdWindow window = updateId > 0 ? windowFor(botIdentifier) : null;
+        if (window != null) {
+            UpdateIdWindow.Result seen = window.tryMark(updateId);
+            if (seen != UpdateIdWindow.Result.NEW) {
+                (seen == UpdateIdWindow.Result.DUPLICATE ? duplicateCounter : staleCounter).increment();
+                log.debug("Skipping {} update {} for bot {}", seen, updateId, botIdentifier);
+                return Admission.DUPLICATE;
+            }
+        }
+
+        if (!acquirePermit()) {
+            if (overflowPolicy == OverflowPolicy.RETRY) {
+                // Telegram доставит обновление повторно — оно не должно считаться уже увиденным
+                if (window != null) {
+                    window.unmark(updateId);
+                }
+                rejectedCounter.increment();
+                log.warn("Telegram update queue is full ({}), asking Telegram to retry update for bot {}",
+                        capacity, botIdentifier);
+                return Admission.REJECTED;
+            }
+            droppedCounter.increment();
+            log.warn("Telegram update queue is full ({}), dropping update for bot {}", capacity, botIdentifier);
+            return Admission.DROPPED;
+        }
+
+        try {
+            chatLanes.executeAsync(chatKey(botIdentifier, updateJson), () -> process(botIdentifier, updateJson));
+        } catch (RejectedExecutionException e) {
+            // Пул уже остановлен (завершение приложения)
+            permits.release();
+            if (window != null) {
+                window.unmark(updateId);
+            }
+            rejectedCounter.increment();
+            return Admission.REJECTED;
+        }
+        acceptedCounter.increment();
+        return Admission.ACCEPTED;
+    }
+
+    /**
+     * Окно update_id бота. Число окон ограничено, чтобы запросы на несуществующие
+     * идентификаторы ботов не раздували память; сверх лимита дедупликация не выполняется.
+     */
+    private UpdateIdWindow windowFor(String botIdentifier) {
+        UpdateIdWindow window = seenUpdates.get(botIdentifier);
+        if (window != null || seenUpdates.size() >= dedupMaxBots) {
+            return window;
+        }
+        return seenUpdates.computeIfAbsent(botIdentifier, k -> new UpdateIdWindow(dedupWindow));
+    }
+
+    private boolean acquirePermit() {
+        if (overflowPolicy != OverflowPolicy.BLOCK) {
+            return permits.tryAcquire();
+        }
+        try {
+            return permits.tryAcquire(offerTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private CompletableFuture<Void> process(String botIdentifier, JsonNode updateJson) {
+        running.incrementAndGet();
+        long startNanos = System.nanoTime();
+        CompletableFuture<Void> processing;
+        try {
+            processing = telegramService.processUpdateAsync(botIdentifier, updateJson);
+        } catch (Exception e) {
+            processing = CompletableFuture.failedFuture(e);
+        }
+        return processing.whenComplete((result, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                log.error("Error processing Telegram update for bot {}: {}", botIdentifier, cause.getMessage(), cause);
+            }
+            processingTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            running.decrementAndGet();
+            permits.release();
+        }).exceptionally(error -> null);
+    }
+
+    /**
+     * Ключ упорядочивания: бот + чат. Обновления без чата (редкие служебные типы)
+     * упорядочивать не нужно, для них используется update_id.
+     */
+    static String chatKey(String botIdentifier, JsonNode updateJson) {
+        JsonNode chat = updateJson.path("message").path("chat");
+        if (chat.isMissingNode()) {
+            chat = updateJson.path("edited_message").path("chat");
+        }
+        if (chat.isMissingNode()) {
+            chat = updateJson.path("callback_query").path("message").path("chat");
+        }
+        if (chat.has("id")) {
+            return botIdentifier + ":" + chat.get("id").asLong();
+        }
+        return botIdentifier + ":update:" + updateJson.path("update_id").asLong();
+    }
+
+    /**
+     * Перестаёт принимать новые обновления и ждёт, пока обработаются уже принятые.
+     * Ожидание не зависит от типа пула: все принятые обновления держат разрешение семафора.
+     */
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown.set(true);
+        try {
+            if (!permits.tryAcquire(capacity, 30, TimeUnit.SECONDS)) {
+                log.warn("Telegram update queue did not drain in time, {} updates left unprocessed",
+                        capacity - permits.availablePermits());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,28 +1,99 @@
 package com.chatalyst.backend.security.services;
 
-import com.chatalyst.backend.Repository.OpenAITokenUsageRepository;
+import com.chatalyst.backend.Repository.TokenUsageDailyRepository;
+import com.chatalyst.backend.Repository.TokenUsageHourlyRepository;
+import com.chatalyst.backend.dto.ChatTokenUsageDTO;
 import com.chatalyst.backend.dto.TokenUsageStatsDTO;
-import com.chatalyst.backend.model.OpenAITokenUsage;
+import com.chatalyst.backend.model.TokenUsageDaily;
+import com.chatalyst.backend.model.TokenUsageHourly;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 
+/**
+ * Статистика расхода токенов по итогам token_usage_daily / token_usage_hourly,
+ * которые ведёт TokenUsageWriter. Сырые строки openaitoken_usage не читаются:
+ * общая статистика бота — одна строка на день периода, по чату — одна строка на час с активностью.
+ */
 @Service
 @RequiredArgsConstructor
 public class TokenUsageService {
 
-    private final OpenAITokenUsageRepository tokenUsageRepository;
+    private static final int MAX_CHATS = 500;
+
+    private final TokenUsageDailyRepository dailyRepository;
+    private final TokenUsageHourlyRepository hourlyRepository;
 
     public TokenUsageStatsDTO getBotTokenUsageStats(String botIdentifier) {
-        List<OpenAITokenUsage> usages = tokenUsageRepository.findByBotIdentifier(botIdentifier);
+        return getBotTokenUsageStats(botIdentifier, null, null, null, false, 0);
+    }
+
+    /**
+     * @param from      Первый день периода (null — с начала истории).
+     * @param to        Последний день периода включительно (null — сегодня).
+     * @param chatId    Только этот чат (null — все чаты бота).
+     * @param byChat    Добавить разбивку по чатам (для статистики по всему боту).
+     * @param chatLimit Сколько чатов вернуть в разбивке.
+     */
+    public TokenUsageStatsDTO getBotTokenUsageStats(String botIdentifier, LocalDate from, LocalDate to,
+                                                    Long chatId, boolean byChat, int chatLimit) {
+        LocalDate end = to != null ? to : LocalDate.now();
+        LocalDate start = from != null ? from : LocalDate.EPOCH;
+        if (start.isAfter(end)) {
+            throw new RuntimeException("Дата начала периода позже даты окончания");
+        }
 
-        long totalRequests = usages.size();
-        long totalPromptTokens = usages.stream().mapToLong(OpenAITokenUsage::getPromptTokens).sum();
-        long totalCompletionTokens = usages.stream().mapToLong(OpenAITokenUsage::getCompletionTokens).sum();
-        double totalUsdCost = usages.stream().mapToDouble(OpenAITokenUsage::getUsdCost).sum();
-        double totalKztCost = usages.stream().mapToDouble(OpenAITokenUsage::getKztCost).sum();
+        TokenUsageStatsDTO stats = new TokenUsageStatsDTO();
+        stats.setBotIdentifier(botIdentifier);
+        stats.setFrom(from);
+        stats.setTo(end);
+        stats.setChatId(chatId);
+        long requests = 0;
+        long promptTokens = 0;
+        long completionTokens = 0;
+        double usdCost = 0;
+        double kztCost = 0;
+
+        if (chatId != null) {
+            for (TokenUsageHourly hour : hourlyRepository
+                    .findByBotIdentifierAndChatIdAndBucketStartGreaterThanEqualAndBucketStartLessThan(
+                            botIdentifier, chatId, start.atStartOfDay(), end.plusDays(1).atStartOfDay())) {
+                requests += hour.getRequests();
+                promptTokens += hour.getPromptTokens();
+                completionTokens += hour.getCompletionTokens();
+                usdCost += hour.getUsdCost();
+                kztCost += hour.getKztCost();
+            }
+        } else {
+            for (TokenUsageDaily day : dailyRepository.findByBotIdentifierAndUsageDateBetween(botIdentifier, start, end)) {
+                requests += day.getRequests();
+                promptTokens += day.getPromptTokens();
+                completionTokens += day.getCompletionTokens();
+                usdCost += day.getUsdCost();
+                kztCost += day.getKztCost();
+            }
+            if (byChat) {
+                stats.setChats(chatBreakdown(botIdentifier, start.atStartOfDay(), end.plusDays(1).atStartOfDay(),
+                        Math.max(1, Math.min(chatLimit, MAX_CHATS))));
+            }
+        }
+
+        stats.setTotalRequests(requests);
+        stats.setTotalPromptTokens(promptTokens);
+        stats.setTotalCompletionTokens(completionTokens);
+        stats.setTotalUsdCost(usdCost);
+        stats.setTotalKztCost(kztCost);
+        return stats;
+    }
 
-        return new TokenUsageStatsDTO(botIdentifier, totalRequests, totalPromptTokens, totalCompletionTokens, totalUsdCost, totalKztCost);
+    private List<ChatTokenUsageDTO> chatBreakdown(String botIdentifier, LocalDateTime from, LocalDateTime to, int limit) {
+        return hourlyRepository.sumByChat(botIdentifier, from, to, PageRequest.of(0, limit)).stream()
+                .map(chat -> new ChatTokenUsageDTO(chat.getChatId(), chat.getRequests(), chat.getPromptTokens(),
+                        chat.getCompletionTokens(), chat.getUsdCost(), chat.getKztCost()))
+                .toList();
     }
-}
\ No newline at end of file
+}
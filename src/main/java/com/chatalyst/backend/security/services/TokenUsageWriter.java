@@ -0,0 +1,439 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.model.OpenAITokenUsage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Отложенная запись статистики токенов (write-behind).
+ * Записи копятся в ограниченной очереди в памяти и пишутся в openaitoken_usage пакетами
+ * JdbcTemplate.batchUpdate — когда набралось batch-size записей или прошло flush-interval-ms.
+ * Вызывающий поток (в том числе event loop WebClient) не ждёт БД.
+ * Если БД недоступна, пакет возвращается в очередь и повторяется при следующем сбросе.
+ * Если пакет отвергнут из-за данных, записи пишутся по одной: испорченная запись после
+ * max-record-failures неудач уходит в журнал ошибок (dead letter) и больше не повторяется,
+ * чтобы не задерживать остальные. При остановке приложения очередь сбрасывается полностью.
+ * <p>
+ * В той же транзакции, что и сырые строки, обновляются итоги token_usage_hourly (бот, чат, час)
+ * и token_usage_daily (бот, день) — по ним TokenUsageService отвечает без чтения всей истории.
+ * Пустые итоги при первом запуске заполняются из уже накопленных строк openaitoken_usage.
+ * Заполнение берёт исключительную рекомендательную блокировку, а запись пакетов — разделяемую:
+ * при нескольких экземплярах итоги заполняет один, и параллельные пакеты не посчитаются дважды.
+ */
+@Service
+@Slf4j
+public class TokenUsageWriter {
+
+    private static final String INSERT_SQL = """
+            INSERT INTO openaitoken_usage
+                (bot_identifier, chat_id, prompt_tokens, completion_tokens, total_tokens, usd_cost, kzt_cost, timestamp)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String UPSERT_HOURLY_SQL = """
+            INSERT INTO token_usage_hourly
+                (bot_identifier, chat_id, bucket_start, requests, prompt_tokens, completion_tokens, total_tokens, usd_cost, kzt_cost)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (bot_identifier, chat_id, bucket_start) DO UPDATE SET
+                requests = token_usage_hourly.requests + EXCLUDED.requests,
+                prompt_tokens = token_usage_hourly.prompt_tokens + EXCLUDED.prompt_tokens,
+                completion_tokens = token_usage_hourly.completion_tokens + EXCLUDED.completion_tokens,
+                total_tokens = token_usage_hourly.total_tokens + EXCLUDED.total_tokens,
+                usd_cost = token_usage_hourly.usd_cost + EXCLUDED.usd_cost,
+                kzt_cost = token_usage_hourly.kzt_cost + EXCLUDED.kzt_cost
+            """;
+
+    private static final String UPSERT_DAILY_SQL = """
+            INSERT INTO token_usage_daily
+                (bot_identifier, usage_date, requests, prompt_tokens, completion_tokens, total_tokens, usd_cost, kzt_cost)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (bot_identifier, usage_date) DO UPDATE SET
+                requests = token_usage_daily.requests + EXCLUDED.requests,
+                prompt_tokens = token_usage_daily.prompt_tokens + EXCLUDED.prompt_tokens,
+                completion_tokens = token_usage_daily.completion_tokens + EXCLUDED.completion_tokens,
+                total_tokens = token_usage_daily.total_tokens + EXCLUDED.total_tokens,
+                usd_cost = token_usage_daily.usd_cost + EXCLUDED.usd_cost,
+                kzt_cost = token_usage_daily.kzt_cost + EXCLUDED.kzt_cost
+            """;
+
+    private static final String ROLLUPS_LOCK_SQL = "SELECT pg_advisory_xact_lock(hashtext('token_usage_rollups'))";
+
+    private static final String ROLLUPS_SHARED_LOCK_SQL =
+            "SELECT pg_advisory_xact_lock_shared(hashtext('token_usage_rollups'))";
+
+    private static final String ROLLUPS_MISSING_SQL = """
+            SELECT NOT EXISTS (SELECT 1 FROM token_usage_daily) AND EXISTS (SELECT 1 FROM openaitoken_usage)
+            """;
+
+    private static final String BACKFILL_HOURLY_SQL = """
+            INSERT INTO token_usage_hourly
+                (bot_identifier, chat_id, bucket_start, requests, prompt_tokens, completion_tokens, total_tokens, usd_cost, kzt_cost)
+            SELECT bot_identifier, COALESCE(chat_id, 0), date_trunc('hour', timestamp), COUNT(*),
+                   COALESCE(SUM(prompt_tokens), 0), COALESCE(SUM(completion_tokens), 0), COALESCE(SUM(total_tokens), 0),
+                   COALESCE(SUM(usd_cost), 0), COALESCE(SUM(kzt_cost), 0)
+            FROM openaitoken_usage
+            WHERE bot_identifier IS NOT NULL AND timestamp IS NOT NULL
+            GROUP BY 1, 2, 3
+            """;
+
+    private static final String BACKFILL_DAILY_SQL = """
+            INSERT INTO token_usage_daily
+                (bot_identifier, usage_date, requests, prompt_tokens, completion_tokens, total_tokens, usd_cost, kzt_cost)
+            SELECT bot_identifier, CAST(timestamp AS date), COUNT(*),
+                   COALESCE(SUM(prompt_tokens), 0), COALESCE(SUM(completion_tokens), 0), COALESCE(SUM(total_tokens), 0),
+                   COALESCE(SUM(usd_cost), 0), COALESCE(SUM(kzt_cost), 0)
+            FROM openaitoken_usage
+            WHERE bot_identifier IS NOT NULL AND timestamp IS NOT NULL
+            GROUP BY 1, 2
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int maxRecordFailures;
+    private final BlockingQueue<Pending> backlog;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    // Итоги сверены с историей; меняется только на потоке сброса
+    private volatile boolean rollupsReady;
+
+    private final Timer flushTimer;
+    private final Counter writtenCounter;
+    private final Counter failedCounter;
+    private final Counter droppedCounter;
+    private final Counter rejectedCounter;
+
+    public TokenUsageWriter(JdbcTemplate jdbcTemplate,
+                            TransactionTemplate transactionTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${openai.usage.batch-size:200}") int batchSize,
+                            @Value("${openai.usage.flush-interval-ms:2000}") long flushIntervalMs,
+                            @Value("${openai.usage.queue-capacity:100000}") int queueCapacity,
+                            @Value("${openai.usage.max-record-failures:5}") int maxRecordFailures) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.maxRecordFailures = maxRecordFailures;
+        this.backlog = new LinkedBlockingQueue<>(queueCapacity);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "token-usage-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+
+        Gauge.builder("openai.usage.writer.backlog", backlog, BlockingQueue::size)
+                .description("Записи статистики токенов, ожидающие записи в БД")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("openai.usage.writer.flush")
+                .description("Время записи одного пакета статистики токенов")
+                .register(meterRegistry);
+        this.writtenCounter = meterRegistry.counter("openai.usage.writer.records", "result", "written");
+        this.failedCounter = meterRegistry.counter("openai.usage.writer.records", "result", "failed");
+        this.droppedCounter = meterRegistry.counter("openai.usage.writer.records", "result", "dropped");
+        this.rejectedCounter = meterRegistry.counter("openai.usage.writer.records", "result", "rejected");
+    }
+
+    /**
+     * Ставит запись в очередь. Не блокирует; при переполненной очереди запись теряется (с предупреждением).
+     */
+    public void submit(OpenAITokenUsage usage) {
+        if (!backlog.offer(new Pending(usage, 0))) {
+            droppedCounter.increment();
+            log.warn("Token usage backlog is full, dropping record for bot {}", usage.getBotIdentifier());
+            return;
+        }
+        if (backlog.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushSafely);
+            } catch (RejectedExecutionException e) {
+                flushRequested.set(false); // Остановка: остаток сбросит shutdown()
+            }
+        }
+    }
+
+    /**
+     * Заполнение итогов запускается после старта (таблицы уже созданы Hibernate) на потоке сброса,
+     * поэтому не пересекается с записью пакетов.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillRollupsOnStartup() {
+        flusher.execute(() -> {
+            try {
+                ensureRollups();
+            } catch (RuntimeException e) {
+                log.error("Token usage rollup backfill failed, will retry on next flush: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    private void flushSafely() {
+        flushRequested.set(false);
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Token usage flush failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Пишет накопленные записи пакетами по batchSize, пока очередь не опустеет.
+     * @throws RuntimeException если БД недоступна; записи остаются в очереди.
+     */
+    void flush() {
+        if (backlog.isEmpty()) {
+            return;
+        }
+        ensureRollups();
+        List<Pending> batch = new ArrayList<>(batchSize);
+        // Отвергнутые записи возвращаются в очередь только после сброса, иначе этот же цикл
+        // исчерпал бы все их попытки разом
+        List<Pending> retries = new ArrayList<>();
+        try {
+            while (backlog.drainTo(batch, batchSize) > 0) {
+                try {
+                    flushTimer.record(() -> writeBatch(usages(batch)));
+                    writtenCounter.increment(batch.size());
+                } catch (RuntimeException e) {
+                    if (databaseUnavailable(e)) {
+                        // Повтор при следующем сбросе; неудача не засчитывается записям
+                        failedCounter.increment(batch.size());
+                        requeue(batch);
+                        throw e;
+                    }
+                    log.warn("Token usage batch of {} records rejected, writing records one by one: {}",
+                            batch.size(), e.getMessage());
+                    writeOneByOne(batch, retries);
+                }
+                batch.clear();
+            }
+        } finally {
+            requeue(retries);
+        }
+    }
+
+    /**
+     * Ищет в отвергнутом пакете испорченные записи: остальные записываются сразу,
+     * испорченная попадает в retries и повторяется при следующих сбросах, пока не наберёт
+     * maxRecordFailures неудач.
+     */
+    private void writeOneByOne(List<Pending> batch, List<Pending> retries) {
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            try {
+                writeBatch(List.of(pending.usage()));
+                writtenCounter.increment();
+            } catch (RuntimeException e) {
+                if (databaseUnavailable(e)) {
+                    failedCounter.increment(batch.size() - i);
+                    requeue(batch.subList(i, batch.size()));
+                    throw e;
+                }
+                failedCounter.increment();
+                int failures = pending.failures() + 1;
+                if (failures < maxRecordFailures) {
+                    retries.add(new Pending(pending.usage(), failures));
+                } else {
+                    rejectedCounter.increment();
+                    OpenAITokenUsage usage = pending.usage();
+                    log.error("Dropping token usage record after {} failed writes: bot={} chat={} prompt={} completion={} "
+                                    + "total={} usd={} kzt={} timestamp={}: {}", failures, usage.getBotIdentifier(),
+                            usage.getChatId(), usage.getPromptTokens(), usage.getCompletionTokens(),
+                            usage.getTotalTokens(), usage.getUsdCost(), usage.getKztCost(), usage.getTimestamp(),
+                            e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Возвращает записи в очередь (лишнее отбрасывается по ёмкости).
+     */
+    private void requeue(List<Pending> pending) {
+        int requeued = 0;
+        for (Pending record : pending) {
+            if (backlog.offer(record)) {
+                requeued++;
+            }
+        }
+        droppedCounter.increment(pending.size() - requeued);
+    }
+
+    /**
+     * Ошибка доступа к БД (соединение, таймаут, транзакция), а не отказ из-за данных записи.
+     */
+    static boolean databaseUnavailable(RuntimeException e) {
+        return e instanceof DataAccessResourceFailureException
+                || e instanceof TransientDataAccessException
+                || e instanceof TransactionException;
+    }
+
+    private static List<OpenAITokenUsage> usages(List<Pending> batch) {
+        List<OpenAITokenUsage> usages = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            usages.add(pending.usage());
+        }
+        return usages;
+    }
+
+    /**
+     * Одноразово заполняет пустые итоги из сырых строк (после обновления со старой версии).
+     * Проверка и заполнение идут под исключительной блокировкой: другие экземпляры ждут,
+     * а затем видят уже заполненные итоги.
+     */
+    private void ensureRollups() {
+        if (rollupsReady) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute(ROLLUPS_LOCK_SQL);
+            if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(ROLLUPS_MISSING_SQL, Boolean.class))) {
+                int hours = jdbcTemplate.update(BACKFILL_HOURLY_SQL);
+                int days = jdbcTemplate.update(BACKFILL_DAILY_SQL);
+                log.info("Backfilled token usage rollups: {} hourly and {} daily rows", hours, days);
+            }
+        });
+        rollupsReady = true;
+    }
+
+    /**
+     * Сырые строки и приращения итогов пишутся одной транзакцией: повтор пакета после ошибки
+     * не посчитает токены дважды.
+     */
+    private void writeBatch(List<OpenAITokenUsage> batch) {
+        Map<HourKey, Totals> hourly = new HashMap<>();
+        Map<DayKey, Totals> daily = new HashMap<>();
+        for (OpenAITokenUsage usage : batch) {
+            if (usage.getBotIdentifier() == null || usage.getTimestamp() == null) {
+                continue;
+            }
+            LocalDateTime timestamp = usage.getTimestamp();
+            long chatId = usage.getChatId() != null ? usage.getChatId() : 0L;
+            hourly.computeIfAbsent(new HourKey(usage.getBotIdentifier(), chatId, timestamp.truncatedTo(ChronoUnit.HOURS)),
+                    k -> new Totals()).add(usage);
+            daily.computeIfAbsent(new DayKey(usage.getBotIdentifier(), timestamp.toLocalDate()),
+                    k -> new Totals()).add(usage);
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute(ROLLUPS_SHARED_LOCK_SQL);
+            insertRaw(batch);
+            jdbcTemplate.batchUpdate(UPSERT_HOURLY_SQL, new ArrayList<>(hourly.entrySet()), hourly.size(), (ps, entry) -> {
+                HourKey key = entry.getKey();
+                ps.setString(1, key.botIdentifier());
+                ps.setLong(2, key.chatId());
+                ps.setTimestamp(3, Timestamp.valueOf(key.bucketStart()));
+                entry.getValue().bind(ps, 4);
+            });
+            jdbcTemplate.batchUpdate(UPSERT_DAILY_SQL, new ArrayList<>(daily.entrySet()), daily.size(), (ps, entry) -> {
+                DayKey key = entry.getKey();
+                ps.setString(1, key.botIdentifier());
+                ps.setDate(2, Date.valueOf(key.date()));
+                entry.getValue().bind(ps, 3);
+            });
+        });
+        log.debug("Wrote {} token usage records ({} hourly, {} daily rollups)", batch.size(), hourly.size(), daily.size());
+    }
+
+    private void insertRaw(List<OpenAITokenUsage> batch) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, usage) -> {
+            ps.setString(1, usage.getBotIdentifier());
+            ps.setObject(2, usage.getChatId());
+            ps.setObject(3, usage.getPromptTokens());
+            ps.setObject(4, usage.getCompletionTokens());
+            ps.setObject(5, usage.getTotalTokens());
+            ps.setObject(6, usage.getUsdCost());
+            ps.setObject(7, usage.getKztCost());
+            ps.setTimestamp(8, usage.getTimestamp() != null ? Timestamp.valueOf(usage.getTimestamp()) : null);
+        });
+    }
+
+    /**
+     * Запись в очереди и число неудачных попыток записать её отдельно.
+     */
+    private record Pending(OpenAITokenUsage usage, int failures) {
+    }
+
+    private record HourKey(String botIdentifier, long chatId, LocalDateTime bucketStart) {
+    }
+
+    private record DayKey(String botIdentifier, LocalDate date) {
+    }
+
+    /**
+     * Приращение итога по записям пакета.
+     */
+    private static final class Totals {
+        private long requests;
+        private long promptTokens;
+        private long completionTokens;
+        private long totalTokens;
+        private double usdCost;
+        private double kztCost;
+
+        void add(OpenAITokenUsage usage) {
+            requests++;
+            promptTokens += valueOf(usage.getPromptTokens());
+            completionTokens += valueOf(usage.getCompletionTokens());
+            totalTokens += valueOf(usage.getTotalTokens());
+            usdCost += usage.getUsdCost() != null ? usage.getUsdCost() : 0;
+            kztCost += usage.getKztCost() != null ? usage.getKztCost() : 0;
+        }
+
+        void bind(PreparedStatement ps, int index) throws SQLException {
+            ps.setLong(index, requests);
+            ps.setLong(index + 1, promptTokens);
+            ps.setLong(index + 2, completionTokens);
+            ps.setLong(index + 3, totalTokens);
+            ps.setDouble(index + 4, usdCost);
+            ps.setDouble(index + 5, kztCost);
+        }
+
+        private static long valueOf(Integer tokens) {
+            return tokens != null ? tokens : 0;
+        }
+    }
+
+    /**
+     * Останавливает плановые сбросы и записывает всё, что осталось в очереди.
+     */
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(10, TimeUnit.SECONDS)) {
+                flusher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Final token usage flush failed, {} records lost: {}", backlog.size(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.chatalyst.backend.util;
+
+import java.util.*;
+
+/**
+ * Поиск множества фраз в тексте за один проход (автомат Ахо — Корасик).
+ * Сравнение без учёта регистра по кодовым точкам Unicode, поэтому кириллица и казахские буквы
+ * обрабатываются так же, как латиница. Совпадение засчитывается только целым словом:
+ * до и после фразы не должно быть буквы или цифры.
+ * Автомат неизменяем после построения и безопасен для чтения из нескольких потоков.
+ *
+ * @param <T> Значение, связанное с фразой (например, товар).
+ */
+public class AhoCorasickMatcher<T> {
+
+    private static final int ROOT = 0;
+    private static final int[] EMPTY = new int[0];
+
+    // Переходы узла: отсортированные кодовые точки и соответствующие им узлы
+    private final int[][] edgeKeys;
+    private final int[][] edgeTargets;
+    private final int[] fail;
+    // Индексы фраз, заканчивающихся в узле (включая фразы суффиксных узлов)
+    private final int[][] outputs;
+    private final int[] patternLengths;
+    private final List<T> values;
+
+    /**
+     * @param patterns Фразы и связанные с ними значения; пустые фразы пропускаются.
+     *                 Одинаковые фразы с разными значениями допустимы.
+     */
+    public AhoCorasickMatcher(Collection<Map.Entry<String, T>> patterns) {
+        List<Map<Integer, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> terminal = new ArrayList<>();
+        trie.add(new HashMap<>());
+        terminal.add(new ArrayList<>());
+
+        List<Integer> lengths = new ArrayList<>();
+        List<T> patternValues = new ArrayList<>();
+        for (Map.Entry<String, T> pattern : patterns) {
+            String phrase = pattern.getKey() == null ? "" : pattern.getKey().strip();
+            if (phrase.isEmpty()) {
+                continue;
+            }
+            int node = ROOT;
+            int length = 0;
+            for (int cp : phrase.codePoints().toArray()) {
+                int folded = fold(cp);
+                Integer next = trie.get(node).get(folded);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<>());
+                    terminal.add(new ArrayList<>());
+                    trie.get(node).put(folded, next);
+                }
+                node = next;
+                length++;
+            }
+            terminal.get(node).add(patternValues.size());
+            lengths.add(length);
+            patternValues.add(pattern.getValue());
+        }
+
+        int size = trie.size();
+        this.edgeKeys = new int[size][];
+        this.edgeTargets = new int[size][];
+        for (int node = 0; node < size; node++) {
+            TreeMap<Integer, Integer> sorted = new TreeMap<>(trie.get(node));
+            edgeKeys[node] = sorted.keySet().stream().mapToInt(Integer::intValue).toArray();
+            edgeTargets[node] = sorted.values().stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        // Суффиксные ссылки обходом в ширину: у узла на глубине d ссылка ведёт на меньшую глубину,
+        // поэтому её выходы к моменту обработки узла уже собраны
+        this.fail = new int[size];
+        this.outputs = new int[size][];
+        outputs[ROOT] = toArray(terminal.get(ROOT));
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : edgeTargets[ROOT]) {
+            fail[child] = ROOT;
+            outputs[child] = toArray(terminal.get(child));
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = 0; i < edgeKeys[node].length; i++) {
+                int cp = edgeKeys[node][i];
+                int child = edgeTargets[node][i];
+                int state = fail[node];
+                int next;
+                while ((next = transition(state, cp)) < 0 && state != ROOT) {
+                    state = fail[state];
+                }
+                fail[child] = next < 0 ? ROOT : next;
+                outputs[child] = merge(toArray(terminal.get(child)), outputs[fail[child]]);
+                queue.add(child);
+            }
+        }
+
+        this.patternLengths = lengths.stream().mapToInt(Integer::intValue).toArray();
+        this.values = List.copyOf(patternValues);
+    }
+
+    /**
+     * Находит значения всех фраз, встречающихся в тексте целым словом.
+     * @param text Текст для поиска.
+     * @param limit Максимальное число результатов.
+     * @return Различные значения в порядке появления фраз в тексте.
+     */
+    public List<T> findAll(String text, int limit) {
+        if (text == null || text.isEmpty() || values.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        int[] cps = text.codePoints().map(AhoCorasickMatcher::fold).toArray();
+
+        LinkedHashSet<T> found = new LinkedHashSet<>();
+        int state = ROOT;
+        for (int pos = 0; pos < cps.length; pos++) {
+            int cp = cps[pos];
+            int next;
+            while ((next = transition(state, cp)) < 0 && state != ROOT) {
+                state = fail[state];
+            }
+            state = next < 0 ? ROOT : next;
+
+            int[] matched = outputs[state];
+            if (matched.length == 0 || isWordPart(cps, pos + 1)) {
+                continue;
+            }
+            for (int patternIndex : matched) {
+                int start = pos + 1 - patternLengths[patternIndex];
+                if (!isWordPart(cps, start - 1) && found.add(values.get(patternIndex)) && found.size() >= limit) {
+                    return List.copyOf(found);
+                }
+            }
+        }
+        return List.copyOf(found);
+    }
+
+    public int patternCount() {
+        return values.size();
+    }
+
+    private int transition(int node, int cp) {
+        int i = Arrays.binarySearch(edgeKeys[node], cp);
+        return i >= 0 ? edgeTargets[node][i] : -1;
+    }
+
+    private static boolean isWordPart(int[] cps, int index) {
+        return index >= 0 && index < cps.length && Character.isLetterOrDigit(cps[index]);
+    }
+
+    private static int fold(int cp) {
+        return Character.toLowerCase(Character.toUpperCase(cp));
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        return list.isEmpty() ? EMPTY : list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] merge(int[] own, int[] inherited) {
+        if (inherited.length == 0) {
+            return own;
+        }
+        if (own.length == 0) {
+            return inherited;
+        }
+        int[] merged = Arrays.copyOf(own, own.length + inherited.length);
+        System.arraycopy(inherited, 0, merged, own.length, inherited.length);
+        return merged;
+    }
+}
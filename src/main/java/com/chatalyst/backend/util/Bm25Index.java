@@ -0,0 +1,125 @@
+package com.chatalyst.backend.util;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Неизменяемый инвертированный индекс с ранжированием BM25.
+ * Документ — любой объект, из которого извлекается текст; термы получаются через TextAnalyzer.
+ * Построение O(суммарная длина текстов), поиск — только по спискам документов термов запроса.
+ *
+ * @param <T> Тип документа.
+ */
+public class Bm25Index<T> {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final List<T> documents;
+    private final Map<String, Postings> postings;
+    private final int[] documentLengths;
+    private final double averageLength;
+
+    /**
+     * @param documents Документы индекса.
+     * @param text Текст документа; поля с повышенным весом можно повторить в нём несколько раз.
+     */
+    public Bm25Index(List<T> documents, Function<T, String> text) {
+        this.documents = List.copyOf(documents);
+        this.documentLengths = new int[this.documents.size()];
+
+        Map<String, Map<Integer, Integer>> frequencies = new HashMap<>();
+        long totalLength = 0;
+        for (int doc = 0; doc < this.documents.size(); doc++) {
+            List<String> terms = TextAnalyzer.terms(text.apply(this.documents.get(doc)));
+            documentLengths[doc] = terms.size();
+            totalLength += terms.size();
+            for (String term : terms) {
+                frequencies.computeIfAbsent(term, k -> new LinkedHashMap<>()).merge(doc, 1, Integer::sum);
+            }
+        }
+        this.averageLength = this.documents.isEmpty() ? 0 : (double) totalLength / this.documents.size();
+
+        Map<String, Postings> built = new HashMap<>(frequencies.size() * 2);
+        frequencies.forEach((term, docs) -> {
+            int[] ids = new int[docs.size()];
+            int[] tfs = new int[docs.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> entry : docs.entrySet()) {
+                ids[i] = entry.getKey();
+                tfs[i] = entry.getValue();
+                i++;
+            }
+            built.put(term, new Postings(ids, tfs, idf(ids.length)));
+        });
+        this.postings = built;
+    }
+
+    /**
+     * Ищет документы по взвешенным термам запроса.
+     * @param queryTerms Терм → вес (например, 1.0 для текущего сообщения и меньше для истории).
+     * @param limit Сколько лучших документов вернуть.
+     * @return Документы по убыванию релевантности; только с ненулевым счётом.
+     */
+    public List<T> search(Map<String, Double> queryTerms, int limit) {
+        if (queryTerms.isEmpty() || documents.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        double[] scores = new double[documents.size()];
+        boolean any = false;
+        for (Map.Entry<String, Double> query : queryTerms.entrySet()) {
+            Postings list = postings.get(query.getKey());
+            if (list == null) {
+                continue;
+            }
+            any = true;
+            for (int i = 0; i < list.documents.length; i++) {
+                int doc = list.documents[i];
+                int tf = list.frequencies[i];
+                double norm = K1 * (1 - B + B * documentLengths[doc] / averageLength);
+                scores[doc] += query.getValue() * list.idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+        if (!any) {
+            return List.of();
+        }
+
+        PriorityQueue<Integer> top = new PriorityQueue<>(limit + 1, Comparator.comparingDouble(doc -> scores[doc]));
+        for (int doc = 0; doc < scores.length; doc++) {
+            if (scores[doc] <= 0) {
+                continue;
+            }
+            top.add(doc);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<T> result = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            result.add(documents.get(top.poll()));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Удобный вариант: все термы текста с весом 1.
+     */
+    public List<T> search(String query, int limit) {
+        Map<String, Double> terms = new HashMap<>();
+        TextAnalyzer.terms(query).forEach(term -> terms.put(term, 1.0));
+        return search(terms, limit);
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    private double idf(int documentFrequency) {
+        int n = documentLengths.length;
+        return Math.log(1 + (n - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    private record Postings(int[] documents, int[] frequencies, double idf) {
+    }
+}
@@ -0,0 +1,160 @@
+package com.chatalyst.backend.util;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Автомат "предохранитель" для вызовов внешнего сервиса.
+ * CLOSED — вызовы идут, результаты последних windowSize вызовов копятся в окне; когда доля ошибок
+ * (при не менее minimumCalls вызовов) достигает порога, автомат переходит в OPEN.
+ * OPEN — вызовы сразу отклоняются; через openDuration автомат переходит в HALF_OPEN.
+ * HALF_OPEN — пропускается не больше halfOpenProbes пробных вызовов: если все успешны — CLOSED,
+ * первая же ошибка — снова OPEN.
+ *
+ * Каждое разрешение привязано к поколению состояния: результаты вызовов, начатых до смены состояния,
+ * игнорируются и не влияют на новое окно или пробы.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Уведомление о смене состояния (вызывается под блокировкой автомата — должно быть быстрым).
+     */
+    public interface Listener {
+        void onTransition(State from, State to);
+    }
+
+    /** Значение acquire(), означающее отказ. */
+    public static final long REJECTED = -1;
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openDurationNanos;
+    private final int halfOpenProbes;
+    private final LongSupplier nanoClock;
+    private final Listener listener;
+
+    // Окно результатов в состоянии CLOSED: true — ошибка
+    private final boolean[] window;
+    private int windowPosition;
+    private int windowCount;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedAtNanos;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+                          Duration openDuration, int halfOpenProbes, Listener listener) {
+        this(windowSize, minimumCalls, failureRateThreshold, openDuration, halfOpenProbes, listener, System::nanoTime);
+    }
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+                          Duration openDuration, int halfOpenProbes, Listener listener, LongSupplier nanoClock) {
+        this.window = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationNanos = openDuration.toNanos();
+        this.halfOpenProbes = halfOpenProbes;
+        this.listener = listener;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Запрашивает разрешение на вызов.
+     * @return Поколение, которое нужно передать в onSuccess/onFailure/onCancel, или REJECTED.
+     */
+    public synchronized long acquire() {
+        if (state == State.OPEN) {
+            if (nanoClock.getAsLong() - openedAtNanos < openDurationNanos) {
+                return REJECTED;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight + probeSuccesses >= halfOpenProbes) {
+                return REJECTED;
+            }
+            probesInFlight++;
+        }
+        return generation;
+    }
+
+    public synchronized void onSuccess(long permit) {
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            probesInFlight--;
+            if (++probeSuccesses >= halfOpenProbes) {
+                transition(State.CLOSED);
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure(long permit) {
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            transition(State.OPEN);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (windowCount >= minimumCalls && (double) windowFailures / windowCount >= failureRateThreshold) {
+                transition(State.OPEN);
+            }
+        }
+    }
+
+    /**
+     * Вызов отменён без результата (например, потребитель отписался): освобождает пробу, в окно не попадает.
+     */
+    public synchronized void onCancel(long permit) {
+        if (permit == generation && state == State.HALF_OPEN) {
+            probesInFlight--;
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowPosition]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowPosition] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowPosition = (windowPosition + 1) % window.length;
+    }
+
+    private void transition(State to) {
+        State from = state;
+        state = to;
+        generation++;
+        windowPosition = 0;
+        windowCount = 0;
+        windowFailures = 0;
+        probesInFlight = 0;
+        probeSuccesses = 0;
+        if (to == State.OPEN) {
+            openedAtNanos = nanoClock.getAsLong();
+        }
+        if (listener != null) {
+            listener.onTransition(from, to);
+        }
+    }
+}
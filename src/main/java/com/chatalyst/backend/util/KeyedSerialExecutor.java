@@ -0,0 +1,149 @@
+package com.chatalyst.backend.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Исполнитель, который выполняет задачи с одинаковым ключом строго по очереди (FIFO),
+ * а задачи с разными ключами — параллельно на общем пуле.
+ * Для каждого активного ключа держится своя очередь ("полоса"); полоса удаляется,
+ * как только в ней не остаётся задач, поэтому память зависит только от числа активных ключей.
+ * Асинхронная задача (executeAsync) занимает полосу до завершения своего CompletionStage,
+ * но не держит поток пула, пока ждёт.
+ */
+@Slf4j
+public class KeyedSerialExecutor<K> {
+
+    // Сколько задач одной полосы выполнить подряд, прежде чем уступить поток другим ключам
+    private static final int DEFAULT_BATCH_SIZE = 16;
+
+    private final Executor delegate;
+    private final int batchSize;
+    private final ConcurrentHashMap<K, Lane> lanes = new ConcurrentHashMap<>();
+
+    public KeyedSerialExecutor(Executor delegate) {
+        this(delegate, DEFAULT_BATCH_SIZE);
+    }
+
+    public KeyedSerialExecutor(Executor delegate, int batchSize) {
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Ставит задачу в очередь ключа. Задачи одного ключа выполняются в порядке вызова execute.
+     * @param key Ключ упорядочивания (например, бот + чат).
+     * @param task Задача.
+     * @throws RejectedExecutionException если пул отказался принять полосу.
+     */
+    public void execute(K key, Runnable task) {
+        enqueue(key, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Ставит асинхронную задачу в очередь ключа. Следующая задача этого ключа начнётся
+     * только после завершения возвращённого задачей CompletionStage (успешного или с ошибкой).
+     * @param key Ключ упорядочивания.
+     * @param task Запускает работу и возвращает её завершение (null — задача уже завершена).
+     * @throws RejectedExecutionException если пул отказался принять полосу.
+     */
+    public void executeAsync(K key, Supplier<? extends CompletionStage<?>> task) {
+        enqueue(key, task);
+    }
+
+    private void enqueue(K key, Supplier<? extends CompletionStage<?>> task) {
+        boolean[] created = new boolean[1];
+        Lane lane = lanes.compute(key, (k, existing) -> {
+            Lane l = existing;
+            if (l == null) {
+                l = new Lane();
+                created[0] = true;
+            }
+            l.tasks.add(task);
+            return l;
+        });
+        if (created[0]) {
+            schedule(key, lane);
+        }
+    }
+
+    /**
+     * @return Количество ключей, у которых есть задачи в очереди или в работе.
+     */
+    public int activeKeys() {
+        return lanes.size();
+    }
+
+    private void schedule(K key, Lane lane) {
+        try {
+            delegate.execute(() -> drain(key, lane));
+        } catch (RejectedExecutionException e) {
+            lanes.remove(key, lane);
+            throw e;
+        }
+    }
+
+    private void drain(K key, Lane lane) {
+        for (int i = 0; i < batchSize; i++) {
+            Supplier<? extends CompletionStage<?>> task = poll(key);
+            if (task == null) {
+                return; // Полоса пуста и уже удалена
+            }
+            CompletionStage<?> completion;
+            try {
+                completion = task.get();
+            } catch (RuntimeException e) {
+                log.error("Task for key {} failed: {}", key, e.getMessage(), e);
+                continue;
+            }
+            if (completion != null && !completion.toCompletableFuture().isDone()) {
+                // Полоса остаётся занятой (новые задачи только встают в очередь),
+                // продолжение — когда асинхронная работа завершится
+                completion.whenComplete((result, error) -> {
+                    logFailure(key, error);
+                    schedule(key, lane);
+                });
+                return;
+            }
+            if (completion != null) {
+                completion.whenComplete((result, error) -> logFailure(key, error));
+            }
+        }
+        // Полоса ещё не пуста: уступаем поток и продолжаем в следующей итерации пула
+        schedule(key, lane);
+    }
+
+    /**
+     * Забирает следующую задачу ключа. Если задач нет — атомарно удаляет полосу,
+     * чтобы следующий execute создал новую и запланировал её выполнение.
+     */
+    private Supplier<? extends CompletionStage<?>> poll(K key) {
+        AtomicReference<Supplier<? extends CompletionStage<?>>> next = new AtomicReference<>();
+        lanes.computeIfPresent(key, (k, l) -> {
+            next.set(l.tasks.poll());
+            return next.get() == null ? null : l;
+        });
+        return next.get();
+    }
+
+    private void logFailure(K key, Throwable error) {
+        if (error != null) {
+            log.error("Async task for key {} failed: {}", key, error.getMessage(), error);
+        }
+    }
+
+    private static final class Lane {
+        // Доступ только внутри compute/computeIfPresent, то есть под блокировкой ячейки карты
+        private final ArrayDeque<Supplier<? extends CompletionStage<?>>> tasks = new ArrayDeque<>();
+    }
+}
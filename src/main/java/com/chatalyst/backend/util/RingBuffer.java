@@ -0,0 +1,54 @@
+package com.chatalyst.backend.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Кольцевой буфер фиксированной ёмкости: при переполнении вытесняется самый старый элемент.
+ * Методы синхронизированы — буфер можно читать и дополнять из разных потоков.
+ *
+ * @param <T> Тип элементов.
+ */
+public class RingBuffer<T> {
+
+    private final Object[] items;
+    private int head; // Индекс самого старого элемента
+    private int size;
+
+    public RingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.items = new Object[capacity];
+    }
+
+    public synchronized void add(T item) {
+        int tail = (head + size) % items.length;
+        items[tail] = item;
+        if (size < items.length) {
+            size++;
+        } else {
+            head = (head + 1) % items.length;
+        }
+    }
+
+    /**
+     * @return Копия содержимого от старых элементов к новым.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<T> toList() {
+        List<T> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add((T) items[(head + i) % items.length]);
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+}
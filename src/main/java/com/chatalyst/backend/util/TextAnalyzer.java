@@ -0,0 +1,143 @@
+package com.chatalyst.backend.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Разбиение текста на термы для поиска по каталогу: слова в нижнем регистре,
+ * ё → е, стоп-слова отброшены, окончания русского и казахского языков срезаны
+ * лёгким стеммером (без словарей: "бананы", "бананов", "банан" дают один терм).
+ */
+public final class TextAnalyzer {
+
+    private static final int MIN_STEM_LENGTH = 3;
+
+    // Окончания от длинных к коротким; срезается самое длинное подходящее
+    private static final String[] RUSSIAN_SUFFIXES = {
+            "иями", "ями", "ами", "ого", "его", "ому", "ему", "ыми", "ими", "иях", "ией",
+            "ах", "ях", "ов", "ев", "ей", "ий", "ый", "ой", "ая", "яя", "ое", "ее", "ые", "ие",
+            "ую", "юю", "ом", "ем", "ам", "ям", "ию", "ья", "ье", "ия",
+            "а", "я", "о", "е", "ы", "и", "у", "ю", "ь", "й"
+    };
+
+    // Казахские окончания множественного числа и падежей
+    private static final String[] KAZAKH_SUFFIXES = {
+            "лардың", "лердің", "дардың", "дердің", "тардың", "тердің",
+            "лар", "лер", "дар", "дер", "тар", "тер",
+            "ның", "нің", "дың", "дің", "тың", "тің",
+            "дан", "ден", "тан", "тен", "нан", "нен", "мен", "бен", "пен",
+            "ға", "ге", "қа", "ке", "да", "де", "та", "те", "ды", "ді", "ты", "ті", "ны", "ні"
+    };
+
+    // Буквы, которых нет в русском алфавите
+    private static final String KAZAKH_LETTERS = "әғқңөұүһі";
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "и", "в", "во", "на", "с", "со", "к", "по", "за", "из", "от", "до", "для", "о", "об", "у",
+            "не", "ни", "а", "но", "да", "или", "что", "как", "это", "есть", "мне", "меня", "я", "вы",
+            "ты", "мы", "он", "она", "они", "же", "ли", "бы", "то", "там", "тут", "еще", "уже",
+            "хочу", "нужно", "нужен", "нужна", "можно", "какой", "какие", "сколько", "пожалуйста",
+            "және", "мен", "бар", "жоқ", "ма", "ме", "ба", "бе", "па", "пе"
+    );
+
+    private TextAnalyzer() {
+    }
+
+    /**
+     * @return Термы текста в порядке следования (с повторами).
+     */
+    public static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        StringBuilder word = new StringBuilder();
+        text.codePoints().forEach(cp -> {
+            if (Character.isLetterOrDigit(cp)) {
+                word.appendCodePoint(cp == 'ё' || cp == 'Ё' ? 'е' : Character.toLowerCase(cp));
+            } else {
+                addTerm(terms, word);
+            }
+        });
+        addTerm(terms, word);
+        return terms;
+    }
+
+    /**
+     * Нормализованная форма фразы для точного сравнения: слова в нижнем регистре через один пробел,
+     * ё → е, знаки препинания и эмодзи отброшены. Стоп-слова и окончания сохраняются.
+     * "Доставка есть??" и "доставка  есть" дают одну строку, "есть доставка" — другую.
+     */
+    public static String normalize(String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (Character.isLetterOrDigit(cp)) {
+                if (pendingSpace && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                pendingSpace = false;
+                normalized.appendCodePoint(cp == 'ё' || cp == 'Ё' ? 'е' : Character.toLowerCase(cp));
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Срезает окончания. Для слов с казахскими буквами — до двух казахских окончаний подряд
+     * (множественное число и падеж), для остальных — одно русское: казахские окончания вроде
+     * "да" или "ты" иначе портили бы русские слова.
+     */
+    public static String stem(String word) {
+        String stem = word;
+        for (int i = 0; i < 2 && isKazakh(word); i++) {
+            String stripped = stripSuffix(stem, KAZAKH_SUFFIXES);
+            if (stripped == stem) {
+                break;
+            }
+            stem = stripped;
+        }
+        if (stem == word) {
+            stem = stripSuffix(stem, RUSSIAN_SUFFIXES);
+        }
+        return stem;
+    }
+
+    private static boolean isKazakh(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (KAZAKH_LETTERS.indexOf(word.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addTerm(List<String> terms, StringBuilder word) {
+        if (word.length() == 0) {
+            return;
+        }
+        String token = word.toString();
+        word.setLength(0);
+        if (token.length() < 2 && !Character.isDigit(token.charAt(0)) || STOP_WORDS.contains(token)) {
+            return;
+        }
+        terms.add(stem(token));
+    }
+
+    private static String stripSuffix(String word, String[] suffixes) {
+        for (String suffix : suffixes) {
+            if (word.endsWith(suffix) && word.length() - suffix.length() >= MIN_STEM_LENGTH) {
+                return word.substring(0, word.length() - suffix.length());
+            }
+        }
+        return word;
+    }
+}
@@ -0,0 +1,61 @@
+package com.chatalyst.backend.util;
+
+/**
+ * Корзина токенов с резервированием: вместо отказа возвращает, сколько нужно подождать.
+ * Токены могут уходить в минус — это очередь уже зарезервированных отправок,
+ * поэтому последовательные вызовы reserve() раскладываются во времени равномерно.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param ratePerSecond Скорость пополнения (токенов в секунду).
+     * @param burst Максимальный запас токенов (размер всплеска).
+     */
+    public TokenBucket(double ratePerSecond, double burst) {
+        this.capacity = burst;
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Резервирует один токен.
+     * @return Через сколько наносекунд можно выполнить действие (0 — сразу).
+     */
+    public synchronized long reserve() {
+        refill();
+        tokens -= 1;
+        if (tokens >= 0) {
+            return 0L;
+        }
+        return (long) Math.ceil(-tokens / tokensPerNano);
+    }
+
+    /**
+     * Запрещает выдачу токенов на указанное время (например, после 429 с retry_after).
+     */
+    public synchronized void pause(long nanos) {
+        refill();
+        tokens = Math.min(tokens, 0) - nanos * tokensPerNano;
+    }
+
+    /**
+     * @return true, если корзина полностью восстановилась и её состояние можно забыть.
+     */
+    public synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}
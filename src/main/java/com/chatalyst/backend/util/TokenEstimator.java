@@ -0,0 +1,49 @@
+package com.chatalyst.backend.util;
+
+/**
+ * Быстрая оценка числа токенов OpenAI без токенизатора.
+ * Латиница в среднем укладывается в ~4 символа на токен, кириллица и прочие алфавиты — в ~2,
+ * цифры, пунктуация и эмодзи близки к токену на символ. Погрешность порядка 10–15%,
+ * чего достаточно для бюджетов контекста и метрик.
+ */
+public final class TokenEstimator {
+
+    // Служебные токены на каждое сообщение чата (role, разделители)
+    public static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        double tokens = 0;
+        int length = text.length();
+        for (int i = 0; i < length; ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (cp < 128) {
+                if (Character.isLetter(cp)) {
+                    tokens += 0.25;
+                } else if (cp == ' ' || cp == '\n') {
+                    tokens += 0.1;
+                } else {
+                    tokens += 0.6;
+                }
+            } else if (Character.isLetter(cp)) {
+                tokens += 0.5;
+            } else {
+                tokens += 1.0;
+            }
+        }
+        return (int) Math.ceil(tokens);
+    }
+
+    /**
+     * @return Оценка токенов сообщения чата вместе со служебными.
+     */
+    public static int estimateMessage(String content) {
+        return estimate(content) + MESSAGE_OVERHEAD_TOKENS;
+    }
+}
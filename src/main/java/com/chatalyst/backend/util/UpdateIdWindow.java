@@ -0,0 +1,68 @@
+package com.chatalyst.backend.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Скользящее окно последних увиденных update_id одного бота.
+ * Telegram выдаёт update_id по возрастанию, поэтому id кладётся в слот id mod size:
+ * повтор попадает в тот же слот и находит там себя, а слот со значением больше id
+ * означает, что обновление старше окна. Без блокировок, память — size * 8 байт.
+ */
+public class UpdateIdWindow {
+
+    public enum Result {
+        /** id встречается впервые и теперь отмечен. */
+        NEW,
+        /** id уже есть в окне — повторная доставка. */
+        DUPLICATE,
+        /** id старше окна — заведомо давно обработанное обновление. */
+        STALE
+    }
+
+    private static final long EMPTY = 0L;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+
+    /**
+     * @param size Размер окна, округляется вверх до степени двойки.
+     */
+    public UpdateIdWindow(int size) {
+        int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.slots = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Атомарно проверяет и отмечает update_id.
+     * @param updateId update_id из обновления Telegram (положительный).
+     * @return NEW, если обновление нужно обработать; иначе причина отказа.
+     */
+    public Result tryMark(long updateId) {
+        int index = (int) (updateId & mask);
+        while (true) {
+            long current = slots.get(index);
+            if (current == updateId) {
+                return Result.DUPLICATE;
+            }
+            if (current != EMPTY && current > updateId) {
+                return Result.STALE;
+            }
+            if (slots.compareAndSet(index, current, updateId)) {
+                return Result.NEW;
+            }
+        }
+    }
+
+    /**
+     * Снимает отметку, если обновление не удалось принять в обработку
+     * и Telegram должен доставить его повторно.
+     */
+    public void unmark(long updateId) {
+        slots.compareAndSet((int) (updateId & mask), updateId, EMPTY);
+    }
+
+    public int size() {
+        return slots.length();
+    }
+}
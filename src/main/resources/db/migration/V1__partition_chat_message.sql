@@ -0,0 +1,66 @@
+-- История диалогов: created_at, помесячные секции по created_at и индекс под выборку последних сообщений чата.
+-- Существующая таблица chat_message (созданная Hibernate) становится секцией chat_message_legacy:
+-- старые сообщения не копируются. Время их создания неизвестно, поэтому created_at у них — метка
+-- "до начала текущего месяца"; секция chat_message_legacy не удаляется по сроку хранения,
+-- а в дневную статистику ботов её сообщения не попадают (только в итоги за всё время).
+-- Новые секции на следующие месяцы и удаление старых — ChatMessagePartitionService.
+-- Граница месяца считается в поясе chat.log.time-zone — в том же, в котором приложение проставляет created_at.
+
+CREATE SEQUENCE IF NOT EXISTS chat_message_seq START WITH 1 INCREMENT BY 50;
+
+DO $$
+DECLARE
+    month_start timestamp := date_trunc('month', now() AT TIME ZONE '${chat-log-time-zone}');
+    legacy_pkey name;
+BEGIN
+    IF to_regclass('chat_message') IS NOT NULL
+            AND NOT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = to_regclass('chat_message')) THEN
+        ALTER TABLE chat_message RENAME TO chat_message_legacy;
+        -- Постоянное значение по умолчанию не переписывает таблицу (PostgreSQL 11+)
+        EXECUTE format('ALTER TABLE chat_message_legacy ADD COLUMN created_at timestamp(6) NOT NULL DEFAULT %L',
+                       month_start - interval '1 microsecond');
+        ALTER TABLE chat_message_legacy ALTER COLUMN created_at DROP DEFAULT;
+        -- Первичный ключ секции должен совпадать с ключом родителя (id, created_at), иначе ATTACH не пройдёт
+        FOR legacy_pkey IN SELECT conname FROM pg_constraint
+                           WHERE contype = 'p' AND conrelid = to_regclass('chat_message_legacy') LOOP
+            EXECUTE format('ALTER TABLE chat_message_legacy DROP CONSTRAINT %I', legacy_pkey);
+        END LOOP;
+        ALTER TABLE chat_message_legacy ADD CONSTRAINT chat_message_legacy_pkey PRIMARY KEY (id, created_at);
+        -- Секция не может иметь собственный генератор id: id выдаёт chat_message_seq
+        ALTER TABLE chat_message_legacy ALTER COLUMN id DROP IDENTITY IF EXISTS;
+        ALTER TABLE chat_message_legacy ALTER COLUMN id DROP DEFAULT;
+        PERFORM setval('chat_message_seq',
+                       GREATEST((SELECT COALESCE(MAX(id), 0) FROM chat_message_legacy) + 50,
+                                (SELECT last_value FROM chat_message_seq)));
+    END IF;
+
+    CREATE TABLE IF NOT EXISTS chat_message (
+        id             bigint       NOT NULL,
+        role           varchar(255),
+        content        text,
+        chat_id        bigint,
+        bot_identifier varchar(255),
+        created_at     timestamp(6) NOT NULL,
+        PRIMARY KEY (id, created_at)
+    ) PARTITION BY RANGE (created_at);
+
+    -- Последние сообщения чата и подсчёт чатов бота — по индексу, а не по всей таблице.
+    -- История читается в порядке (created_at, id): id выдаются блоками на каждый экземпляр
+    -- и сами по себе не совпадают с порядком реплик
+    CREATE INDEX IF NOT EXISTS idx_chat_message_bot_chat_created
+        ON chat_message (bot_identifier, chat_id, created_at DESC, id DESC);
+
+    IF to_regclass('chat_message_legacy') IS NOT NULL
+            AND NOT EXISTS (SELECT 1 FROM pg_inherits WHERE inhrelid = to_regclass('chat_message_legacy')) THEN
+        -- Однократная проверка границы и построение индексов на старой таблице
+        EXECUTE format('ALTER TABLE chat_message ATTACH PARTITION chat_message_legacy FOR VALUES FROM (MINVALUE) TO (%L)',
+                       month_start);
+    END IF;
+
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF chat_message FOR VALUES FROM (%L) TO (%L)',
+                   'chat_message_y' || to_char(month_start, 'YYYY') || 'm' || to_char(month_start, 'MM'),
+                   month_start, month_start + interval '1 month');
+
+    -- Страховка на случай, если секция месяца не создана заранее
+    CREATE TABLE IF NOT EXISTS chat_message_default PARTITION OF chat_message DEFAULT;
+END $$;
@@ -0,0 +1,17 @@
+-- Покупатели из Telegram: явная привязка к чату вместо поиска по email "telegram_<chatId>@bot.local".
+-- На новой базе таблицу users (вместе с колонкой и ограничением) создаёт Hibernate.
+
+DO $$
+BEGIN
+    IF to_regclass('users') IS NOT NULL THEN
+        ALTER TABLE users ADD COLUMN IF NOT EXISTS telegram_chat_id bigint;
+
+        UPDATE users
+        SET telegram_chat_id = CAST(substring(email FROM '^telegram_(-?[0-9]+)@bot\.local$') AS bigint)
+        WHERE telegram_chat_id IS NULL AND email ~ '^telegram_-?[0-9]+@bot\.local$';
+
+        IF NOT EXISTS (SELECT 1 FROM pg_constraint WHERE conname = 'uk_users_telegram_chat_id') THEN
+            ALTER TABLE users ADD CONSTRAINT uk_users_telegram_chat_id UNIQUE (telegram_chat_id);
+        END IF;
+    END IF;
+END $$;
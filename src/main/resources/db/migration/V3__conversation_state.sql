@@ -0,0 +1,16 @@
+-- Состояние диалогов с покупателями (оформление заказа) для telegram.conversation.store=jdbc.
+-- Таблица нужна только этой реализации; сущности JPA для неё нет, поэтому создаётся здесь.
+
+CREATE TABLE IF NOT EXISTS conversation_state (
+    bot_identifier varchar(255) NOT NULL,
+    chat_id        bigint       NOT NULL,
+    step           varchar(32)  NOT NULL,
+    address        varchar(500),
+    phone          varchar(50),
+    comment        varchar(255),
+    expires_at     timestamptz  NOT NULL,
+    PRIMARY KEY (bot_identifier, chat_id)
+);
+
+-- Для периодического удаления истёкших строк
+CREATE INDEX IF NOT EXISTS idx_conversation_state_expires_at ON conversation_state (expires_at);
@@ -0,0 +1,13 @@
+-- Секция по умолчанию мешает DETACH PARTITION ... CONCURRENTLY, которым ChatMessagePartitionService
+-- удаляет устаревшие секции без блокировки всей chat_message. Секции создаются заранее
+-- (chat.log.partition-months-ahead), поэтому пустая секция по умолчанию не нужна.
+-- Если в ней уже есть сообщения, она остаётся, а секции удаляются обычным DETACH.
+
+DO $$
+BEGIN
+    IF to_regclass('chat_message_default') IS NOT NULL
+            AND NOT EXISTS (SELECT 1 FROM chat_message_default) THEN
+        ALTER TABLE chat_message DETACH PARTITION chat_message_default;
+        DROP TABLE chat_message_default;
+    END IF;
+END $$;
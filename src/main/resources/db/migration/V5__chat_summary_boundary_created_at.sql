@@ -0,0 +1,18 @@
+-- Граница краткого содержания диалога — (created_at, id) последнего вошедшего в него сообщения:
+-- id выдаются блоками на каждый экземпляр и сами по себе не совпадают с порядком реплик.
+-- На новой базе таблицу chat_summaries (вместе с колонкой) создаёт Hibernate.
+
+DO $$
+BEGIN
+    IF to_regclass('chat_summaries') IS NOT NULL THEN
+        ALTER TABLE chat_summaries ADD COLUMN IF NOT EXISTS last_message_created_at timestamp(6);
+
+        UPDATE chat_summaries s
+        SET last_message_created_at = m.created_at
+        FROM chat_message m
+        WHERE s.last_message_created_at IS NULL
+          AND m.id = s.last_message_id
+          AND m.bot_identifier = s.bot_identifier
+          AND m.chat_id = s.chat_id;
+    END IF;
+END $$;
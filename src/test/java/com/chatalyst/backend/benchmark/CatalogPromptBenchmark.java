@@ -0,0 +1,138 @@
+package com.chatalyst.backend.benchmark;
+
+import com.chatalyst.backend.model.Product;
+import com.chatalyst.backend.security.services.CatalogPromptCache;
+import com.chatalyst.backend.security.services.CatalogSnapshot;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Стоимость сборки тела запроса к OpenAI на одно сообщение пользователя:
+ * "perMessage" — каталог и промпт форматируются заново так же, как до CatalogPromptCache
+ * (вложенные groupingBy и String.format на каждый товар, затем шаблон промпта),
+ * "cached" — системный промпт берётся готовым JSON-литералом из CatalogPromptCache.
+ * Разницу в аллокациях показывает профилировщик GC (gc.alloc.rate.norm, байт на операцию):
+ * java -cp target/test-classes:&lt;test classpath&gt; org.openjdk.jmh.Main CatalogPromptBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogPromptBenchmark {
+
+    @Param({"100", "1000"})
+    public int products;
+
+    // Сообщений истории в запросе
+    @Param({"10"})
+    public int historySize;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private CatalogPromptCache promptCache;
+    private CatalogSnapshot snapshot;
+    private List<String[]> history;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Product> catalog = new ArrayList<>();
+        for (int i = 0; i < products; i++) {
+            Product product = new Product();
+            product.setId((long) i);
+            product.setName("Товар " + i);
+            product.setPrice(BigDecimal.valueOf(500 + i));
+            product.setDescription("Свежий товар номер " + i + ", отличное качество и доставка сегодня");
+            product.setCatalog("Каталог " + (i % 5));
+            product.setSubcategory("Подкатегория " + (i % 20));
+            product.setImageUrl(i % 2 == 0 ? "https://example.kz/img/" + i + ".jpg" : null);
+            catalog.add(product);
+        }
+        snapshot = CatalogSnapshot.of(1, catalog);
+        promptCache = new CatalogPromptCache(objectMapper, new SimpleMeterRegistry(), 100);
+
+        history = new ArrayList<>();
+        for (int i = 0; i < historySize; i++) {
+            history.add(new String[]{i % 2 == 0 ? "user" : "assistant", "Сообщение истории номер " + i});
+        }
+    }
+
+    @Benchmark
+    public String perMessage() {
+        ObjectNode system = objectMapper.createObjectNode();
+        system.put("role", "system");
+        system.put("content", CatalogPromptCache.render("Магазин", buildProductCatalogInfo(snapshot.items())));
+        return requestBody(system);
+    }
+
+    @Benchmark
+    public String cached() {
+        ObjectNode system = objectMapper.createObjectNode();
+        system.put("role", "system");
+        system.putRawValue("content", promptCache.systemPrompt(snapshot, "Магазин"));
+        return requestBody(system);
+    }
+
+    /**
+     * Копия прежнего TelegramService.buildProductCatalogInfo — базовая линия для сравнения.
+     */
+    private static String buildProductCatalogInfo(List<CatalogSnapshot.Item> items) {
+        return items.stream()
+                .collect(Collectors.groupingBy(CatalogSnapshot.Item::catalog))
+                .entrySet().stream()
+                .map(entry -> {
+                    String catalog = entry.getKey();
+                    return "Каталог: " + catalog + "\n" +
+                            entry.getValue().stream()
+                                    .collect(Collectors.groupingBy(CatalogSnapshot.Item::subcategory))
+                                    .entrySet().stream()
+                                    .map(subEntry -> {
+                                        String subcategory = subEntry.getKey();
+                                        String products = subEntry.getValue().stream()
+                                                .map(p -> String.format(
+                                                    "- %s (%s тг): %s%s",
+                                                    p.name(),
+                                                    p.price(),
+                                                    p.description() != null ? p.description() : "",
+                                                    p.imageUrl() != null ? " [ФОТО]" : ""
+                                                ))
+                                                .collect(Collectors.joining("\n"));
+                                        return "  Подкаталог: " + subcategory + "\n" + products;
+                                    }).collect(Collectors.joining("\n"));
+                }).collect(Collectors.joining("\n\n"));
+    }
+
+    private String requestBody(ObjectNode systemMessage) {
+        ArrayNode messages = objectMapper.createArrayNode();
+        messages.add(systemMessage);
+        for (String[] msg : history) {
+            ObjectNode node = objectMapper.createObjectNode();
+            node.put("role", msg[0]);
+            node.put("content", msg[1]);
+            messages.add(node);
+        }
+        ObjectNode body = objectMapper.createObjectNode();
+        body.put("model", "gpt-3.5-turbo");
+        body.set("messages", messages);
+        return body.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CatalogPromptBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
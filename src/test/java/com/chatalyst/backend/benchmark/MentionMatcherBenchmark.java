@@ -0,0 +1,78 @@
+package com.chatalyst.backend.benchmark;
+
+import com.chatalyst.backend.util.AhoCorasickMatcher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Поиск упомянутых товаров в ответе ИИ:
+ * "regexPerProduct" — как раньше, Pattern на каждый товар и N проходов по ответу,
+ * "automaton" — один проход автоматом Ахо — Корасик (строится один раз на снимок каталога).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MentionMatcherBenchmark {
+
+    private static final String[] WORDS = {
+            "Молоко", "Кефир", "Сыр", "Хлеб", "Бананы", "Яблоки", "Сок", "Чай", "Кофе", "Мёд",
+            "Йогурт", "Масло", "Печенье", "Торт", "Қымыз", "Шұбат", "Рис", "Гречка", "Макароны", "Курица"
+    };
+
+    @Param({"100", "1000", "10000"})
+    public int products;
+
+    private List<String> names;
+    private AhoCorasickMatcher<String> matcher;
+    private String reply;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        names = new ArrayList<>();
+        for (int i = 0; i < products; i++) {
+            names.add(WORDS[i % WORDS.length] + " " + (i / WORDS.length) + " сорт");
+        }
+        matcher = new AhoCorasickMatcher<>(names.stream().map(name -> Map.entry(name, name)).toList());
+
+        // Типичный ответ продавца (~600 символов) с тремя упомянутыми товарами ближе к концу каталога
+        reply = "Отличный выбор! 👌 Смотри, что у нас сегодня огонь 🔥\n\n"
+                + "🍌 " + names.get(products - 1) + " — свежие, только привезли!\n"
+                + "🥛 " + names.get(products / 2) + " — идеально к завтраку.\n"
+                + "🍯 " + names.get(products / 3) + " — натуральный, без добавок.\n\n"
+                + "Почему стоит взять: качество, цена и доставка сегодня. Многие берут и очень довольны! "
+                + "Добавляю в корзину? Сколько штук нужно? Или посоветовать ещё что-то к чаю? 😊";
+    }
+
+    @Benchmark
+    public List<String> regexPerProduct() {
+        List<String> mentioned = new ArrayList<>();
+        for (String name : names) {
+            if (Pattern.compile("\\b" + Pattern.quote(name) + "\\b", Pattern.CASE_INSENSITIVE).matcher(reply).find()) {
+                mentioned.add(name);
+            }
+        }
+        return mentioned.stream().limit(3).toList();
+    }
+
+    @Benchmark
+    public List<String> automaton() {
+        return matcher.findAll(reply, 3);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MentionMatcherBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
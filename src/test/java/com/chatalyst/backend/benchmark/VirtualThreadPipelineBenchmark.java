@@ -0,0 +1,93 @@
+package com.chatalyst.backend.benchmark;
+
+import com.chatalyst.backend.util.KeyedSerialExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Сравнение платформенных и виртуальных потоков на нагрузке, похожей на обработку обновлений Telegram:
+ * всплеск сообщений из разных чатов, каждое из которых блокируется на вызове OpenAI.
+ * Время одного прохода и максимальное число одновременно обрабатываемых чатов
+ * (пишется в лог в конце каждой итерации) показывают, во что упирается пул.
+ *
+ * Вариант "virtual" требует Java 21: mvn -P java21 test-compile, затем запуск main из IDE
+ * или java -cp target/test-classes:&lt;test classpath&gt; org.openjdk.jmh.Main VirtualThreadPipelineBenchmark
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@Slf4j
+public class VirtualThreadPipelineBenchmark {
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"2000"})
+    public int chats;
+
+    // Имитация задержки OpenAI (.block() в OpenAIService)
+    @Param({"100"})
+    public int openAiLatencyMs;
+
+    // Значение telegram.updates.workers по умолчанию
+    @Param({"32"})
+    public int platformWorkers;
+
+    private Executor executor;
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        executor = "virtual".equals(threads)
+                ? new VirtualThreadTaskExecutor("bench-")
+                : Executors.newFixedThreadPool(platformWorkers);
+        maxInFlight.set(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        if (executor instanceof ExecutorService service) {
+            service.shutdownNow();
+        }
+        log.info("[{}] max in-flight chats: {} of {}", threads, maxInFlight.get(), chats);
+    }
+
+    @Benchmark
+    public int burstOfChats() throws InterruptedException {
+        KeyedSerialExecutor<Integer> lanes = new KeyedSerialExecutor<>(executor);
+        AtomicInteger inFlight = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(chats);
+
+        for (int chat = 0; chat < chats; chat++) {
+            lanes.execute(chat, () -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(openAiLatencyMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    inFlight.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return maxInFlight.get();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VirtualThreadPipelineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
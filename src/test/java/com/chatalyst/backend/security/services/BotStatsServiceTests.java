@@ -0,0 +1,226 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.Repository.BotDailyStatsRepository;
+import com.chatalyst.backend.Repository.BotStatsTotalRepository;
+import com.chatalyst.backend.dto.BotStats;
+import com.chatalyst.backend.model.BotDailyStats;
+import com.chatalyst.backend.model.BotStatsTotal;
+import com.chatalyst.backend.model.ChatMessage;
+import com.chatalyst.backend.util.HyperLogLog;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Proxy;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BotStatsServiceTests {
+
+	private static final LocalDate DAY = LocalDate.of(2026, 10, 1);
+
+	// bot_daily_stats и bot_stats_total в памяти: ключ — бот и дата (для итогов — только бот)
+	private final Map<String, BotDailyStats> daily = new ConcurrentHashMap<>();
+	private final Map<String, BotStatsTotal> totals = new ConcurrentHashMap<>();
+	private final List<Object[]> chatMessageGroups = new ArrayList<>();
+
+	@Test
+	void locksBotsInNameOrderBeforeMergingSketches() {
+		RecordingJdbcTemplate jdbc = new RecordingJdbcTemplate();
+		BotStatsService stats = new BotStatsService(jdbc, null, null, null);
+
+		stats.record(List.of(message("shop-b", 1), message("shop-a", 2), message("shop-b", 3)));
+
+		List<String> statements = jdbc.sql();
+		// Сначала разделяемая блокировка заполнения, затем боты по порядку — и только потом чтение эскизов
+		assertTrue(statements.get(0).contains("pg_advisory_xact_lock_shared(hashtext('bot_stats_backfill'))"));
+		assertTrue(statements.get(1).contains("pg_advisory_xact_lock(hashtext('bot_stats'), hashtext(?))"));
+		assertEquals(List.of("shop-a"), jdbc.statements().get(1).args());
+		assertEquals(List.of("shop-b"), jdbc.statements().get(2).args());
+		assertTrue(statements.get(3).contains("FROM bot_daily_stats"));
+		assertTrue(statements.get(4).contains("INSERT INTO bot_daily_stats"));
+		assertTrue(statements.get(5).contains("FROM bot_stats_total"));
+		assertTrue(statements.get(6).contains("INSERT INTO bot_stats_total"));
+		assertEquals(7, statements.size());
+	}
+
+	@Test
+	void ignoresMessagesWithoutBot() {
+		RecordingJdbcTemplate jdbc = new RecordingJdbcTemplate();
+		new BotStatsService(jdbc, null, null, null).record(List.of(message(null, 1)));
+
+		assertTrue(jdbc.statements().isEmpty());
+	}
+
+	@Test
+	void addsMessageCountsAndChatsOfSuccessiveBatches() {
+		BotStatsService stats = statsService();
+
+		stats.record(List.of(message("shop", 1), message("shop", 2), message("shop", 1)));
+		stats.record(List.of(message("shop", 1), message("shop", 3), message("other", 1)));
+
+		assertEquals(new BotStats(5, 3), stats.totals("shop"));
+		assertEquals(new BotStats(1, 1), stats.totals("other"));
+		assertEquals(new BotStats(5, 3), stats.forPeriod("shop", DAY, DAY));
+		assertEquals(new BotStats(0, 0), stats.totals("missing"));
+	}
+
+	@Test
+	void mergesSketchesWithRowsWrittenElsewhere() {
+		// Чаты 1..1000 уже посчитаны другим экземпляром
+		HyperLogLog existing = new HyperLogLog();
+		LongStream.rangeClosed(1, 1000).forEach(existing::add);
+		totals.put("shop", BotStatsTotal.builder().botIdentifier("shop").messages(1000)
+				.chatsSketch(existing.toBytes()).build());
+		daily.put(dayKey("shop", DAY), BotDailyStats.builder().botIdentifier("shop").statsDate(DAY).messages(1000)
+				.chatsSketch(existing.toBytes()).build());
+		BotStatsService stats = statsService();
+
+		stats.record(LongStream.rangeClosed(501, 1500).mapToObj(chat -> message("shop", chat)).toList());
+
+		BotStats total = stats.totals("shop");
+		assertEquals(2000, total.getTotalMessages());
+		// Эскиз объединён, а не заменён: ~1500 различных чатов (погрешность HyperLogLog ~1.6%)
+		assertEquals(1500, total.getTotalDialogues(), 1500 * 0.05);
+		assertEquals(total, stats.forPeriod("shop", DAY, DAY));
+	}
+
+	@Test
+	void forPeriodMergesDaysWithinBounds() {
+		BotStatsService stats = statsService();
+		stats.record(List.of(message("shop", 1, DAY), message("shop", 2, DAY),
+				message("shop", 1, DAY.plusDays(1)), message("shop", 3, DAY.plusDays(1)),
+				message("shop", 4, DAY.plusDays(3)), message("shop", 5, DAY.minusDays(1))));
+
+		// Чат 1 писал в оба дня периода — один диалог
+		assertEquals(new BotStats(4, 3), stats.forPeriod("shop", DAY, DAY.plusDays(1)));
+		assertEquals(new BotStats(1, 1), stats.forPeriod("shop", DAY.plusDays(3), DAY.plusDays(5)));
+		assertEquals(new BotStats(0, 0), stats.forPeriod("shop", DAY.plusDays(10), DAY.plusDays(20)));
+		assertEquals(new BotStats(6, 5), stats.totals("shop"));
+	}
+
+	@Test
+	void backfillCountsLegacyMessagesOnlyInTotals() {
+		// Строки BACKFILL_SOURCE_SQL: бот, дата (NULL у chat_message_legacy), чат, число сообщений
+		chatMessageGroups.add(new Object[]{"shop", null, 1L, 10L});
+		chatMessageGroups.add(new Object[]{"shop", null, 2L, 5L});
+		chatMessageGroups.add(new Object[]{"shop", Date.valueOf(DAY), 1L, 3L});
+		chatMessageGroups.add(new Object[]{"shop", Date.valueOf(DAY), 3L, 2L});
+		chatMessageGroups.add(new Object[]{"shop", Date.valueOf(DAY.plusDays(1)), null, 4L});
+		chatMessageGroups.add(new Object[]{"zoo", Date.valueOf(DAY), 7L, 1L});
+		BotStatsService stats = statsService();
+
+		stats.ensureBackfilled();
+
+		assertEquals(new BotStats(24, 3), stats.totals("shop"));
+		assertEquals(new BotStats(5, 2), stats.forPeriod("shop", DAY, DAY));
+		// Сообщения без чата считаются, но диалогов не добавляют
+		assertEquals(new BotStats(4, 0), stats.forPeriod("shop", DAY.plusDays(1), DAY.plusDays(1)));
+		assertEquals(new BotStats(1, 1), stats.totals("zoo"));
+
+		// Счётчики уже есть — повторно не заполняются
+		stats.ensureBackfilled();
+		new BotStatsService(jdbc(), new TransactionTemplate(new NoopTransactionManager()), null, null)
+				.ensureBackfilled();
+		assertEquals(new BotStats(24, 3), stats.totals("shop"));
+	}
+
+	private BotStatsService statsService() {
+		return new BotStatsService(jdbc(), new TransactionTemplate(new NoopTransactionManager()),
+				dailyRepository(), totalRepository());
+	}
+
+	/**
+	 * Выполняет upsert и чтение эскизов BotStatsService над таблицами в памяти.
+	 */
+	private RecordingJdbcTemplate jdbc() {
+		return new RecordingJdbcTemplate()
+				.onStatement(statement -> {
+					if (statement.contains("INSERT INTO bot_daily_stats")) {
+						for (List<Object> args : statement.batchArgs()) {
+							LocalDate date = ((Date) args.get(1)).toLocalDate();
+							BotDailyStats row = daily.computeIfAbsent(dayKey((String) args.get(0), date),
+									k -> BotDailyStats.builder().botIdentifier((String) args.get(0)).statsDate(date).build());
+							row.setMessages(row.getMessages() + (Long) args.get(2));
+							row.setChatsSketch((byte[]) args.get(3));
+						}
+					} else if (statement.contains("INSERT INTO bot_stats_total")) {
+						for (List<Object> args : statement.batchArgs()) {
+							BotStatsTotal row = totals.computeIfAbsent((String) args.get(0),
+									k -> BotStatsTotal.builder().botIdentifier(k).build());
+							row.setMessages(row.getMessages() + (Long) args.get(1));
+							row.setChatsSketch((byte[]) args.get(2));
+						}
+					}
+				})
+				.values(statement -> statement.contains("NOT EXISTS (SELECT 1 FROM bot_stats_total)")
+						? totals.isEmpty() && !chatMessageGroups.isEmpty() : null)
+				.rows(statement -> {
+					List<Object[]> rows = new ArrayList<>();
+					if (statement.contains("FROM bot_daily_stats")) {
+						for (int i = 0; i < statement.args().size(); i += 2) {
+							BotDailyStats row = daily.get(dayKey((String) statement.args().get(i),
+									((Date) statement.args().get(i + 1)).toLocalDate()));
+							if (row != null) {
+								rows.add(new Object[]{row.getBotIdentifier(), Date.valueOf(row.getStatsDate()),
+										row.getChatsSketch()});
+							}
+						}
+					} else if (statement.contains("FROM bot_stats_total")) {
+						statement.args().stream().map(totals::get).filter(row -> row != null)
+								.forEach(row -> rows.add(new Object[]{row.getBotIdentifier(), row.getChatsSketch()}));
+					} else if (statement.contains("FROM chat_message")) {
+						rows.addAll(chatMessageGroups);
+					}
+					return rows;
+				});
+	}
+
+	private BotDailyStatsRepository dailyRepository() {
+		return (BotDailyStatsRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{BotDailyStatsRepository.class}, (proxy, method, args) -> {
+					if (!method.getName().equals("findByBotIdentifierAndStatsDateBetween")) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+					LocalDate from = (LocalDate) args[1];
+					LocalDate to = (LocalDate) args[2];
+					return daily.values().stream()
+							.filter(day -> day.getBotIdentifier().equals(args[0])
+									&& !day.getStatsDate().isBefore(from) && !day.getStatsDate().isAfter(to))
+							.toList();
+				});
+	}
+
+	private BotStatsTotalRepository totalRepository() {
+		return (BotStatsTotalRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{BotStatsTotalRepository.class}, (proxy, method, args) -> {
+					if (!method.getName().equals("findById")) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+					return Optional.ofNullable(totals.get((String) args[0]));
+				});
+	}
+
+	private static String dayKey(String botIdentifier, LocalDate date) {
+		return botIdentifier + "|" + date;
+	}
+
+	private static ChatMessage message(String botIdentifier, long chatId) {
+		return message(botIdentifier, chatId, DAY);
+	}
+
+	private static ChatMessage message(String botIdentifier, long chatId, LocalDate date) {
+		ChatMessage message = new ChatMessage();
+		message.setBotIdentifier(botIdentifier);
+		message.setChatId(chatId);
+		message.setCreatedAt(date.atTime(12, 0));
+		return message;
+	}
+}
@@ -0,0 +1,77 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.Repository.ProductRepository;
+import com.chatalyst.backend.model.Bot;
+import com.chatalyst.backend.model.Product;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogSnapshotServiceTests {
+
+	private final List<Product> products = new CopyOnWriteArrayList<>();
+	private final AtomicInteger loads = new AtomicInteger();
+	private final CatalogSnapshotService snapshots =
+			new CatalogSnapshotService(products(), new SimpleMeterRegistry(), 100, 30);
+
+	@Test
+	void servesCachedSnapshotWhileCatalogVersionIsUnchanged() {
+		products.add(product(1L, "Чай"));
+
+		CatalogSnapshot first = snapshots.get(bot(3));
+		CatalogSnapshot second = snapshots.get(bot(3));
+
+		assertSame(first, second);
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void reloadsSnapshotWhenCatalogChangedOnAnotherInstance() {
+		products.add(product(1L, "Чай"));
+		CatalogSnapshot stale = snapshots.get(bot(3));
+
+		// Другой экземпляр добавил товар и поднял версию: событие сюда не дошло
+		products.add(product(2L, "Кофе"));
+		CatalogSnapshot fresh = snapshots.get(bot(4));
+
+		assertEquals(2, fresh.items().size());
+		assertNotEquals(stale.version(), fresh.version());
+		// Бот, прочитанный до изменения, не откатывает снимок назад
+		assertSame(fresh, snapshots.get(bot(3)));
+		assertEquals(2, loads.get());
+	}
+
+	private static Bot bot(long catalogVersion) {
+		Bot bot = new Bot();
+		bot.setId(1L);
+		bot.setCatalogVersion(catalogVersion);
+		return bot;
+	}
+
+	private static Product product(Long id, String name) {
+		Product product = new Product();
+		product.setId(id);
+		product.setName(name);
+		product.setPrice(BigDecimal.valueOf(1000));
+		product.setInStock(true);
+		return product;
+	}
+
+	private ProductRepository products() {
+		return (ProductRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{ProductRepository.class}, (proxy, method, args) -> {
+					if (!method.getName().equals("findByBotId")) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+					loads.incrementAndGet();
+					return List.copyOf(products);
+				});
+	}
+}
@@ -0,0 +1,84 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.dto.ChatCompletionResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatCompletionRouterTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final StubChatCompletionProvider stub = new StubChatCompletionProvider(10, 0, 20);
+	private final OpenAIChatCompletionProvider openAi = new OpenAIChatCompletionProvider(null, null);
+
+	@Test
+	void routesByProviderPrefixAndFallsBackToDefault() {
+		ChatCompletionRouter router = new ChatCompletionRouter(List.of(openAi, stub), "openai", "gpt-3.5-turbo");
+
+		assertSame(stub, router.route("stub:fast").provider());
+		assertEquals("fast", router.route("stub:fast").model());
+
+		// Модели OpenAI с двоеточиями (fine-tuned) не путаются с префиксом провайдера
+		assertSame(openAi, router.route("ft:gpt-3.5-turbo:shop::abc").provider());
+		assertEquals("ft:gpt-3.5-turbo:shop::abc", router.route("ft:gpt-3.5-turbo:shop::abc").model());
+
+		assertEquals(new ChatCompletionRouter.Route(openAi, "gpt-3.5-turbo"), router.route(null));
+		assertEquals(new ChatCompletionRouter.Route(openAi, "gpt-3.5-turbo"), router.route("  "));
+	}
+
+	@Test
+	void defaultProviderCanBeTheStub() {
+		ChatCompletionRouter router = new ChatCompletionRouter(List.of(openAi, stub), "stub", "gpt-3.5-turbo");
+
+		assertEquals(new ChatCompletionRouter.Route(stub, "gpt-4o-mini"), router.route("gpt-4o-mini"));
+		assertThrows(IllegalStateException.class, () -> new ChatCompletionRouter(List.of(stub), "openai", "x"));
+	}
+
+	@Test
+	void stubIsDeterministicAndStreamsTheSameText() {
+		ChatCompletionResponse first = stub.complete(request("Есть молоко?")).block(Duration.ofSeconds(5));
+		ChatCompletionResponse second = stub.complete(request("Есть молоко?")).block(Duration.ofSeconds(5));
+		assertEquals(first, second);
+		assertTrue(first.content().contains("Есть молоко?"));
+		assertEquals(20, first.usage().completionTokens());
+		assertTrue(first.usage().promptTokens() > 0);
+
+		AtomicReference<ChatCompletionResponse.Usage> usage = new AtomicReference<>();
+		String streamed = String.join("", stub.stream(request("Есть молоко?"), usage::set)
+				.collectList().block(Duration.ofSeconds(5)));
+		assertEquals(first.content(), streamed);
+		assertEquals(first.usage(), usage.get());
+	}
+
+	@Test
+	void modelPolicyAllowsConfiguredModelsAndPricesByModel() {
+		LlmModelPolicy policy = new LlmModelPolicy(List.of("gpt-3.5-turbo", " gpt-4o-mini "),
+				List.of("gpt-3.5-turbo=0.0015/0.002", "gpt-4o-mini=0.00015/0.0006"), "gpt-3.5-turbo");
+
+		assertTrue(policy.isAllowed("gpt-4o-mini"));
+		assertFalse(policy.isAllowed("gpt-4o"));
+		assertFalse(policy.isAllowed("stub:fast"));
+
+		assertEquals(0.00015 + 0.0006 * 2, policy.price("gpt-4o-mini").usdCost(1000, 2000), 1e-12);
+		// Модель без своей цены считается по цене openai.model
+		assertEquals(policy.price("gpt-3.5-turbo"), policy.price("gpt-4-turbo"));
+		assertThrows(IllegalStateException.class,
+				() -> new LlmModelPolicy(List.of(), List.of("gpt-4o-mini=0.1/0.2"), "gpt-3.5-turbo"));
+
+		assertTrue(openAi.billable());
+		assertFalse(stub.billable());
+	}
+
+	private ObjectNode request(String question) {
+		ObjectNode body = objectMapper.createObjectNode();
+		body.put("model", "fast");
+		body.putArray("messages").addObject().put("role", "user").put("content", question);
+		return body;
+	}
+}
@@ -0,0 +1,236 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.Repository.ChatMessageRepository;
+import com.chatalyst.backend.Repository.ChatSummaryRepository;
+import com.chatalyst.backend.model.ChatMessage;
+import com.chatalyst.backend.model.ChatSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatHistoryServiceTests {
+
+	private static final String BOT = "bot";
+	private static final long CHAT = 42L;
+	private static final LocalDateTime START = LocalDateTime.of(2026, 10, 17, 12, 0);
+	private static final Clock CLOCK = Clock.fixed(Instant.parse("2026-10-17T13:00:00Z"), ZoneOffset.UTC);
+
+	private final List<ChatMessage> database = new CopyOnWriteArrayList<>();
+	private final List<ChatSummary> summaryRows = new CopyOnWriteArrayList<>();
+	private final List<List<String[]>> summarized = new CopyOnWriteArrayList<>();
+	private final AtomicInteger loads = new AtomicInteger();
+	private ChatHistoryService history;
+
+	@AfterEach
+	void tearDown() {
+		if (history != null) {
+			history.shutdown();
+		}
+	}
+
+	@Test
+	void picksUpTurnsHandledByAnotherInstance() {
+		history = service(true);
+		persist(message(1, 0, "user", "Привет"), message(2, 1, "assistant", "Здравствуйте"));
+		assertEquals(List.of("Привет", "Здравствуйте", "Есть доставка?"),
+				contents(history.historyFor(BOT, CHAT, "Есть доставка?")));
+
+		// Следующую реплику обработал другой экземпляр: у него свой блок id
+		persist(message(51, 2, "user", "Есть доставка?"), message(52, 3, "assistant", "Да, по городу"));
+
+		assertEquals(List.of("Привет", "Здравствуйте", "Есть доставка?", "Да, по городу", "Сколько стоит?"),
+				contents(history.historyFor(BOT, CHAT, "Сколько стоит?")));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	void keepsOwnUnwrittenTurnsWhenReloading() {
+		history = service(true);
+		persist(message(1, 0, "user", "Привет"));
+		history.historyFor(BOT, CHAT, "Привет");
+
+		// Свои реплики ещё в очереди ChatLogWriter, а реплика другого экземпляра уже в БД
+		persist(message(51, 1, "assistant", "Здравствуйте"));
+		history.append(message(2, 2, "user", "Есть доставка?"));
+		history.append(message(3, 3, "assistant", "Да"));
+
+		assertEquals(List.of("Привет", "Здравствуйте", "Есть доставка?", "Да", "Спасибо"),
+				contents(history.historyFor(BOT, CHAT, "Спасибо")));
+	}
+
+	@Test
+	void servesBufferWithoutReloadWhenNothingIsMissing() {
+		history = service(true);
+		persist(message(1, 0, "user", "Привет"));
+		history.historyFor(BOT, CHAT, "Привет");
+		// Своя реплика записана или ещё в очереди — буфер актуален
+		ChatMessage own = message(2, 1, "assistant", "Здравствуйте");
+		history.append(own);
+		history.historyFor(BOT, CHAT, "Как дела?");
+		persist(own);
+		history.historyFor(BOT, CHAT, "Как дела?");
+
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void singleInstanceModeTrustsBuffer() {
+		history = service(false);
+		persist(message(1, 0, "user", "Привет"));
+		history.historyFor(BOT, CHAT, "Привет");
+		persist(message(51, 1, "assistant", "Здравствуйте"));
+
+		assertEquals(List.of("Привет", "Пока"), contents(history.historyFor(BOT, CHAT, "Пока")));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void replacesCompactedTurnsWithSummary() throws InterruptedException {
+		history = compactingService();
+		persist(message(1, 0, "user", "Привет"), message(2, 1, "assistant", "Здравствуйте"),
+				message(3, 2, "user", "Есть доставка?"), message(4, 3, "assistant", "Да, по городу"));
+		history.historyFor(BOT, CHAT, "Сколько стоит?");
+
+		ChatSummary saved = awaitSummary();
+		assertEquals(List.of("Привет", "Здравствуйте"), summarized.get(0).stream().map(turn -> turn[1]).toList());
+		assertEquals(2L, saved.getLastMessageId());
+		assertEquals(START.plusMinutes(1), saved.getLastMessageCreatedAt());
+		assertEquals(LocalDateTime.now(CLOCK), saved.getUpdatedAt());
+
+		List<String[]> next = history.historyFor(BOT, CHAT, "Сколько стоит?");
+		assertEquals("system", next.get(0)[0]);
+		assertTrue(next.get(0)[1].endsWith("Клиент спрашивал о доставке"));
+		assertEquals(List.of("Есть доставка?", "Да, по городу", "Сколько стоит?"),
+				contents(next.subList(1, next.size())));
+	}
+
+	@Test
+	void keepsNewerTurnsWithLowerIdThanSummaryBoundary() {
+		// Содержание составил другой экземпляр: граница — сообщение 52 из его блока id,
+		// и в буфере её нет (например, уже вытеснена), так что по позиции её не найти
+		summaryRows.add(ChatSummary.builder().chatId(CHAT).botIdentifier(BOT).summary("Клиент поздоровался")
+				.lastMessageId(52L).lastMessageCreatedAt(START.plusMinutes(1)).build());
+		persist(message(51, 0, "user", "Привет"),
+				message(3, 2, "user", "Есть доставка?"), message(4, 3, "assistant", "Да, по городу"));
+		history = service(false);
+
+		List<String[]> turns = history.historyFor(BOT, CHAT, "Сколько стоит?");
+
+		assertEquals("system", turns.get(0)[0]);
+		assertEquals(List.of("Есть доставка?", "Да, по городу", "Сколько стоит?"),
+				contents(turns.subList(1, turns.size())));
+	}
+
+	@Test
+	void comparesLegacySummaryBoundaryById() {
+		// Содержание сохранено до колонки last_message_created_at, а сообщения-границы уже нет
+		summaryRows.add(ChatSummary.builder().chatId(CHAT).botIdentifier(BOT).summary("Клиент поздоровался")
+				.lastMessageId(2L).build());
+		persist(message(2, 1, "assistant", "Здравствуйте"), message(3, 2, "user", "Есть доставка?"));
+		history = service(false);
+
+		List<String[]> turns = history.historyFor(BOT, CHAT, "Сколько стоит?");
+
+		assertEquals(List.of("Есть доставка?", "Сколько стоит?"), contents(turns.subList(1, turns.size())));
+	}
+
+	private ChatHistoryService service(boolean syncWithDatabase) {
+		return new ChatHistoryService(messages(), summaries(), null, new SimpleMeterRegistry(), CLOCK,
+				1500, 30, 1000, 60, 90, syncWithDatabase, false, 1200, 6, 1, 10);
+	}
+
+	/**
+	 * Сжимает всё, кроме двух последних реплик, как только их больше двух.
+	 */
+	private ChatHistoryService compactingService() {
+		OpenAIService openAI = new OpenAIService(null, null, null, null, null, null, "test", 60) {
+			@Override
+			public String summarizeConversation(String previousSummary, List<String[]> turns,
+												String botIdentifier, Long chatId) {
+				summarized.add(turns);
+				return "Клиент спрашивал о доставке";
+			}
+		};
+		return new ChatHistoryService(messages(), summaries(), openAI, new SimpleMeterRegistry(), CLOCK,
+				1500, 30, 1000, 60, 90, true, true, 0, 2, 1, 10);
+	}
+
+	private ChatSummary awaitSummary() throws InterruptedException {
+		for (int i = 0; i < 500 && summaryRows.isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse(summaryRows.isEmpty(), "summary was not saved");
+		return summaryRows.get(0);
+	}
+
+	private void persist(ChatMessage... messages) {
+		database.addAll(List.of(messages));
+	}
+
+	private static ChatMessage message(long id, int minute, String role, String content) {
+		return ChatMessage.builder().id(id).chatId(CHAT).botIdentifier(BOT).role(role).content(content)
+				.createdAt(START.plusMinutes(minute)).build();
+	}
+
+	private static List<String> contents(List<String[]> history) {
+		return history.stream().map(turn -> turn[1]).toList();
+	}
+
+	/**
+	 * chat_message в памяти: только методы, которые вызывает ChatHistoryService.
+	 */
+	private ChatMessageRepository messages() {
+		Comparator<ChatMessage> order = Comparator.comparing(ChatMessage::getCreatedAt).thenComparing(ChatMessage::getId);
+		return (ChatMessageRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{ChatMessageRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+					case "findTop30ByChatIdAndBotIdentifierAndCreatedAtAfterOrderByCreatedAtDescIdDesc" -> {
+						loads.incrementAndGet();
+						yield database.stream()
+								.filter(m -> m.getChatId().equals(args[0]) && m.getBotIdentifier().equals(args[1])
+										&& m.getCreatedAt().isAfter((LocalDateTime) args[2]))
+								.sorted(order.reversed())
+								.limit(30)
+								.toList();
+					}
+					case "findIdsFrom" -> database.stream()
+							.filter(m -> m.getChatId().equals(args[0]) && m.getBotIdentifier().equals(args[1]))
+							.filter(m -> m.getCreatedAt().isAfter((LocalDateTime) args[2])
+									|| m.getCreatedAt().equals(args[2]) && m.getId() >= (Long) args[3])
+							.map(ChatMessage::getId)
+							.toList();
+					default -> throw new UnsupportedOperationException(method.getName());
+				});
+	}
+
+	/**
+	 * chat_summaries в памяти.
+	 */
+	private ChatSummaryRepository summaries() {
+		List<ChatSummary> rows = summaryRows;
+		return (ChatSummaryRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{ChatSummaryRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+					case "findByChatIdAndBotIdentifier" -> rows.stream()
+							.filter(s -> s.getChatId().equals(args[0]) && s.getBotIdentifier().equals(args[1]))
+							.findFirst();
+					case "save" -> {
+						ChatSummary summary = (ChatSummary) args[0];
+						rows.remove(summary);
+						rows.add(summary);
+						yield summary;
+					}
+					default -> throw new UnsupportedOperationException(method.getName());
+				});
+	}
+}
@@ -0,0 +1,197 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.model.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatLogWriterTests {
+
+	private final AtomicLong sequence = new AtomicLong();
+	private volatile int failures;
+	private volatile String poisonContent;
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	// Последовательность в памяти; первые failures вставок падают по таймауту,
+	// пакет с poisonContent отвергается, как строка вне всех секций
+	private final RecordingJdbcTemplate jdbc = new RecordingJdbcTemplate()
+			.values(statement -> sequence.addAndGet(ChatLogWriter.ALLOCATION_SIZE))
+			.onStatement(statement -> {
+				if (!statement.contains("INSERT INTO chat_message")) {
+					return;
+				}
+				if (failures > 0) {
+					failures--;
+					throw new QueryTimeoutException("canceling statement due to statement timeout");
+				}
+				if (statement.batch().stream().anyMatch(message ->
+						((ChatMessage) message).getContent().equals(poisonContent))) {
+					throw new DataIntegrityViolationException("no partition of relation \"chat_message\" found for row");
+				}
+			});
+	private final RecordingStats stats = new RecordingStats();
+	private ChatLogWriter writer;
+
+	@AfterEach
+	void tearDown() {
+		if (writer != null) {
+			writer.shutdown();
+		}
+	}
+
+	@Test
+	void assignsIdsFromSequenceBlocksWithoutRealigning() {
+		writer = writer(1000, 1000);
+		List<ChatMessage> messages = messages(ChatLogWriter.ALLOCATION_SIZE + 10);
+
+		writer.append(messages);
+
+		assertEquals(LongStream.rangeClosed(1, messages.size()).boxed().toList(),
+				messages.stream().map(ChatMessage::getId).toList());
+		assertTrue(messages.stream().allMatch(message -> message.getCreatedAt() != null));
+		// Один nextval на блок; setval на горячем пути нет
+		assertEquals(List.of("SELECT nextval('chat_message_seq')", "SELECT nextval('chat_message_seq')"), jdbc.sql());
+	}
+
+	@Test
+	void writesBatchesAndStatsTogether() {
+		writer = writer(2, 1000);
+		writer.append(messages(5));
+
+		// Полные пакеты сбрасываются на потоке записи, остаток — при остановке
+		writer.shutdown();
+		writer = null;
+
+		assertTrue(jdbc.statements("INSERT INTO chat_message").stream().allMatch(batch -> batch.batch().size() <= 2));
+		assertEquals(List.of(1L, 2L, 3L, 4L, 5L), insertedIds());
+		assertEquals(insertedIds(), stats.recordedIds());
+	}
+
+	@Test
+	void keepsFailedBatchQueuedWithItsIds() {
+		writer = writer(1000, 1000);
+		writer.append(messages(3));
+		failures = 1;
+
+		assertThrows(QueryTimeoutException.class, writer::flush);
+		assertTrue(insertedIds().isEmpty());
+		assertTrue(stats.recordedIds().isEmpty());
+
+		writer.flush();
+		assertEquals(List.of(1L, 2L, 3L), insertedIds());
+		assertEquals(List.of(1L, 2L, 3L), stats.recordedIds());
+	}
+
+	@Test
+	void dropsRejectedMessageAfterMaxFailuresWithoutBlockingOthers() {
+		writer = writer(1000, 1000);
+		poisonContent = "message 1";
+		writer.append(messages(3));
+
+		writer.flush();
+		// Остальные сообщения записаны по одной; отвергнутое — одна попытка за сброс
+		assertEquals(List.of(1L, 3L), insertedIds());
+		assertEquals(List.of(1L, 3L), stats.recordedIds());
+		assertEquals(1.0, registry.counter("chat.log.writer.records", "result", "failed").count());
+
+		writer.flush();
+		writer.flush();
+		assertEquals(1.0, registry.counter("chat.log.writer.records", "result", "rejected").count());
+		// Очередь пуста: новые сообщения пишутся обычным пакетом
+		writer.append(messages(1));
+		writer.flush();
+		assertEquals(List.of(1L, 3L, 4L), insertedIds());
+	}
+
+	@Test
+	void rejectedDirectWriteDoesNotFailAppend() {
+		writer = writer(1000, 1);
+		poisonContent = "message 2";
+
+		// Первое сообщение в очереди, остальные пишутся сразу: отвергнутое не мешает второму
+		assertDoesNotThrow(() -> writer.append(messages(3)));
+		assertEquals(List.of(2L), insertedIds());
+		writer.flush();
+		assertEquals(List.of(2L, 1L), insertedIds());
+	}
+
+	@Test
+	void writesDirectlyWhenBacklogIsFull() {
+		writer = writer(1000, 1);
+		writer.append(messages(3));
+
+		// Первое сообщение ждёт в очереди, остальные записаны на вызывающем потоке
+		assertEquals(List.of(2L, 3L), insertedIds());
+		writer.flush();
+		assertEquals(List.of(2L, 3L, 1L), insertedIds());
+	}
+
+	@Test
+	void shutdownFlushesRemainingMessages() {
+		writer = writer(1000, 1000);
+		writer.append(messages(3));
+
+		writer.shutdown();
+		writer = null;
+
+		assertEquals(List.of(1L, 2L, 3L), insertedIds());
+	}
+
+	private ChatLogWriter writer(int batchSize, int queueCapacity) {
+		// Плановый сброс не вмешивается: тесты вызывают flush() сами
+		return new ChatLogWriter(jdbc, new TransactionTemplate(new NoopTransactionManager()), stats,
+				Clock.systemUTC(), registry, batchSize, 3_600_000, queueCapacity, 3);
+	}
+
+	private List<Long> insertedIds() {
+		return jdbc.batchItems("INSERT INTO chat_message", ChatMessage.class).stream().map(ChatMessage::getId).toList();
+	}
+
+	private static List<ChatMessage> messages(int count) {
+		List<ChatMessage> messages = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			ChatMessage message = new ChatMessage();
+			message.setRole(i % 2 == 0 ? "user" : "assistant");
+			message.setContent("message " + i);
+			message.setChatId(42L);
+			message.setBotIdentifier("bot");
+			messages.add(message);
+		}
+		return messages;
+	}
+
+	/**
+	 * Счётчики ботов без БД: запоминает сообщения, учтённые вместе с пакетом.
+	 */
+	private static final class RecordingStats extends BotStatsService {
+		private final List<ChatMessage> recorded = new CopyOnWriteArrayList<>();
+
+		RecordingStats() {
+			super(null, null, null, null);
+		}
+
+		@Override
+		void ensureBackfilled() {
+		}
+
+		@Override
+		void record(List<ChatMessage> messages) {
+			recorded.addAll(messages);
+		}
+
+		List<Long> recordedIds() {
+			return recorded.stream().map(ChatMessage::getId).toList();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.chatalyst.backend.security.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatMessagePartitionServiceTests {
+
+	private static final Clock CLOCK = Clock.fixed(Instant.parse("2026-10-17T12:00:00Z"), ZoneOffset.UTC);
+
+	@Test
+	void partitionNameMatchesMigrationConvention() {
+		assertEquals("chat_message_y2026m03", ChatMessagePartitionService.partitionName(YearMonth.of(2026, 3)));
+		assertEquals("chat_message_y2026m12", ChatMessagePartitionService.partitionName(YearMonth.of(2026, 12)));
+	}
+
+	@Test
+	void parsesUpperBoundOfPartitionExpression() {
+		assertEquals(LocalDateTime.of(2026, 11, 1, 0, 0),
+				ChatMessagePartitionService.upperBound("FOR VALUES FROM ('2026-10-01 00:00:00') TO ('2026-11-01 00:00:00')"));
+		// Старая таблица, присоединённая миграцией
+		assertEquals(LocalDateTime.of(2026, 10, 1, 0, 0),
+				ChatMessagePartitionService.upperBound("FOR VALUES FROM (MINVALUE) TO ('2026-10-01 00:00:00')"));
+		// Секция по умолчанию не удаляется
+		assertNull(ChatMessagePartitionService.upperBound("DEFAULT"));
+	}
+
+	@Test
+	void neverExpiresLegacyOrDefaultPartitions() {
+		LocalDateTime cutoff = LocalDateTime.of(2026, 10, 1, 0, 0);
+		assertTrue(ChatMessagePartitionService.isExpired(partition("chat_message_y2026m09", 2026, 9, false), cutoff));
+		assertFalse(ChatMessagePartitionService.isExpired(partition("chat_message_y2026m10", 2026, 10, false), cutoff));
+		assertFalse(ChatMessagePartitionService.isExpired(new ChatMessagePartitionService.Partition("chat_message_legacy",
+				"FOR VALUES FROM (MINVALUE) TO ('2026-01-01 00:00:00')", false), cutoff));
+		assertFalse(ChatMessagePartitionService.isExpired(
+				new ChatMessagePartitionService.Partition("chat_message_default", "DEFAULT", false), cutoff));
+	}
+
+	@Test
+	void createsPartitionsForMonthOfChatLogClock() {
+		// В UTC ещё октябрь, в поясе приложения (UTC+5) — уже ноябрь: секции считаются по часам приложения
+		Clock almaty = Clock.fixed(Instant.parse("2026-10-31T20:00:00Z"), ZoneId.of("Asia/Almaty"));
+		RecordingJdbcTemplate jdbc = new RecordingJdbcTemplate();
+
+		new ChatMessagePartitionService(jdbc, almaty, 1, 0, 24).createUpcomingPartitions();
+
+		assertEquals(List.of(
+				"CREATE TABLE IF NOT EXISTS chat_message_y2026m11 PARTITION OF chat_message FOR VALUES FROM ('2026-11-01') TO ('2026-12-01')",
+				"CREATE TABLE IF NOT EXISTS chat_message_y2026m12 PARTITION OF chat_message FOR VALUES FROM ('2026-12-01') TO ('2027-01-01')"),
+				jdbc.sql());
+	}
+
+	@Test
+	void detachesConcurrentlyBeforeDropping() {
+		YearMonth old = YearMonth.now(CLOCK).minusMonths(13);
+		YearMonth current = YearMonth.now(CLOCK);
+		RecordingJdbcTemplate jdbc = jdbc(List.of(
+				partition(ChatMessagePartitionService.partitionName(old), old.getYear(), old.getMonthValue(), false),
+				partition(ChatMessagePartitionService.partitionName(current), current.getYear(), current.getMonthValue(), false),
+				new ChatMessagePartitionService.Partition("chat_message_legacy",
+						"FOR VALUES FROM (MINVALUE) TO ('2020-01-01 00:00:00')", false)));
+
+		new ChatMessagePartitionService(jdbc, CLOCK, 2, 12, 24).dropExpiredPartitions();
+
+		String name = ChatMessagePartitionService.partitionName(old);
+		assertEquals(List.of(
+				"ALTER TABLE chat_message DETACH PARTITION \"" + name + "\" CONCURRENTLY",
+				"DROP TABLE \"" + name + "\""), ddl(jdbc));
+	}
+
+	@Test
+	void finalizesInterruptedDetachAndFallsBackWithDefaultPartition() {
+		YearMonth old = YearMonth.now(CLOCK).minusMonths(13);
+		YearMonth older = old.minusMonths(1);
+		RecordingJdbcTemplate jdbc = jdbc(List.of(
+				partition("chat_message_pending", older.getYear(), older.getMonthValue(), true),
+				partition(ChatMessagePartitionService.partitionName(old), old.getYear(), old.getMonthValue(), false),
+				new ChatMessagePartitionService.Partition("chat_message_default", "DEFAULT", false)));
+
+		new ChatMessagePartitionService(jdbc, CLOCK, 2, 12, 24).dropExpiredPartitions();
+
+		String name = ChatMessagePartitionService.partitionName(old);
+		assertEquals(List.of(
+				"ALTER TABLE chat_message DETACH PARTITION \"chat_message_pending\" FINALIZE",
+				"DROP TABLE \"chat_message_pending\"",
+				"ALTER TABLE chat_message DETACH PARTITION \"" + name + "\"",
+				"DROP TABLE \"" + name + "\""), ddl(jdbc));
+	}
+
+	/**
+	 * Отдаёт заданные секции как строки pg_inherits и запоминает DDL.
+	 */
+	private static RecordingJdbcTemplate jdbc(List<ChatMessagePartitionService.Partition> partitions) {
+		return new RecordingJdbcTemplate().rows(statement -> partitions.stream()
+				.map(p -> new Object[]{p.name(), p.bound(), p.detachPending()})
+				.toList());
+	}
+
+	private static List<String> ddl(RecordingJdbcTemplate jdbc) {
+		return jdbc.sql().stream().filter(sql -> sql.startsWith("ALTER") || sql.startsWith("DROP")).toList();
+	}
+
+	private static ChatMessagePartitionService.Partition partition(String name, int year, int month, boolean pending) {
+		YearMonth from = YearMonth.of(year, month);
+		return new ChatMessagePartitionService.Partition(name, String.format(
+				"FOR VALUES FROM ('%s 00:00:00') TO ('%s 00:00:00')", from.atDay(1), from.plusMonths(1).atDay(1)), pending);
+	}
+}
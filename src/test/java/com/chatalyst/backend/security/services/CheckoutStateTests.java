@@ -0,0 +1,54 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.security.services.CheckoutState.Step;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckoutStateTests {
+
+	@Test
+	void collectsAddressThenPhoneThenConfirms() {
+		CheckoutState state = CheckoutState.start().accept("ул. Абая 10, кв 5");
+		assertEquals(Step.AWAITING_PHONE, state.step());
+		assertEquals("ул. Абая 10, кв 5", state.address());
+
+		state = state.accept("+7 (700) 123-45-67");
+		assertEquals(Step.AWAITING_CONFIRMATION, state.step());
+		assertEquals("+7 (700) 123-45-67", state.phone());
+		assertNull(state.comment());
+
+		// На подтверждении текст без меток — комментарий
+		state = state.accept("Позвоните за 10 минут");
+		assertEquals(Step.AWAITING_CONFIRMATION, state.step());
+		assertEquals("Позвоните за 10 минут", state.comment());
+	}
+
+	@Test
+	void acceptsAllFieldsInOneLabeledMessage() {
+		CheckoutState state = CheckoutState.start().accept(
+				"Адрес: ул. Абая 10, кв 5\nТелефон: +77001234567\nКомментарий: Позвоните за 10 минут");
+		assertEquals(Step.AWAITING_CONFIRMATION, state.step());
+		assertEquals("ул. Абая 10, кв 5", state.address());
+		assertEquals("+77001234567", state.phone());
+		assertEquals("Позвоните за 10 минут", state.comment());
+	}
+
+	@Test
+	void invalidPhoneKeepsStep() {
+		CheckoutState state = CheckoutState.start().accept("ул. Абая 10").accept("позвоните мне");
+		assertEquals(Step.AWAITING_PHONE, state.step());
+		assertNull(state.phone());
+
+		assertFalse(CheckoutState.validPhone("12345"));
+		assertFalse(CheckoutState.validPhone("+7700123456789012"));
+		assertTrue(CheckoutState.validPhone("8 700 123 45 67"));
+	}
+
+	@Test
+	void rejectsValuesLongerThanOrderColumns() {
+		CheckoutState state = CheckoutState.start().accept("a".repeat(CheckoutState.MAX_ADDRESS_LENGTH + 1));
+		assertEquals(Step.AWAITING_ADDRESS, state.step());
+		assertNull(state.address());
+	}
+}
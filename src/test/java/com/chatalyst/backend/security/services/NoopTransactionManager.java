@@ -0,0 +1,25 @@
+package com.chatalyst.backend.security.services;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+/**
+ * Транзакции без БД: TransactionTemplate просто выполняет колбэк (в паре с RecordingJdbcTemplate).
+ */
+final class NoopTransactionManager implements PlatformTransactionManager {
+
+	@Override
+	public TransactionStatus getTransaction(TransactionDefinition definition) {
+		return new SimpleTransactionStatus();
+	}
+
+	@Override
+	public void commit(TransactionStatus status) {
+	}
+
+	@Override
+	public void rollback(TransactionStatus status) {
+	}
+}
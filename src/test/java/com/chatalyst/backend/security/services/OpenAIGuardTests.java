@@ -0,0 +1,55 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.util.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpenAIGuardTests {
+
+	@Test
+	void appliesPerCallTimeoutInsteadOfGuardTimeout() {
+		OpenAIGuard guard = guard(20);
+
+		// Общий тайм-аут 20 мс, свой — 2 с: ответ через 100 мс доходит
+		String response = guard.protect("bot", Duration.ofSeconds(2), false,
+				() -> Mono.just("ok").delayElement(Duration.ofMillis(100))).block();
+
+		assertEquals("ok", response);
+	}
+
+	@Test
+	void importTimeoutDoesNotOpenCircuit() {
+		OpenAIGuard guard = guard(30_000);
+
+		for (int i = 0; i < 3; i++) {
+			Mono<String> call = guard.protect("bot", Duration.ofMillis(10), false, Mono::never);
+			assertTrue(assertThrows(RuntimeException.class, call::block).getCause() instanceof TimeoutException);
+		}
+
+		assertEquals(CircuitBreaker.State.CLOSED, guard.circuitState());
+	}
+
+	@Test
+	void chatTimeoutOpensCircuit() {
+		OpenAIGuard guard = guard(10);
+
+		for (int i = 0; i < 3; i++) {
+			Mono<String> call = guard.protect("bot", Mono::never);
+			assertThrows(RuntimeException.class, call::block);
+		}
+
+		assertEquals(CircuitBreaker.State.OPEN, guard.circuitState());
+		Mono<String> rejected = guard.protect("bot", () -> Mono.just("ok"));
+		assertThrows(OpenAIGuard.RejectedException.class, rejected::block);
+	}
+
+	private static OpenAIGuard guard(long timeoutMs) {
+		return new OpenAIGuard(new SimpleMeterRegistry(), 8, 8, timeoutMs, 15_000, 10, 3, 0.5, 30, 1);
+	}
+}
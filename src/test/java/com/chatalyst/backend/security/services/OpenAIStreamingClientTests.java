@@ -0,0 +1,108 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.dto.ChatCompletionResponse;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpenAIStreamingClientTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private HttpServer server;
+	private OpenAIStreamingClient client;
+	private final AtomicReference<String> requestBody = new AtomicReference<>();
+	private volatile int status = 200;
+	private volatile List<String> events = List.of();
+
+	@BeforeEach
+	void setUp() throws Exception {
+		// Заглушка OpenAI: отдаёт заранее заданные SSE-события с паузой между ними
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/v1/chat/completions", exchange -> {
+			requestBody.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+			if (status != 200) {
+				exchange.sendResponseHeaders(status, -1);
+				exchange.close();
+				return;
+			}
+			exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream out = exchange.getResponseBody()) {
+				for (String event : events) {
+					out.write(("data: " + event + "\n\n").getBytes(StandardCharsets.UTF_8));
+					out.flush();
+					Thread.sleep(20);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		server.start();
+
+		WebClient webClient = WebClient.builder()
+				.baseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/v1")
+				.build();
+		client = new OpenAIStreamingClient(webClient, objectMapper);
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	void streamsContentDeltasAndReportsUsage() throws Exception {
+		events = List.of(
+				"{\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}",
+				"{\"choices\":[{\"delta\":{\"content\":\"Привет\"}}]}",
+				"{\"choices\":[{\"delta\":{\"content\":\"! Есть \"}}]}",
+				"{\"choices\":[{\"delta\":{\"content\":\"молоко.\"},\"finish_reason\":\"stop\"}]}",
+				"{\"choices\":[],\"usage\":{\"prompt_tokens\":120,\"completion_tokens\":7,\"total_tokens\":127}}",
+				"[DONE]",
+				"{\"choices\":[{\"delta\":{\"content\":\"после DONE\"}}]}");
+		AtomicReference<ChatCompletionResponse.Usage> usage = new AtomicReference<>();
+
+		List<String> chunks = client.stream(request(), "test-key", usage::set)
+				.collectList()
+				.block(Duration.ofSeconds(10));
+
+		assertEquals(List.of("Привет", "! Есть ", "молоко."), chunks);
+		assertEquals(new ChatCompletionResponse.Usage(120, 7, 127), usage.get());
+
+		JsonNode sent = objectMapper.readTree(requestBody.get());
+		assertTrue(sent.path("stream").asBoolean());
+		assertTrue(sent.path("stream_options").path("include_usage").asBoolean());
+		assertEquals("gpt-test", sent.path("model").asText());
+	}
+
+	@Test
+	void propagatesHttpErrors() {
+		status = 500;
+
+		assertThrows(WebClientResponseException.InternalServerError.class,
+				() -> client.stream(request(), "test-key", usage -> { }).blockLast(Duration.ofSeconds(10)));
+	}
+
+	private ObjectNode request() {
+		ObjectNode body = objectMapper.createObjectNode();
+		body.put("model", "gpt-test");
+		body.putArray("messages").addObject().put("role", "user").put("content", "Есть молоко?");
+		return body;
+	}
+}
@@ -0,0 +1,244 @@
+package com.chatalyst.backend.security.services;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.lang.reflect.Proxy;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Вместо PostgreSQL в тестах сервисов на JdbcTemplate: запоминает выполненные операторы по порядку.
+ * Результаты запросов и ошибки задаёт тест (rows, values, onStatement); строки отдаются через
+ * настоящий ResultSet, а параметры пакетов связываются настоящим ParameterizedPreparedStatementSetter,
+ * поэтому проверяется тот же код разбора и связывания, что работает с драйвером.
+ */
+class RecordingJdbcTemplate extends JdbcTemplate {
+
+	/**
+	 * Выполненный оператор: параметры запроса или, для batchUpdate, элементы пакета и их параметры.
+	 */
+	record Statement(String sql, List<Object> args, List<?> batch, List<List<Object>> batchArgs) {
+
+		boolean contains(String fragment) {
+			return sql.contains(fragment);
+		}
+	}
+
+	private final List<Statement> statements = new CopyOnWriteArrayList<>();
+	private volatile Consumer<Statement> onStatement = statement -> {
+	};
+	private volatile Function<Statement, List<Object[]>> rows = statement -> List.of();
+	private volatile Function<Statement, Object> values = statement -> null;
+
+	/**
+	 * Вызывается перед каждым оператором; исключение из обработчика — ошибка оператора (он не запоминается).
+	 */
+	RecordingJdbcTemplate onStatement(Consumer<Statement> onStatement) {
+		this.onStatement = onStatement;
+		return this;
+	}
+
+	/**
+	 * Строки для query (колонки по порядку, с 1).
+	 */
+	RecordingJdbcTemplate rows(Function<Statement, List<Object[]>> rows) {
+		this.rows = rows;
+		return this;
+	}
+
+	/**
+	 * Значение для queryForObject.
+	 */
+	RecordingJdbcTemplate values(Function<Statement, Object> values) {
+		this.values = values;
+		return this;
+	}
+
+	List<Statement> statements() {
+		return List.copyOf(statements);
+	}
+
+	List<String> sql() {
+		return statements.stream().map(Statement::sql).toList();
+	}
+
+	List<Statement> statements(String fragment) {
+		return statements.stream().filter(statement -> statement.contains(fragment)).toList();
+	}
+
+	/**
+	 * Элементы всех пакетов оператора, содержащего fragment, по порядку записи.
+	 */
+	<T> List<T> batchItems(String fragment, Class<T> type) {
+		return statements(fragment).stream().flatMap(statement -> statement.batch().stream()).map(type::cast).toList();
+	}
+
+	@Override
+	public void execute(String sql) {
+		record(sql, List.of());
+	}
+
+	@Override
+	public int update(String sql) {
+		record(sql, List.of());
+		return 0;
+	}
+
+	@Override
+	public int update(String sql, Object... args) {
+		record(sql, Arrays.asList(args));
+		return 0;
+	}
+
+	@Override
+	public <T> T queryForObject(String sql, Class<T> requiredType) {
+		return requiredType.cast(values.apply(record(sql, List.of())));
+	}
+
+	@Override
+	public <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+		return requiredType.cast(values.apply(record(sql, Arrays.asList(args))));
+	}
+
+	@Override
+	public void query(String sql, RowCallbackHandler rch) {
+		query(sql, rch, new Object[0]);
+	}
+
+	@Override
+	public void query(String sql, RowCallbackHandler rch, Object... args) {
+		ResultSet rs = resultSet(rows.apply(record(sql, Arrays.asList(args))));
+		try {
+			while (rs.next()) {
+				rch.processRow(rs);
+			}
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public <T> List<T> query(String sql, RowMapper<T> rowMapper) {
+		return query(sql, rowMapper, new Object[0]);
+	}
+
+	@Override
+	public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+		ResultSet rs = resultSet(rows.apply(record(sql, Arrays.asList(args))));
+		List<T> result = new ArrayList<>();
+		try {
+			while (rs.next()) {
+				result.add(rowMapper.mapRow(rs, result.size()));
+			}
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+		return result;
+	}
+
+	@Override
+	public <T> int[][] batchUpdate(String sql, Collection<T> batchArgs, int batchSize,
+								   ParameterizedPreparedStatementSetter<T> pss) {
+		List<T> batch = new ArrayList<>(batchArgs);
+		List<List<Object>> bound = new ArrayList<>();
+		try {
+			for (T item : batch) {
+				List<Object> params = new ArrayList<>();
+				pss.setValues(preparedStatement(params), item);
+				bound.add(params);
+			}
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+		Statement statement = new Statement(sql, List.of(), batch, bound);
+		onStatement.accept(statement);
+		statements.add(statement);
+		return new int[0][];
+	}
+
+	private Statement record(String sql, List<Object> args) {
+		Statement statement = new Statement(sql, args, List.of(), List.of());
+		onStatement.accept(statement);
+		statements.add(statement);
+		return statement;
+	}
+
+	/**
+	 * PreparedStatement, который только запоминает setXxx(индекс, значение).
+	 */
+	private static PreparedStatement preparedStatement(List<Object> params) {
+		return (PreparedStatement) Proxy.newProxyInstance(RecordingJdbcTemplate.class.getClassLoader(),
+				new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+					if (!method.getName().startsWith("set") || args == null || args.length < 2
+							|| !(args[0] instanceof Integer index)) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+					while (params.size() < index) {
+						params.add(null);
+					}
+					params.set(index - 1, method.getName().equals("setNull") ? null : args[1]);
+					return null;
+				});
+	}
+
+	/**
+	 * ResultSet только для чтения колонок по номеру.
+	 */
+	private static ResultSet resultSet(List<Object[]> rows) {
+		int[] row = {-1};
+		Object[] last = {null};
+		return (ResultSet) Proxy.newProxyInstance(RecordingJdbcTemplate.class.getClassLoader(),
+				new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+					switch (method.getName()) {
+						case "next":
+							return ++row[0] < rows.size();
+						case "wasNull":
+							return last[0] == null;
+						case "close":
+							return null;
+						default:
+							break;
+					}
+					if (!method.getName().startsWith("get") || args == null || !(args[0] instanceof Integer column)) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+					Object value = rows.get(row[0])[column - 1];
+					last[0] = value;
+					return convert(value, method.getReturnType());
+				});
+	}
+
+	private static Object convert(Object value, Class<?> type) {
+		if (type == long.class) {
+			return value == null ? 0L : ((Number) value).longValue();
+		}
+		if (type == int.class) {
+			return value == null ? 0 : ((Number) value).intValue();
+		}
+		if (type == boolean.class) {
+			return value != null && (Boolean) value;
+		}
+		if (value instanceof LocalDate date && type == Date.class) {
+			return Date.valueOf(date);
+		}
+		if (value instanceof LocalDateTime time && type == Timestamp.class) {
+			return Timestamp.valueOf(time);
+		}
+		return value;
+	}
+}
@@ -0,0 +1,110 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.model.Bot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheServiceTests {
+
+	private static final long TTL_MINUTES = 60;
+
+	private final AtomicLong nanos = new AtomicLong();
+	private final Bot bot = bot(1L);
+	private final CatalogSnapshot catalog = CatalogSnapshot.of(1, List.of());
+
+	@Test
+	void reusesAnswerForSameNormalizedQuestion() {
+		ResponseCacheService cache = cache(true, 100);
+		cache.put(bot, catalog, history("Доставка есть?"), "Да, по городу бесплатно");
+
+		assertEquals("Да, по городу бесплатно", cache.get(bot, catalog, history("  ДОСТАВКА есть? ")));
+	}
+
+	@Test
+	void keyDependsOnCatalogVersionBotModelAndHistory() {
+		ResponseCacheService cache = cache(true, 100);
+		cache.put(bot, catalog, history("Доставка есть?"), "Да");
+
+		assertNull(cache.get(bot, CatalogSnapshot.of(2, List.of()), history("Доставка есть?")));
+		assertNull(cache.get(bot(2L), catalog, history("Доставка есть?")));
+		Bot otherModel = bot(1L);
+		otherModel.setLlmModel("gpt-4o");
+		assertNull(cache.get(otherModel, catalog, history("Доставка есть?")));
+		assertNull(cache.get(bot, catalog, history("Привет", "Доставка есть?")));
+	}
+
+	@Test
+	void skipsErrorsLongQuestionsAndDisabledBots() {
+		ResponseCacheService cache = cache(true, 100);
+		cache.put(bot, catalog, history("Доставка есть?"), OpenAIService.ERROR_RESPONSE);
+		assertNull(cache.get(bot, catalog, history("Доставка есть?")));
+
+		String longQuestion = "а".repeat(201);
+		cache.put(bot, catalog, history(longQuestion), "Ответ");
+		assertNull(cache.get(bot, catalog, history(longQuestion)));
+
+		Bot disabled = bot(1L);
+		disabled.setResponseCacheEnabled(false);
+		cache.put(disabled, catalog, history("Доставка есть?"), "Да");
+		assertNull(cache.get(disabled, catalog, history("Доставка есть?")));
+
+		ResponseCacheService off = cache(false, 100);
+		off.put(bot, catalog, history("Доставка есть?"), "Да");
+		assertNull(off.get(bot, catalog, history("Доставка есть?")));
+	}
+
+	@Test
+	void expiresAfterTtl() {
+		ResponseCacheService cache = cache(true, 100);
+		cache.put(bot, catalog, history("Доставка есть?"), "Да");
+
+		nanos.addAndGet(TimeUnit.MINUTES.toNanos(TTL_MINUTES - 1));
+		assertEquals("Да", cache.get(bot, catalog, history("Доставка есть?")));
+		nanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+		assertNull(cache.get(bot, catalog, history("Доставка есть?")));
+	}
+
+	@Test
+	void keepsAtMostMaxSizeEntries() {
+		int maxSize = 10;
+		ResponseCacheService cache = cache(true, maxSize);
+		List<String> questions = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			questions.add("вопрос " + i);
+			cache.put(bot, catalog, history("вопрос " + i), "ответ " + i);
+		}
+
+		long cached = questions.stream().filter(q -> cache.get(bot, catalog, history(q)) != null).count();
+		assertTrue(cached > 0 && cached <= maxSize, "cached " + cached);
+	}
+
+	private ResponseCacheService cache(boolean enabled, long maxSize) {
+		// Обслуживание в вызывающем потоке: вытеснение видно сразу после put
+		return new ResponseCacheService(new SimpleMeterRegistry(), enabled, maxSize, TTL_MINUTES, 2, 200,
+				nanos::get, Runnable::run);
+	}
+
+	private static Bot bot(long id) {
+		Bot bot = new Bot();
+		bot.setId(id);
+		bot.setBotIdentifier("bot" + id);
+		bot.setShopName("Shop");
+		bot.setLlmModel("gpt-4o-mini");
+		return bot;
+	}
+
+	private static List<String[]> history(String... userMessages) {
+		List<String[]> history = new ArrayList<>();
+		for (String message : userMessages) {
+			history.add(new String[]{"user", message});
+		}
+		return history;
+	}
+}
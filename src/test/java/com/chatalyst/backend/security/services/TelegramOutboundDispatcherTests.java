@@ -0,0 +1,203 @@
+package com.chatalyst.backend.security.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TelegramOutboundDispatcherTests {
+
+	private static final String TOKEN = "token";
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final List<String> calls = new CopyOnWriteArrayList<>();
+	private TelegramOutboundDispatcher dispatcher;
+
+	@AfterEach
+	void tearDown() {
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+		}
+	}
+
+	@Test
+	void sendsMessagesOfOneChatInOrder() throws Exception {
+		// Ответы приходят с разной задержкой, но следующий запрос чата уходит только после предыдущего
+		dispatcher = dispatcher(4, 100, request -> Mono.delay(Duration.ofMillis(ThreadLocalRandom.current().nextInt(5)))
+				.then(ok()));
+
+		List<CompletableFuture<JsonNode>> results = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			results.add(dispatcher.send(TOKEN, 1, "m1_" + i, objectMapper.createObjectNode()));
+			results.add(dispatcher.send(TOKEN, 2, "m2_" + i, objectMapper.createObjectNode()));
+		}
+		CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+		assertEquals(expectedOrder("m1_"), calls.stream().filter(c -> c.startsWith("m1_")).toList());
+		assertEquals(expectedOrder("m2_"), calls.stream().filter(c -> c.startsWith("m2_")).toList());
+	}
+
+	@Test
+	void dropsMessagesBeyondChatQueueCapacity() throws Exception {
+		CompletableFuture<Void> release = new CompletableFuture<>();
+		dispatcher = dispatcher(4, 2, request -> Mono.fromFuture(release).then(ok()));
+
+		CompletableFuture<JsonNode> inFlight = dispatcher.send(TOKEN, 1, "first", objectMapper.createObjectNode());
+		CompletableFuture<JsonNode> queued1 = dispatcher.send(TOKEN, 1, "second", objectMapper.createObjectNode());
+		CompletableFuture<JsonNode> queued2 = dispatcher.send(TOKEN, 1, "third", objectMapper.createObjectNode());
+		CompletableFuture<JsonNode> overflow = dispatcher.send(TOKEN, 1, "fourth", objectMapper.createObjectNode());
+		// Другой чат не затронут переполнением
+		CompletableFuture<JsonNode> otherChat = dispatcher.send(TOKEN, 2, "other", objectMapper.createObjectNode());
+
+		ExecutionException dropped = assertThrows(ExecutionException.class, () -> overflow.get(1, TimeUnit.SECONDS));
+		assertInstanceOf(RejectedExecutionException.class, dropped.getCause());
+
+		release.complete(null);
+		CompletableFuture.allOf(inFlight, queued1, queued2, otherChat).get(5, TimeUnit.SECONDS);
+		assertFalse(calls.contains("fourth"));
+	}
+
+	@Test
+	void givesUpAfterMaxAttemptsAndMovesOn() throws Exception {
+		dispatcher = dispatcher(3, 100, request -> request.url().getPath().endsWith("/broken")
+				? error(HttpStatus.INTERNAL_SERVER_ERROR, "{\"ok\":false}")
+				: ok());
+
+		CompletableFuture<JsonNode> broken = dispatcher.send(TOKEN, 1, "broken", objectMapper.createObjectNode());
+		CompletableFuture<JsonNode> next = dispatcher.send(TOKEN, 1, "next", objectMapper.createObjectNode());
+
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> broken.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(WebClientResponseException.class, failure.getCause());
+		assertNotNull(next.get(5, TimeUnit.SECONDS));
+		assertEquals(List.of("broken", "broken", "broken", "next"), calls);
+	}
+
+	@Test
+	void rateLimitRetriesCountTowardsMaxAttempts() throws Exception {
+		dispatcher = dispatcher(2, 100, request -> request.url().getPath().endsWith("/limited")
+				? error(HttpStatus.TOO_MANY_REQUESTS, "{\"ok\":false,\"parameters\":{\"retry_after\":1}}")
+				: ok());
+
+		CompletableFuture<JsonNode> limited = dispatcher.send(TOKEN, 1, "limited", objectMapper.createObjectNode());
+		CompletableFuture<JsonNode> next = dispatcher.send(TOKEN, 1, "next", objectMapper.createObjectNode());
+
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> limited.get(5, TimeUnit.SECONDS));
+		assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(),
+				((WebClientResponseException) failure.getCause()).getStatusCode().value());
+		// Очередь чата не заблокирована навсегда
+		assertNotNull(next.get(5, TimeUnit.SECONDS));
+		assertEquals(List.of("limited", "limited", "next"), calls);
+	}
+
+	@Test
+	void rateLimitPausesOtherChatsOfTheBot() throws Exception {
+		CountDownLatch limited = new CountDownLatch(1);
+		dispatcher = dispatcher(2, 100, request -> {
+			if (request.url().getPath().endsWith("/limited") && limited.getCount() > 0) {
+				limited.countDown();
+				return error(HttpStatus.TOO_MANY_REQUESTS, "{\"ok\":false,\"parameters\":{\"retry_after\":1}}");
+			}
+			return ok();
+		});
+
+		CompletableFuture<JsonNode> first = dispatcher.send(TOKEN, 1, "limited", objectMapper.createObjectNode());
+		assertTrue(limited.await(5, TimeUnit.SECONDS));
+		long start = System.nanoTime();
+		dispatcher.send(TOKEN, 2, "other", objectMapper.createObjectNode()).get(5, TimeUnit.SECONDS);
+
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(800),
+				"other chat of the rate-limited bot was not paused");
+		assertNotNull(first.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void fallbackOnBadRequestKeepsItsPlaceInChatQueue() throws Exception {
+		// Первый запрос (file_id) отвергнут, запасной (URL) — принят
+		CountDownLatch rejected = new CountDownLatch(1);
+		dispatcher = dispatcher(4, 100, request -> {
+			if (request.url().getPath().endsWith("/sendPhoto") && rejected.getCount() > 0) {
+				rejected.countDown();
+				return error(HttpStatus.BAD_REQUEST, "{\"ok\":false,\"description\":\"wrong file identifier\"}");
+			}
+			return ok();
+		});
+
+		CompletableFuture<JsonNode> photo = dispatcher.send(TOKEN, 1, "sendPhoto",
+				objectMapper.createObjectNode().put("photo", "file-id"),
+				objectMapper.createObjectNode().put("photo", "https://example.com/photo.jpg"));
+		CompletableFuture<JsonNode> next = dispatcher.send(TOKEN, 1, "sendMessage", objectMapper.createObjectNode());
+
+		assertNotNull(photo.get(5, TimeUnit.SECONDS));
+		assertNotNull(next.get(5, TimeUnit.SECONDS));
+		// Запасной запрос ушёл сразу после отказа, до следующего сообщения чата
+		assertEquals(List.of("sendPhoto", "sendPhoto", "sendMessage"), calls);
+	}
+
+	@Test
+	void shutdownFailsPendingMessages() {
+		dispatcher = dispatcher(4, 100, request -> Mono.never());
+
+		CompletableFuture<JsonNode> inFlight = dispatcher.send(TOKEN, 1, "first", objectMapper.createObjectNode());
+		CompletableFuture<JsonNode> queued = dispatcher.send(TOKEN, 1, "second", objectMapper.createObjectNode());
+		dispatcher.shutdown();
+
+		for (CompletableFuture<JsonNode> result : List.of(inFlight, queued,
+				dispatcher.send(TOKEN, 1, "after", objectMapper.createObjectNode()))) {
+			ExecutionException failure = assertThrows(ExecutionException.class, () -> result.get(1, TimeUnit.SECONDS));
+			assertInstanceOf(RejectedExecutionException.class, failure.getCause());
+		}
+	}
+
+	private TelegramOutboundDispatcher dispatcher(int maxAttempts, int maxQueuePerChat,
+												  Function<ClientRequest, Mono<ClientResponse>> server) {
+		ExchangeFunction exchange = request -> {
+			String path = request.url().getPath();
+			calls.add(path.substring(path.lastIndexOf('/') + 1));
+			return server.apply(request);
+		};
+		WebClient webClient = WebClient.builder().exchangeFunction(exchange).build();
+		// Лимиты скорости не мешают тестам: проверяется порядок, переполнение и повторы
+		return new TelegramOutboundDispatcher(webClient, objectMapper, new SimpleMeterRegistry(),
+				1000, 1000, 1000, maxQueuePerChat, maxAttempts, 1);
+	}
+
+	private static List<String> expectedOrder(String prefix) {
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			expected.add(prefix + i);
+		}
+		return expected;
+	}
+
+	private static Mono<ClientResponse> ok() {
+		return Mono.just(ClientResponse.create(HttpStatus.OK)
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.body("{\"ok\":true}")
+				.build());
+	}
+
+	private static Mono<ClientResponse> error(HttpStatus status, String body) {
+		return Mono.just(ClientResponse.create(status)
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.body(body)
+				.build());
+	}
+}
@@ -0,0 +1,144 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.model.OpenAITokenUsage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenUsageWriterTests {
+
+	private volatile boolean unavailable;
+	private volatile String poisonBot;
+	private volatile int insertAttempts;
+	// Итоги уже заполнены; при unavailable падает любой оператор, пакет с poisonBot отвергается
+	private final RecordingJdbcTemplate jdbc = new RecordingJdbcTemplate()
+			.values(statement -> Boolean.FALSE)
+			.onStatement(statement -> {
+				if (unavailable) {
+					throw new CannotGetJdbcConnectionException("Connection refused");
+				}
+				if (statement.contains("INSERT INTO openaitoken_usage")) {
+					insertAttempts++;
+					if (statement.batch().stream().anyMatch(usage ->
+							((OpenAITokenUsage) usage).getBotIdentifier().equals(poisonBot))) {
+						throw new DataIntegrityViolationException("value too long for type character varying(255)");
+					}
+				}
+			});
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private TokenUsageWriter writer;
+
+	@AfterEach
+	void tearDown() {
+		if (writer != null) {
+			writer.shutdown();
+		}
+	}
+
+	@Test
+	void writesRawRowsAndRollupsInBatches() {
+		writer = writer(2, 5);
+		writer.submit(usage("bot1", 1));
+		writer.submit(usage("bot1", 1));
+		writer.submit(usage("bot2", 2));
+
+		// Полный пакет сбрасывается на потоке записи, остаток — при остановке
+		writer.shutdown();
+		writer = null;
+
+		assertEquals(List.of(2, 1), jdbc.statements("INSERT INTO openaitoken_usage").stream()
+				.map(statement -> statement.batch().size()).toList());
+		assertEquals(List.of("bot1", "bot1", "bot2"), insertedBots());
+		// Итоги обновляются в той же транзакции, под разделяемой блокировкой итогов
+		assertEquals(2, jdbc.statements("pg_advisory_xact_lock_shared").size());
+		assertEquals(1, jdbc.statements("pg_advisory_xact_lock(hashtext").size());
+		assertEquals(3.0, registry.counter("openai.usage.writer.records", "result", "written").count());
+	}
+
+	@Test
+	void keepsRecordsQueuedWhileDatabaseIsDown() {
+		writer = writer(10, 5);
+		writer.submit(usage("bot1", 1));
+		unavailable = true;
+
+		for (int i = 0; i < 10; i++) {
+			assertThrows(CannotGetJdbcConnectionException.class, writer::flush);
+		}
+		unavailable = false;
+		writer.flush();
+
+		// Недоступность БД не засчитывается записи как неудача
+		assertEquals(List.of("bot1"), insertedBots());
+		assertEquals(0.0, registry.counter("openai.usage.writer.records", "result", "rejected").count());
+	}
+
+	@Test
+	void dropsPoisonRecordAfterMaxFailuresWithoutBlockingOthers() {
+		writer = writer(10, 3);
+		poisonBot = "poison";
+		writer.submit(usage("bot1", 1));
+		writer.submit(usage("poison", 2));
+		writer.submit(usage("bot2", 3));
+
+		writer.flush();
+		// Остальные записи пакета записаны сразу, по одной; испорченная — одна попытка за сброс
+		assertEquals(List.of("bot1", "bot2"), insertedBots());
+		assertEquals(1.0, registry.counter("openai.usage.writer.records", "result", "failed").count());
+		assertEquals(2.0, registry.counter("openai.usage.writer.records", "result", "written").count());
+		assertEquals(0.0, registry.counter("openai.usage.writer.records", "result", "rejected").count());
+
+		writer.flush();
+		writer.flush();
+		assertEquals(List.of("bot1", "bot2"), insertedBots());
+		assertEquals(3.0, registry.counter("openai.usage.writer.records", "result", "failed").count());
+		assertEquals(1.0, registry.counter("openai.usage.writer.records", "result", "rejected").count());
+		// Очередь пуста: запись больше не повторяется
+		int attempts = insertAttempts;
+		writer.flush();
+		assertEquals(attempts, insertAttempts);
+	}
+
+	@Test
+	void shutdownFlushesRemainingRecords() {
+		writer = writer(100, 5);
+		writer.submit(usage("bot1", 1));
+		writer.submit(usage("bot2", 2));
+
+		writer.shutdown();
+
+		assertEquals(List.of("bot1", "bot2"), insertedBots());
+		writer = null;
+	}
+
+	private TokenUsageWriter writer(int batchSize, int maxRecordFailures) {
+		// Плановый сброс не вмешивается: тесты вызывают flush() сами
+		return new TokenUsageWriter(jdbc, new TransactionTemplate(new NoopTransactionManager()), registry,
+				batchSize, 3_600_000, 1000, maxRecordFailures);
+	}
+
+	private List<String> insertedBots() {
+		return jdbc.batchItems("INSERT INTO openaitoken_usage", OpenAITokenUsage.class).stream()
+				.map(OpenAITokenUsage::getBotIdentifier).toList();
+	}
+
+	private static OpenAITokenUsage usage(String botIdentifier, long chatId) {
+		return OpenAITokenUsage.builder()
+				.botIdentifier(botIdentifier)
+				.chatId(chatId)
+				.promptTokens(100)
+				.completionTokens(20)
+				.totalTokens(120)
+				.usdCost(0.001)
+				.kztCost(0.54)
+				.timestamp(LocalDateTime.of(2026, 1, 1, 12, 30))
+				.build();
+	}
+}
@@ -0,0 +1,68 @@
+package com.chatalyst.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AhoCorasickMatcherTests {
+
+	private static AhoCorasickMatcher<String> matcher(String... phrases) {
+		return new AhoCorasickMatcher<>(IntStream.range(0, phrases.length)
+				.mapToObj(i -> Map.entry(phrases[i], phrases[i]))
+				.collect(Collectors.toList()));
+	}
+
+	@Test
+	void findsCyrillicNamesIgnoringCase() {
+		AhoCorasickMatcher<String> matcher = matcher("Бананы", "Молоко 3,2%", "Қымыз");
+
+		assertEquals(List.of("Молоко 3,2%", "Бананы", "Қымыз"),
+				matcher.findAll("Берите МОЛОКО 3,2% и бананы! А ещё есть қымыз.", 10));
+	}
+
+	@Test
+	void matchesOnlyWholeWords() {
+		AhoCorasickMatcher<String> matcher = matcher("Сок", "Сок яблочный", "Лук");
+
+		assertEquals(List.of("Сок", "Сок яблочный"), matcher.findAll("Сок яблочный — хит!", 10));
+		assertEquals(List.of(), matcher.findAll("Соки и луковицы закончились", 10));
+		assertEquals(List.of("Лук"), matcher.findAll("Соковыжималка не нужна, берите лук", 10));
+	}
+
+	@Test
+	void keepsOrderOfAppearanceAndRespectsLimit() {
+		AhoCorasickMatcher<String> matcher = matcher("Чай", "Кофе", "Сахар", "Мёд");
+
+		assertEquals(List.of("Мёд", "Кофе"), matcher.findAll("Мёд, кофе, чай и снова мёд, сахар", 2));
+	}
+
+	@Test
+	void findsOverlappingPhrasesThroughSuffixLinks() {
+		AhoCorasickMatcher<String> matcher = matcher("he", "she", "hers", "Мороженое пломбир", "пломбир");
+
+		assertEquals(List.of("she", "he", "hers"), matcher.findAll("she he hers", 10));
+		assertEquals(List.of("Мороженое пломбир", "пломбир"), matcher.findAll("Есть мороженое пломбир!", 10));
+	}
+
+	@Test
+	void agreesWithPerProductRegexOnLatinText() {
+		List<String> names = IntStream.range(0, 500).mapToObj(i -> "Product " + i).toList();
+		AhoCorasickMatcher<String> matcher = matcher(names.toArray(new String[0]));
+		String reply = "Try Product 7, Product 42 and product 499; Product 4999 does not exist.";
+
+		List<String> expected = names.stream()
+				.filter(name -> Pattern.compile("\\b" + Pattern.quote(name) + "\\b", Pattern.CASE_INSENSITIVE)
+						.matcher(reply).find())
+				.sorted((a, b) -> Integer.compare(reply.toLowerCase().indexOf(a.toLowerCase()),
+						reply.toLowerCase().indexOf(b.toLowerCase())))
+				.toList();
+
+		assertEquals(expected, matcher.findAll(reply, Integer.MAX_VALUE));
+	}
+}
@@ -0,0 +1,40 @@
+package com.chatalyst.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Bm25IndexTests {
+
+	private static final List<String> PRODUCTS = List.of(
+			"Бананы свежие Фрукты",
+			"Молоко 3,2% Молочные продукты",
+			"Сок яблочный Напитки",
+			"Шоколад молочный Сладости",
+			"Қымыз Напитки",
+			"Яблоки зелёные Фрукты");
+
+	private final Bm25Index<String> index = new Bm25Index<>(PRODUCTS, text -> text);
+
+	@Test
+	void ranksProductsMatchingTheQueryFirst() {
+		// При равной частоте терма короткий документ релевантнее (нормализация длины BM25)
+		assertEquals(List.of("Қымыз Напитки", "Сок яблочный Напитки"), index.search("какие есть напитки?", 5));
+		assertEquals("Бананы свежие Фрукты", index.search("банан", 5).get(0));
+	}
+
+	@Test
+	void appliesQueryTermWeights() {
+		List<String> found = index.search(Map.of("шоколад", 1.0, "банан", 0.25), 2);
+
+		assertEquals(List.of("Шоколад молочный Сладости", "Бананы свежие Фрукты"), found);
+	}
+
+	@Test
+	void returnsNothingForUnknownTerms() {
+		assertTrue(index.search("привет", 5).isEmpty());
+	}
+}
@@ -0,0 +1,94 @@
+package com.chatalyst.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTests {
+
+	private final AtomicLong clock = new AtomicLong();
+	private final List<String> transitions = new ArrayList<>();
+
+	private CircuitBreaker breaker() {
+		// Окно 10 вызовов, минимум 4, порог 50%, открыт 30 с, 2 пробы
+		return new CircuitBreaker(10, 4, 0.5, Duration.ofSeconds(30), 2,
+				(from, to) -> transitions.add(from + "->" + to), clock::get);
+	}
+
+	@Test
+	void opensWhenFailureRateReachesThreshold() {
+		CircuitBreaker breaker = breaker();
+
+		breaker.onSuccess(breaker.acquire());
+		breaker.onFailure(breaker.acquire());
+		breaker.onFailure(breaker.acquire());
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state(), "fewer than minimum calls");
+
+		breaker.onSuccess(breaker.acquire());
+		breaker.onFailure(breaker.acquire());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+		assertEquals(CircuitBreaker.REJECTED, breaker.acquire());
+		assertEquals(List.of("CLOSED->OPEN"), transitions);
+	}
+
+	@Test
+	void halfOpenLetsLimitedProbesThroughAndClosesOnSuccess() {
+		CircuitBreaker breaker = breaker();
+		for (int i = 0; i < 4; i++) {
+			breaker.onFailure(breaker.acquire());
+		}
+		clock.addAndGet(Duration.ofSeconds(29).toNanos());
+		assertEquals(CircuitBreaker.REJECTED, breaker.acquire());
+
+		clock.addAndGet(Duration.ofSeconds(1).toNanos());
+		long first = breaker.acquire();
+		long second = breaker.acquire();
+		assertNotEquals(CircuitBreaker.REJECTED, first);
+		assertNotEquals(CircuitBreaker.REJECTED, second);
+		assertEquals(CircuitBreaker.REJECTED, breaker.acquire(), "only two probes at a time");
+
+		breaker.onSuccess(first);
+		breaker.onSuccess(second);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+		assertEquals(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+	}
+
+	@Test
+	void failedProbeReopensAndCancelledProbeFreesSlot() {
+		CircuitBreaker breaker = breaker();
+		for (int i = 0; i < 4; i++) {
+			breaker.onFailure(breaker.acquire());
+		}
+		clock.addAndGet(Duration.ofSeconds(30).toNanos());
+
+		long cancelled = breaker.acquire();
+		long probe = breaker.acquire();
+		breaker.onCancel(cancelled);
+		assertNotEquals(CircuitBreaker.REJECTED, breaker.acquire(), "cancelled probe must free its slot");
+
+		breaker.onFailure(probe);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+		assertEquals(CircuitBreaker.REJECTED, breaker.acquire());
+	}
+
+	@Test
+	void ignoresResultsOfCallsStartedBeforeTransition() {
+		CircuitBreaker breaker = breaker();
+		long stale = breaker.acquire();
+		for (int i = 0; i < 4; i++) {
+			breaker.onFailure(breaker.acquire());
+		}
+		clock.addAndGet(Duration.ofSeconds(30).toNanos());
+		long probe = breaker.acquire();
+
+		// Ответ на вызов, начатый ещё в CLOSED, не считается успешной пробой
+		breaker.onSuccess(stale);
+		breaker.onSuccess(probe);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+	}
+}
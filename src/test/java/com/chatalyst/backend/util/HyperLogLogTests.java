@@ -0,0 +1,74 @@
+package com.chatalyst.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HyperLogLogTests {
+
+	@Test
+	void smallCountsAreNearlyExactAndDuplicatesIgnored() {
+		HyperLogLog sketch = new HyperLogLog();
+		for (int repeat = 0; repeat < 3; repeat++) {
+			for (long chatId = 100_000_000L; chatId < 100_000_050L; chatId++) {
+				sketch.add(chatId);
+			}
+		}
+
+		assertEquals(50, sketch.estimate());
+		assertEquals(0, new HyperLogLog().estimate());
+	}
+
+	@Test
+	void largeCountsStayWithinErrorBound() {
+		HyperLogLog sketch = new HyperLogLog();
+		for (long chatId = 1; chatId <= 100_000; chatId++) {
+			sketch.add(chatId * 7919);
+		}
+
+		// Стандартная ошибка ~1.6% при точности 12; берём с запасом
+		assertEquals(100_000, sketch.estimate(), 100_000 * 0.05);
+	}
+
+	@Test
+	void mergeEstimatesUnionOfDays() {
+		HyperLogLog monday = new HyperLogLog();
+		HyperLogLog tuesday = new HyperLogLog();
+		HyperLogLog both = new HyperLogLog();
+		for (long chatId = 0; chatId < 3_000; chatId++) {
+			monday.add(chatId);
+			both.add(chatId);
+		}
+		for (long chatId = 2_000; chatId < 5_000; chatId++) {
+			tuesday.add(chatId);
+			both.add(chatId);
+		}
+
+		monday.merge(tuesday);
+
+		assertEquals(both, monday);
+		assertEquals(5_000, monday.estimate(), 5_000 * 0.05);
+		assertThrows(IllegalArgumentException.class, () -> monday.merge(new HyperLogLog(10)));
+	}
+
+	@Test
+	void serializationRoundTripsSparseAndDense() {
+		HyperLogLog sparse = new HyperLogLog();
+		for (long chatId = 0; chatId < 20; chatId++) {
+			sparse.add(chatId);
+		}
+		byte[] sparseBytes = sparse.toBytes();
+		assertTrue(sparseBytes.length < 100);
+		assertEquals(sparse, HyperLogLog.fromBytes(sparseBytes));
+
+		HyperLogLog dense = new HyperLogLog();
+		for (long chatId = 0; chatId < 20_000; chatId++) {
+			dense.add(chatId);
+		}
+		byte[] denseBytes = dense.toBytes();
+		assertEquals(2 + (1 << HyperLogLog.DEFAULT_PRECISION), denseBytes.length);
+		assertEquals(dense, HyperLogLog.fromBytes(denseBytes));
+
+		assertTrue(HyperLogLog.fromBytes(null).isEmpty());
+	}
+}
@@ -0,0 +1,140 @@
+package com.chatalyst.backend.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyedSerialExecutorTests {
+
+	private static final int CHATS = 10_000;
+	private static final int MESSAGES_PER_CHAT = 10;
+	private static final int PRODUCERS = 16;
+
+	private ExecutorService pool;
+
+	@BeforeEach
+	void setUp() {
+		pool = Executors.newFixedThreadPool(32);
+	}
+
+	@AfterEach
+	void tearDown() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	void keepsPerChatOrderAcrossTenThousandConcurrentChats() throws Exception {
+		KeyedSerialExecutor<Integer> executor = new KeyedSerialExecutor<>(pool);
+
+		AtomicIntegerArray lastSeen = new AtomicIntegerArray(CHATS);
+		AtomicIntegerArray runningPerChat = new AtomicIntegerArray(CHATS);
+		AtomicInteger orderViolations = new AtomicInteger();
+		AtomicInteger overlapViolations = new AtomicInteger();
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxParallel = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(CHATS * MESSAGES_PER_CHAT);
+
+		for (int chat = 0; chat < CHATS; chat++) {
+			lastSeen.set(chat, -1);
+		}
+
+		// Каждый производитель отвечает за свою часть чатов и отправляет их сообщения вперемешку,
+		// как это происходит с вебхуками от разных пользователей.
+		ExecutorService producers = Executors.newFixedThreadPool(PRODUCERS);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int p = 0; p < PRODUCERS; p++) {
+			int producer = p;
+			producers.submit(() -> {
+				start.await();
+				for (int seq = 0; seq < MESSAGES_PER_CHAT; seq++) {
+					for (int chat = producer; chat < CHATS; chat += PRODUCERS) {
+						int chatId = chat;
+						int expected = seq;
+						executor.execute(chatId, () -> {
+							if (runningPerChat.incrementAndGet(chatId) != 1) {
+								overlapViolations.incrementAndGet();
+							}
+							maxParallel.accumulateAndGet(running.incrementAndGet(), Math::max);
+							if (lastSeen.getAndSet(chatId, expected) != expected - 1) {
+								orderViolations.incrementAndGet();
+							}
+							running.decrementAndGet();
+							runningPerChat.decrementAndGet(chatId);
+							done.countDown();
+						});
+					}
+				}
+				return null;
+			});
+		}
+		start.countDown();
+
+		assertTrue(done.await(60, TimeUnit.SECONDS), "not all messages were processed");
+		producers.shutdown();
+
+		assertEquals(0, orderViolations.get(), "messages of one chat were processed out of order");
+		assertEquals(0, overlapViolations.get(), "messages of one chat were processed concurrently");
+		for (int chat = 0; chat < CHATS; chat++) {
+			assertEquals(MESSAGES_PER_CHAT - 1, lastSeen.get(chat));
+		}
+		assertTrue(maxParallel.get() > 1, "different chats were not processed in parallel");
+		awaitNoActiveKeys(executor, "idle chat lanes must be released");
+	}
+
+	@Test
+	void failingTaskDoesNotBlockLane() throws Exception {
+		KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<>(pool);
+		CountDownLatch done = new CountDownLatch(1);
+
+		executor.execute("bot:1", () -> {
+			throw new IllegalStateException("boom");
+		});
+		executor.execute("bot:1", done::countDown);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void asyncTaskHoldsLaneButNotThread() throws Exception {
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<>(single);
+			CompletableFuture<Void> reply = new CompletableFuture<>();
+			CountDownLatch otherChat = new CountDownLatch(1);
+			CountDownLatch nextInChat = new CountDownLatch(1);
+
+			executor.executeAsync("bot:1", () -> reply);
+			executor.execute("bot:1", nextInChat::countDown);
+			executor.execute("bot:2", otherChat::countDown);
+
+			// Единственный поток свободен, пока ответ не готов, но очередь чата bot:1 ждёт
+			assertTrue(otherChat.await(5, TimeUnit.SECONDS), "pending async task must not occupy the thread");
+			assertFalse(nextInChat.await(200, TimeUnit.MILLISECONDS), "next task of the chat started too early");
+
+			reply.completeExceptionally(new IllegalStateException("boom"));
+			assertTrue(nextInChat.await(5, TimeUnit.SECONDS));
+			single.shutdown();
+			assertTrue(single.awaitTermination(5, TimeUnit.SECONDS));
+			awaitNoActiveKeys(executor, "idle chat lane must be released");
+		} finally {
+			single.shutdownNow();
+		}
+	}
+
+	/**
+	 * Очередь чата освобождается уже после того, как последняя задача отработала, — ждём с таймаутом.
+	 */
+	private static void awaitNoActiveKeys(KeyedSerialExecutor<?> executor, String message) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (executor.activeKeys() != 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, executor.activeKeys(), message);
+	}
+}
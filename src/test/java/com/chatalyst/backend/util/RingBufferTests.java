@@ -0,0 +1,30 @@
+package com.chatalyst.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferTests {
+
+	@Test
+	void keepsNewestItemsInInsertionOrder() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(3);
+		for (int i = 1; i <= 5; i++) {
+			buffer.add(i);
+		}
+
+		assertEquals(List.of(3, 4, 5), buffer.toList());
+		assertEquals(3, buffer.size());
+	}
+
+	@Test
+	void returnsPartialContentBeforeWrapping() {
+		RingBuffer<String> buffer = new RingBuffer<>(4);
+		buffer.add("a");
+		buffer.add("b");
+
+		assertEquals(List.of("a", "b"), buffer.toList());
+	}
+}
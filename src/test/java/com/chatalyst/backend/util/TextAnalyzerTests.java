@@ -0,0 +1,33 @@
+package com.chatalyst.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextAnalyzerTests {
+
+	@Test
+	void normalizeIgnoresCasePunctuationAndEmoji() {
+		assertEquals("доставка есть", TextAnalyzer.normalize("Доставка  ЕСТЬ?? 🚚"));
+		assertEquals("доставка есть", TextAnalyzer.normalize("  доставка, есть!"));
+		assertEquals("что есть из еды", TextAnalyzer.normalize("Что есть из ЕДЫ…"));
+		assertEquals("елка қымыз 2", TextAnalyzer.normalize("Ёлка — Қымыз (2)"));
+		assertEquals("", TextAnalyzer.normalize("👍!!"));
+	}
+
+	@Test
+	void normalizeKeepsWordOrder() {
+		assertNotEquals(TextAnalyzer.normalize("доставка есть?"), TextAnalyzer.normalize("есть доставка?"));
+	}
+
+	@Test
+	void stemsRussianAndKazakhWordForms() {
+		assertEquals(TextAnalyzer.stem("бананы"), TextAnalyzer.stem("бананов"));
+		assertEquals(TextAnalyzer.stem("конфета"), TextAnalyzer.stem("конфеты"));
+		assertEquals("алма", TextAnalyzer.stem("алмалардың"));
+		assertEquals("қымыз", TextAnalyzer.stem("қымызды"));
+		assertEquals(List.of("банан", "молок"), TextAnalyzer.terms("Хочу бананов и молока!"));
+	}
+}
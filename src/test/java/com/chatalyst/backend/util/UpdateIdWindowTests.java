@@ -0,0 +1,100 @@
+package com.chatalyst.backend.util;
+
+import com.chatalyst.backend.util.UpdateIdWindow.Result;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpdateIdWindowTests {
+
+	@Test
+	void roundsSizeUpToPowerOfTwo() {
+		assertEquals(1024, new UpdateIdWindow(1000).size());
+		assertEquals(1024, new UpdateIdWindow(1024).size());
+		assertEquals(2048, new UpdateIdWindow(1025).size());
+	}
+
+	@Test
+	void detectsRedeliveredUpdates() {
+		UpdateIdWindow window = new UpdateIdWindow(8);
+
+		assertEquals(Result.NEW, window.tryMark(100));
+		assertEquals(Result.NEW, window.tryMark(101));
+		assertEquals(Result.DUPLICATE, window.tryMark(100));
+		assertEquals(Result.DUPLICATE, window.tryMark(101));
+	}
+
+	@Test
+	void evictsOldIdsWhenWindowWrapsAround() {
+		UpdateIdWindow window = new UpdateIdWindow(8);
+		for (long id = 1; id <= 8; id++) {
+			assertEquals(Result.NEW, window.tryMark(id));
+		}
+
+		// id 9 занимает слот id 1: тот вытеснен из окна, и его повтор считается устаревшим
+		assertEquals(Result.NEW, window.tryMark(9));
+		assertEquals(Result.STALE, window.tryMark(1));
+		assertEquals(Result.DUPLICATE, window.tryMark(9));
+		// Остальные id ещё в окне
+		assertEquals(Result.DUPLICATE, window.tryMark(2));
+		assertEquals(Result.DUPLICATE, window.tryMark(8));
+	}
+
+	@Test
+	void acceptsOutOfOrderIdsInsideWindow() {
+		UpdateIdWindow window = new UpdateIdWindow(8);
+
+		assertEquals(Result.NEW, window.tryMark(5));
+		assertEquals(Result.NEW, window.tryMark(3));
+		assertEquals(Result.NEW, window.tryMark(4));
+		assertEquals(Result.DUPLICATE, window.tryMark(3));
+	}
+
+	@Test
+	void unmarkAllowsRedelivery() {
+		UpdateIdWindow window = new UpdateIdWindow(8);
+		window.tryMark(42);
+
+		window.unmark(42);
+		assertEquals(Result.NEW, window.tryMark(42));
+
+		// Снимается только своя отметка: слот уже занят более новым id
+		window.tryMark(50);
+		window.unmark(42);
+		assertEquals(Result.DUPLICATE, window.tryMark(50));
+	}
+
+	@Test
+	void onlyOneConcurrentDeliveryIsNew() throws Exception {
+		UpdateIdWindow window = new UpdateIdWindow(1024);
+		int threads = 8;
+		int updates = 10_000;
+		AtomicInteger fresh = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		try {
+			for (int t = 0; t < threads; t++) {
+				pool.submit(() -> {
+					start.await();
+					// Все потоки доставляют одни и те же id — как повторы вебхука
+					for (long id = 1; id <= updates; id++) {
+						if (window.tryMark(id) == Result.NEW) {
+							fresh.incrementAndGet();
+						}
+					}
+					return null;
+				});
+			}
+			start.countDown();
+			pool.shutdown();
+			assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+		} finally {
+			pool.shutdownNow();
+		}
+
+		assertEquals(updates, fresh.get());
+	}
+}